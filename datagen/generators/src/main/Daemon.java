@@ -0,0 +1,176 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.charset.StandardCharsets;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.util.stream.Collectors;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.OptionalInt;
+import java.io.PrintStream;
+import java.util.Properties;
+import java.io.InputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.io.File;
+
+import utils.JsonLines;
+
+/**
+ * Keeps the generator resident, so that a series of datasets only pays
+ * for starting the JVM, loading POI and fastods and warming up the JIT
+ * once. Jobs are JSON objects, one per line, whose members are the fields
+ * of a config file (see the README) and an optional "id":
+ *
+ *      {"id": "a", "INST": "CompleteBipartiteSum", "PATH": "datasets", "ROWS": 100, "FRMT": ["xlsx", "csv"], ...}
+ *
+ * Arrays are joined with commas and null stands for an empty field (e.g.
+ * "SEED": null). Jobs run one after another, each like Main runs a config
+ * file, and are reported with events, one JSON object per line:
+ *
+ *      {"event": "ready"}                                      Jobs are accepted (with the "port" of a socket)
+ *      {"event": "started", "id": "a"}
+ *      {"event": "sheet", "id": "a", "rows": 100, ...}         A sheet is done ("seconds", "complete", "files" and "error")
+ *      {"event": "done", "id": "a", "status": 0, ...}          The job is done ("seconds" and "failed")
+ *      {"event": "failed", "id": "a", "error": "..."}          The job could not run (e.g. an invalid field)
+ *
+ * The status of a job is 1 if any of its sheets failed (see "failed", the
+ * number of those, and the "error" of each) and 0 otherwise.
+ *
+ * The daemon reads jobs from stdin and writes events to stdout until stdin
+ * ends (everything else that Main prints goes to stderr). Given a port, it
+ * listens on the loopback interface instead (0 picks a free port, which
+ * the ready event on stdout reports) and serves one connection at a time,
+ * until a connection is closed or lost. Either way, only the job
+ * {"op": "shutdown"} stops it.
+ */
+public class Daemon {
+
+    /**
+     * @param port The port to listen on, or empty to use stdin and stdout.
+     * @throws IOException
+     */
+    static void serve (OptionalInt port) throws IOException {
+        PrintStream stdout = System.out;
+        if (port.isEmpty()) {
+            System.setOut(System.err);
+            Daemon.emit(stdout, "event", "ready");
+            Daemon.handle(System.in, stdout);
+            return;
+        }
+        try (ServerSocket server = new ServerSocket(port.getAsInt(), 1, InetAddress.getLoopbackAddress())) {
+            Daemon.emit(stdout, "event", "ready", "port", server.getLocalPort());
+            for (boolean running = true; running; ) {
+                Socket client = server.accept();
+                try (client) {
+                    running = Daemon.handle(client.getInputStream(), new PrintStream(client.getOutputStream(), true, StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    // The client went away (e.g. it exited with events unread), not the daemon
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the jobs read from `in` until it ends.
+     *
+     * @param in
+     * @param out The stream that events are written to.
+     * @return False if a job asked the daemon to shut down.
+     * @throws IOException
+     */
+    private static boolean handle (InputStream in, PrintStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (line.trim().length() == 0) {
+                continue;
+            }
+            Map<String, Object> job;
+            try {
+                job = JsonLines.parse(line);
+            } catch (IllegalArgumentException e) {
+                Daemon.emit(out, "event", "failed", "id", null, "error", e.getMessage());
+                continue;
+            }
+            Object id = job.remove("id");
+            if ("shutdown".equals(job.get("op"))) {
+                Daemon.emit(out, "event", "shutdown", "id", id);
+                return false;
+            }
+            Daemon.run(id, job, out);
+        }
+        return true;
+    }
+
+    private static void run (Object id, Map<String, Object> job, PrintStream out) {
+        Properties config = new Properties();
+        for (Map.Entry<String, Object> member : job.entrySet()) {
+            config.setProperty(member.getKey(), Daemon.toField(member.getValue()));
+        }
+        long            start   = System.nanoTime();
+        AtomicInteger   failed  = new AtomicInteger();
+        Daemon.emit(out, "event", "started", "id", id);
+        try {
+            int status = Main.run(config, (rows, files, nanos, failure) -> {
+                if (failure != null) {
+                    failed.incrementAndGet();
+                }
+                Daemon.emit(out
+                    , "event"       , "sheet"
+                    , "id"          , id
+                    , "rows"        , rows
+                    , "seconds"     , nanos / 1e9
+                    , "complete"    , failure == null && files.stream().allMatch(File::exists)
+                    , "files"       , files.stream().map(File::getAbsolutePath).collect(Collectors.toList())
+                    , "error"       , failure == null ? null : Daemon.describe(failure)
+                );
+            });
+            if (failed.get() > 0) {
+                status = Math.max(status, 1);
+            }
+            Daemon.emit(out, "event", "done", "id", id, "status", status, "failed", failed.get(), "seconds", (System.nanoTime() - start) / 1e9);
+        } catch (Throwable e) {
+            // Errors too (e.g. an OutOfMemoryError), which only end the job
+            e.printStackTrace();
+            Daemon.emit(out, "event", "failed", "id", id, "error", Daemon.describe(e));
+        }
+    }
+
+    /**
+     * @param e
+     * @return `e` and its causes, e.g. "Failed to create the sheet with 10
+     * row(s): No space left on device".
+     */
+    private static String describe (Throwable e) {
+        StringBuilder sb = new StringBuilder(e.getMessage() != null ? e.getMessage() : e.toString());
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && sb.indexOf(cause.getMessage()) < 0) {
+                sb.append(": ").append(cause.getMessage());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String toField (Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Iterable) {
+            StringBuilder sb = new StringBuilder();
+            for (Object item : (Iterable<?>) value) {
+                sb.append(sb.length() > 0 ? "," : "").append(item);
+            }
+            return sb.toString();
+        }
+        return value.toString();
+    }
+
+    private static void emit (PrintStream out, Object... members) {
+        synchronized (out) {
+            out.println(JsonLines.format(members));
+            out.flush();
+        }
+    }
+
+}
@@ -1,34 +1,68 @@
-import java.util.concurrent.ExecutorService;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
 import java.io.FileInputStream;
 import java.util.OptionalLong;
+import java.util.OptionalInt;
+import java.util.zip.Deflater;
 import java.util.Properties;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.io.File;
 
 import vlookups.*;
+import writers.*;
 import creator.*;
 import utils.*;
 import sums.*;
 
 public class Main {
 
-    private static final Creatable      INST;
-    private static final Path           PATH;
-    private static final OptionalLong   SEED;
-    private static final boolean        XLSX;
-    private static final int            STEP;
-    private static final int            ROWS;
-    private static final int            COLS;
-    private static final int            ITRS;
-    private static final int            POOL;
-    private  static final int           UPPR;
-
-    // Be careful! ROWS, COLS, and UPPR should be assigned before INST.
-    static {
-        Properties pr = new Properties();
-        try(FileInputStream in = new FileInputStream("config")) { pr.load(in); }
-        catch (IOException e) { e.printStackTrace(); System.exit(1); }
+    private static Creatable      INST;
+    private static Path           PATH;
+    private static OptionalLong   SEED;
+    private static boolean        XLSX;
+    private static int            STEP;
+    private static int            ROWS;
+    private static int            COLS;
+    private static int            ITRS;
+    private static int            POOL;
+    private static int            UPPR;
+    private static boolean        STRM;
+    private static Format[]       FRMT;
+    private static int            CHNK;
+    private static WriterOptions  OPTS;
+    private static long           HEAP;
+    private static int            SIDX;
+    private static int            SCNT;
+    private static boolean        MRGE;
+    private static Manifest       MNFT;
+
+    /**
+     * A listener for the sheets that `run` creates. It may be called from
+     * several threads at once if POOL is more than 1.
+     */
+    interface Listener {
+
+        /**
+         * @param rows
+         * @param files Every file of the sheet (see Creator.listFiles),
+         * some of which may be missing if the sheet failed.
+         * @param nanos The time it took to create the sheet.
+         * @param failure Why the sheet failed, or null if it did not.
+         */
+        public void sheetCreated (int rows, List<File> files, long nanos, Throwable failure);
+
+    }
+
+    /**
+     * Reads the fields of a config file (see the README).
+     *
+     * @param pr
+     */
+    private static void configure (Properties pr) {
+        // Be careful! ROWS, COLS, and UPPR should be assigned before INST.
         PATH = Path.of(pr.getProperty("PATH"));
         STEP = Integer.parseInt(pr.getProperty("STEP"));
         ROWS = Integer.parseInt(pr.getProperty("ROWS"));
@@ -39,6 +73,24 @@ public class Main {
         UPPR = Main.resolveUppr(pr.getProperty("UPPR"));
         INST = Main.resolveName(pr.getProperty("INST"));
         XLSX = Boolean.parseBoolean(pr.getProperty("XLSX"));
+        STRM = Boolean.parseBoolean(pr.getProperty("STRM", "false"));
+        FRMT = Main.resolveFormats(pr.getProperty("FRMT", ""));
+        CHNK = Integer.parseInt(pr.getProperty("CHNK", "1"));
+        OPTS = WriterOptions.DEFAULT
+            .withLevel              (Main.resolveLevel(pr.getProperty("LEVL", "")))
+            .withThreads            (Main.resolveCompressionThreads(pr.getProperty("ZIPT", "")))
+            .withWriteQueue         (Integer.parseInt(pr.getProperty("WBUF", "16")))
+            .withSharedFormulas     (Boolean.parseBoolean(pr.getProperty("SHRD", "false")))
+            .withFullCalcOnLoad     (Main.resolveRecalc(pr.getProperty("RCLC", "")))
+            .withCalcChain          (Boolean.parseBoolean(pr.getProperty("CALC", "false")))
+            .withRepeatCompression  (Boolean.parseBoolean(pr.getProperty("RPTS", "true")))
+            .withCachedResults      (Boolean.parseBoolean(pr.getProperty("CACH", "false")))
+            .withGroundTruth        (Main.resolveGroundTruth(pr.getProperty("TRTH", "")));
+        HEAP = Main.resolveHeap(pr.getProperty("HEAP", ""));
+        SIDX = Integer.parseInt(pr.getProperty("SIDX", "0"));
+        SCNT = Integer.parseInt(pr.getProperty("SCNT", "1"));
+        MRGE = Boolean.parseBoolean(pr.getProperty("MRGE", "false"));
+        MNFT = Boolean.parseBoolean(pr.getProperty("MNFT", "true")) ? new Manifest(PATH.toFile(), Main.describeOptions()) : null;
     }
 
     /**
@@ -60,7 +112,7 @@ public class Main {
         if (s.equals("SpecialMixedRangeSum"))               return new sums.specialsums.MixedRangeSum           (Main.UPPR);
         if (s.equals("SpecialNoEdgeSum"))                   return new sums.specialsums.NoEdgeSum               (Main.UPPR);
         if (s.equals("SpecialOverlappingSum"))              return new sums.specialsums.OverlappingSum          (Main.UPPR);
-        return null;
+        throw new IllegalArgumentException("Unknown INST: " + s);
     }
 
     /**
@@ -87,6 +139,109 @@ public class Main {
         return OptionalLong.of(Long.parseLong(s));
     }
 
+    /**
+     * @param s
+     * @return The formats listed in `s` (e.g. "xlsx,ods,csv"). If `s`
+     * is empty, returns .xlsx or .ods depending on XLSX.
+     */
+    private static Format[] resolveFormats (String s) {
+        if (s.trim().length() == 0) {
+            return new Format[] { Main.XLSX ? Format.XLSX : Format.ODS };
+        }
+        String[]    names   = s.split(",");
+        Format[]    formats = new Format[names.length];
+        for (int i = 0; i < names.length; i++) {
+            formats[i] = Format.valueOf(names[i].trim().toUpperCase());
+        }
+        return formats;
+    }
+
+    /**
+     * @param s
+     * @return The ground truth encodings listed in `s` (any of "bin",
+     * "csv" and "tsv"). If `s` is empty, returns no encodings.
+     */
+    private static GroundTruthWriter.Encoding[] resolveGroundTruth (String s) {
+        if (s.trim().length() == 0) {
+            return new GroundTruthWriter.Encoding[0];
+        }
+        String[]                        names       = s.split(",");
+        GroundTruthWriter.Encoding[]    encodings   = new GroundTruthWriter.Encoding[names.length];
+        for (int i = 0; i < names.length; i++) {
+            encodings[i] = GroundTruthWriter.Encoding.valueOf(names[i].trim().toUpperCase());
+        }
+        return encodings;
+    }
+
+    /**
+     * @param s
+     * @return The compression level in `s` (0-9 or "STORED"). If
+     * `s` is empty, returns the default level.
+     */
+    private static int resolveLevel (String s) {
+        if (s.trim().length() == 0) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        if (s.trim().equalsIgnoreCase("STORED")) {
+            return ZipWriter.STORED;
+        }
+        return Integer.parseInt(s.trim());
+    }
+
+    /**
+     * @param s
+     * @return The heap budget in `s` (in megabytes) in bytes. If `s` is
+     * empty, returns the default budget of the scheduler.
+     */
+    private static long resolveHeap (String s) {
+        if (s.trim().length() == 0) {
+            return SheetScheduler.defaultBudget();
+        }
+        return Long.parseLong(s.trim()) << 20;
+    }
+
+    /**
+     * @param s
+     * @return The number of compression threads in `s`. If `s` is empty,
+     * returns CHNK if it is more than 1 and otherwise 1 if there is a
+     * core to spare for compression, or 0 (compress while serializing).
+     */
+    private static int resolveCompressionThreads (String s) {
+        if (s.trim().length() == 0) {
+            if (Main.CHNK > 1) {
+                return Main.CHNK;
+            }
+            return Runtime.getRuntime().availableProcessors() > 1 ? 1 : 0;
+        }
+        return Integer.parseInt(s.trim());
+    }
+
+    /**
+     * @param s
+     * @return True or false as in `s`, or null if `s` is empty.
+     */
+    private static Boolean resolveRecalc (String s) {
+        if (s.trim().length() == 0) {
+            return null;
+        }
+        return Boolean.parseBoolean(s.trim());
+    }
+
+    /**
+     * @return The settings that the bytes of the created files depend on,
+     * besides what Creator.createSheets is given, for the manifest.
+     */
+    private static String describeOptions () {
+        return "uppr=" + Main.UPPR
+            + " level=" + Main.OPTS.getLevel()
+            + " compressInline=" + (Main.OPTS.getThreads() == 0)
+            + " shared=" + Main.OPTS.isSharedFormulas()
+            + " cached=" + Main.OPTS.isCachedResults()
+            + " recalc=" + Main.OPTS.getFullCalcOnLoad()
+            + " calcChain=" + Main.OPTS.isCalcChain()
+            + " repeats=" + Main.OPTS.isRepeatCompression();
+    }
+
     /**
      * @return An array of strings, ARR, where ARR[0] is the path
      * to the formula-value directory and ARR[1] is the path to 
@@ -100,43 +255,189 @@ public class Main {
         return new String[] { fDir.toString(), vDir.toString() };
     }
 
+    /**
+     * @return The number of rows of every sheet in the series (see ROWS,
+     * STEP and ITRS).
+     */
+    private static int[] createSeries () {
+        int[] series = new int[Main.ITRS];
+        for (int i = 0, r = Main.ROWS; i < Main.ITRS; i++, r += Main.STEP) {
+            series[i] = r;
+        }
+        return series;
+    }
+
+    /**
+     * @param series
+     * @param shard
+     * @return The sheets of `series` that shard `shard` of SCNT creates.
+     * The shards are balanced by the estimated cost of their sheets.
+     */
+    private static int[] selectShard (int[] series, int shard) {
+        long[] costs = new long[series.length];
+        for (int i = 0; i < series.length; i++) {
+            costs[i] = Creator.estimateCost(Main.INST, series[i], Main.COLS);
+        }
+        int[] shards = Sharding.assign(costs, Main.SCNT);
+        return IntStream.range(0, series.length).filter(i -> shards[i] == shard).map(i -> series[i]).toArray();
+    }
+
+    /**
+     * @param shard
+     * @return The file in which shard `shard` of SCNT lists the sheets it
+     * created once it has created all of them.
+     */
+    private static File shardFile (int shard) {
+        return Path.of(Main.PATH.toString(), "shard-" + shard + "-of-" + Main.SCNT).toFile();
+    }
+
+    /**
+     * Checks that the shards of the series together created every file of
+     * it, that the files are complete (see Creator.isComplete) and that
+     * every shard finished its own share (and was given the same series).
+     *
+     * @param paths
+     * @return True if the series is complete.
+     * @throws IOException
+     */
+    private static boolean mergeShards (String[] paths) throws IOException {
+        int[]   series      = Main.createSeries();
+        boolean complete    = true;
+        if (Main.SCNT > 1) {
+            for (int s = 0; s < Main.SCNT; s++) {
+                File shard = Main.shardFile(s);
+                if (!shard.exists()) {
+                    System.out.println("Shard " + s + " of " + Main.SCNT + " has not finished");
+                    complete = false;
+                } else if (!Files.readString(shard.toPath(), StandardCharsets.US_ASCII).equals(Main.listRows(Main.selectShard(series, s)))) {
+                    System.out.println("Shard " + s + " of " + Main.SCNT + " created other sheets than it was assigned (was it run with another config?)");
+                    complete = false;
+                }
+            }
+        }
+        for (int r : series) {
+            boolean present = true;
+            for (File file : Creator.listFiles(paths[0], paths[1], r, Main.FRMT, Main.OPTS)) {
+                if (!file.exists()) {
+                    System.out.println("Missing " + file);
+                    present = false;
+                }
+            }
+            if (present && !Creator.isComplete(Main.INST, paths[0], paths[1], r, Main.COLS, Main.SEED, Main.FRMT, Main.STRM, Main.OPTS, Main.MNFT)) {
+                System.out.println("The files of the sheet with " + r + " row(s) do not match the manifest (cut short or created from other inputs)");
+                present = false;
+            }
+            complete &= present;
+        }
+        System.out.println(complete ? "All " + series.length + " sheet(s) of the series are complete" : "The series is incomplete");
+        return complete;
+    }
+
+    private static String listRows (int[] rows) {
+        StringBuilder sb = new StringBuilder();
+        for (int r : rows) {
+            sb.append(r).append('\n');
+        }
+        return sb.toString();
+    }
+
     /**
      * A wrapper method for creating spreadsheets.
      * 
      * @param fPath
      * @param vPath
      * @param rows
+     * @param listener Told about the sheet once it is done, even if it
+     * failed.
      */
-    private static void createSpreadsheet (String fPath, String vPath, int rows) {
+    private static void createSpreadsheet (String fPath, String vPath, int rows, Listener listener) {
         System.out.println("Creating a sheet with " + rows + " row(s)");
-        if (Main.XLSX) {
-            Creator.createExcelSheet(Main.INST, fPath, vPath, rows, Main.COLS, Main.SEED);
-        } else {
-            Creator.createCalcSheet(Main.INST, fPath, vPath, rows, Main.COLS, Main.SEED);
+        long        start   = System.nanoTime();
+        Throwable   failure = null;
+        try {
+            Creator.createSheets(Main.INST, fPath, vPath, rows, Main.COLS, Main.SEED, Main.FRMT, Main.STRM, Main.CHNK, Main.OPTS, Main.MNFT);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            listener.sheetCreated(rows, Creator.listFiles(fPath, vPath, rows, Main.FRMT, Main.OPTS), System.nanoTime() - start, failure);
         }
     }
 
     public static void main (String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            Daemon.serve(args.length > 1 ? OptionalInt.of(Integer.parseInt(args[1])) : OptionalInt.empty());
+            return;
+        }
+        Properties pr = new Properties();
+        try(FileInputStream in = new FileInputStream("config")) { pr.load(in); }
+        catch (IOException e) { e.printStackTrace(); System.exit(1); }
+        int status = Main.run(pr, (rows, files, nanos, failure) -> {});
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Creates the datasets that `config` describes. Runs one at a time,
+     * since the fields of the config are kept in Main (the writers get
+     * their settings from OPTS, see WriterOptions).
+     *
+     * @param config The fields of a config file (see the README).
+     * @param listener
+     * @return 0, or 1 if a sheet failed or a merge (see MRGE) found the
+     * series incomplete.
+     * @throws IOException
+     */
+    static synchronized int run (Properties config, Listener listener) throws IOException {
 
         /** Setup */
+        Main.configure(config);
+        if (Main.SIDX < 0 || Main.SIDX >= Main.SCNT) {
+            throw new IllegalArgumentException("Invalid shard " + Main.SIDX + " of " + Main.SCNT);
+        }
         String[]    paths = Main.createDirectories();
         Stopwatch   stopw = new Stopwatch();
+        if (Main.MRGE) {
+            return Main.mergeShards(paths) ? 0 : 1;
+        }
+        int[]       share   = Main.selectShard(Main.createSeries(), Main.SIDX);
+        int         failed  = 0;
 
         /** Create datasets */
         stopw.start();
         if (Main.POOL == 1) {
-            for (int i = 0, r = Main.ROWS; i < Main.ITRS; i++, r += Main.STEP) {
-                Main.createSpreadsheet(paths[0], paths[1], r);
+            for (int r : share) {
+                try {
+                    Main.createSpreadsheet(paths[0], paths[1], r, listener);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    failed++;
+                }
             }
         } else {
-            ExecutorService exc = SimpleThreadPoolExecutor.getNewExecutor(Main.POOL);
-            for (int i = 0, r = Main.ROWS; i < Main.ITRS; i++, r += Main.STEP) {
-                int[] rSize = {r};
-                exc.submit(() -> { Main.createSpreadsheet(paths[0], paths[1], rSize[0]); });
+            SheetScheduler sch = new SheetScheduler(Main.POOL, Main.HEAP);
+            for (int r : share) {
+                long    cost    = Creator.estimateCost(Main.INST, r, Main.COLS);
+                long    heap    = Creator.estimateHeap(Main.INST, r, Main.COLS, Main.FRMT, Main.STRM, Main.CHNK, Main.OPTS);
+                sch.submit(cost, heap, () -> { Main.createSpreadsheet(paths[0], paths[1], r, listener); });
             }
-            SimpleThreadPoolExecutor.wait(exc);
+            SheetScheduler.Statistics stats = sch.run();
+            System.out.println(stats);
+            failed = stats.getFailed();
         }
         stopw.printDuration();
 
+        /** Record whether this shard is complete */
+        if (failed > 0) {
+            System.out.println(failed + " of " + share.length + " sheet(s) failed");
+            Files.deleteIfExists(Main.shardFile(Main.SIDX).toPath());
+            return 1;
+        }
+        if (Main.SCNT > 1) {
+            Files.writeString(Main.shardFile(Main.SIDX).toPath(), Main.listRows(share), StandardCharsets.US_ASCII);
+        }
+        return 0;
+
     }
 }
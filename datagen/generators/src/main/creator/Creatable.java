@@ -1,14 +1,24 @@
 package creator;
 
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import com.github.jferard.fastods.Table;
-import java.io.IOException;
-
 public interface Creatable {
 
-    public void createExcelSheet        (SXSSFSheet fSheet, SXSSFSheet  vSheet, int rows, int cols              );
-    public void createRandomExcelSheet  (SXSSFSheet fSheet, SXSSFSheet  vSheet, int rows, int cols, long seed   );
-    public void createCalcSheet         (Table      fSheet, Table       vSheet, int rows, int cols              )   throws IOException;
-    public void createRandomCalcSheet   (Table      fSheet, Table       vSheet, int rows, int cols, long seed   )   throws IOException;
+    /**
+     * @param rows The number of rows that contain formulae.
+     * @return The number of rows in the sheet.
+     */
+    public int getRowCount (int rows);
+
+    /**
+     * @param cols The COLS parameter.
+     * @return The number of columns in the sheet.
+     */
+    public int getColCount (int cols);
+
+    /**
+     * Does the work that is shared by all rows (e.g. drawing random values
+     * or computing totals) and returns an object that creates each row.
+     */
+    public RowCreator prepareSheet          (int rows, int cols             );
+    public RowCreator prepareRandomSheet    (int rows, int cols, long seed  );
 
 }
@@ -1,72 +1,506 @@
 package creator;
 
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
-import org.apache.poi.xssf.streaming.SXSSFSheet;
 import org.apache.poi.ss.usermodel.Workbook;
 
-import com.github.jferard.fastods.AnonymousOdsFileWriter;
 import com.github.jferard.fastods.OdsFactory;
-import com.github.jferard.fastods.Table;
 
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.io.UncheckedIOException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.io.File;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.OptionalLong;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.Deque;
+import java.util.List;
+
+import utils.SimpleThreadPoolExecutor;
+
+import writers.FastodsSheetWriter;
+import writers.GroundTruthWriter;
+import writers.DualSheetWriter;
+import writers.SXSSFSheetWriter;
+import writers.XlsxSheetWriter;
+import writers.XlsbSheetWriter;
+import writers.CsvSheetWriter;
+import writers.OdsSheetWriter;
+import writers.WriterOptions;
+import writers.SheetWriter;
+import writers.Format;
 
 public abstract class Creator {
 
     private static final OdsFactory odsFactory = OdsFactory.create(Logger.getLogger("logger"), Locale.US);
 
+    /**
+     * Chunks are a multiple of this long so that their files stay worth
+     * copying and so that they start on the blocks that writers group
+     * shared formulas in.
+     */
+    private static final int MIN_CHUNK_ROWS = 256;
+
+    /** The number of chunks each thread gets (more chunks balance the load better) */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** The heap a sheet takes whatever its size (writers, zip buffers, POI's workbook) */
+    private static final long SHEET_HEAP = 16L << 20;
+
+    /**
+     * The heap each column takes in every format, mostly the rows that
+     * are buffered for the background threads that write the formula-value
+     * and value-only files.
+     */
+    private static final long COLUMN_HEAP = 1L << 19;
+
+    /**
+     * The heap each cell takes when fastods builds the table in memory,
+     * for the formula-value and value-only files together (about 350 and
+     * 250 bytes, as measured with formulas like SUM(A1:B1)).
+     */
+    private static final long FASTODS_CELL_HEAP = 640;
+
+    /**
+     * The version of the generator, which is part of the key of every
+     * manifest entry. Bump it whenever the same inputs produce other bytes,
+     * so that files created by older versions are created again.
+     */
+    public static final int VERSION = 1;
+
+    /** Temporary files of different processes (e.g. shards) never clash */
+    private static final String TEMP_SUFFIX = "." + ProcessHandle.current().pid() + ".tmp";
+
+    /**
+     * Estimates the heap that `createSheets` takes while it creates the
+     * sheet, which only grows with its size if .ods files are built in
+     * memory by fastods (i.e. not streamed). It is meant for scheduling
+     * sheets side by side (see SheetScheduler), not as a bound.
+     *
+     * @param createable
+     * @param rows
+     * @param cols
+     * @param formats
+     * @param stream
+     * @param threads
+     * @param options
+     * @return The estimated heap, in bytes.
+     */
+    public static long estimateHeap (Creatable createable, int rows, int cols, Format[] formats, boolean stream, int threads, WriterOptions options) {
+        long    cells       = (long) createable.getRowCount(rows) * createable.getColCount(cols);
+        long    columns     = createable.getColCount(cols);
+        boolean chunked     = threads > 1 && stream;
+        long    heap        = SHEET_HEAP;
+        for (Format format : formats) {
+            heap += COLUMN_HEAP * columns * (chunked ? threads : 1);
+            if (format == Format.ODS && !stream) {
+                heap += FASTODS_CELL_HEAP * cells;
+            }
+        }
+        return heap + COLUMN_HEAP * columns * options.getGroundTruth().length;
+    }
+
+    /**
+     * Estimates the work of creating the sheet, relative to other sheets:
+     * every cell of the layout counts once and every cell of the `rows`
+     * rows that hold formulas once more.
+     *
+     * @param createable
+     * @param rows
+     * @param cols
+     * @return The estimated cost.
+     */
+    public static long estimateCost (Creatable createable, int rows, int cols) {
+        return (long) createable.getRowCount(rows) * createable.getColCount(cols) + (long) rows * cols;
+    }
+
+    /**
+     * @param createable
+     * @param fPath
+     * @param vPath
+     * @param rows
+     * @param cols
+     * @param seed
+     * @param formats
+     * @param stream
+     * @param options
+     * @param manifest
+     * @return True if `createSheets` would skip the sheet, i.e. if every
+     * one of its files exists and, if there is a manifest, was recorded
+     * there for the same inputs with its current size and checksum.
+     * @throws IOException
+     */
+    public static boolean isComplete (Creatable createable, String fPath, String vPath, int rows, int cols, OptionalLong seed, Format[] formats, boolean stream, WriterOptions options, Manifest manifest) throws IOException {
+        String key = Creator.describe(createable, rows, cols, seed, stream);
+        for (Format format : formats) {
+            if (Creator.output(manifest, key + " format=" + format.extension, Creator.formulaFile(fPath, rows, format), Creator.valueFile(vPath, rows, format)) != null) {
+                return false;
+            }
+        }
+        for (GroundTruthWriter.Encoding encoding : options.getGroundTruth()) {
+            if (Creator.output(manifest, key + " truth=" + encoding.extension, Creator.truthFile(vPath, rows, encoding)) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param fPath
+     * @param vPath
+     * @param rows
+     * @param formats
+     * @param options
+     * @return Every file that `createSheets` creates for the sheet,
+     * including its ground truth.
+     */
+    public static List<File> listFiles (String fPath, String vPath, int rows, Format[] formats, WriterOptions options) {
+        List<File> files = new ArrayList<>();
+        for (Format format : formats) {
+            files.add(Creator.formulaFile(fPath, rows, format));
+            files.add(Creator.valueFile(vPath, rows, format));
+        }
+        for (GroundTruthWriter.Encoding encoding : options.getGroundTruth()) {
+            files.add(Creator.truthFile(vPath, rows, encoding));
+        }
+        return files;
+    }
+
     public static void createExcelSheet (Creatable createable, String fPath, String vPath, int rows, int cols, OptionalLong seed) {
-        try (SXSSFWorkbook fWorkbook = new SXSSFWorkbook(1); SXSSFWorkbook vWorkbook = new SXSSFWorkbook(1)) {
-            String fName = Path.of(fPath, "fv-" + rows + ".xlsx").toString();
-            String vName = Path.of(vPath, "vo-" + rows + ".xlsx").toString();
-            if (!(new File(fName)).exists() || !(new File(vName)).exists()) {
-                fWorkbook.setCompressTempFiles(true);
-                vWorkbook.setCompressTempFiles(true);
-                SXSSFSheet fSheet = fWorkbook.createSheet("Sheet1");
-                SXSSFSheet vSheet = vWorkbook.createSheet("Sheet1");
-                if (seed.isPresent()) {
-                    createable.createRandomExcelSheet(fSheet, vSheet, rows, cols, seed.getAsLong());
-                } else {
-                    createable.createExcelSheet(fSheet, vSheet, rows, cols);
+        Creator.createExcelSheet(createable, fPath, vPath, rows, cols, seed, false);
+    }
+
+    public static void createExcelSheet (Creatable createable, String fPath, String vPath, int rows, int cols, OptionalLong seed, boolean stream) {
+        Creator.createSheets(createable, fPath, vPath, rows, cols, seed, new Format[] { Format.XLSX }, stream);
+    }
+
+    public static void createCalcSheet (Creatable createable, String fPath, String vPath, int rows, int cols, OptionalLong seed) {
+        Creator.createCalcSheet(createable, fPath, vPath, rows, cols, seed, false);
+    }
+
+    public static void createCalcSheet (Creatable createable, String fPath, String vPath, int rows, int cols, OptionalLong seed, boolean stream) {
+        Creator.createSheets(createable, fPath, vPath, rows, cols, seed, new Format[] { Format.ODS }, stream);
+    }
+
+    public static void createSheets (Creatable createable, String fPath, String vPath, int rows, int cols, OptionalLong seed, Format[] formats, boolean stream) {
+        Creator.createSheets(createable, fPath, vPath, rows, cols, seed, formats, stream, 1);
+    }
+
+    public static void createSheets (Creatable createable, String fPath, String vPath, int rows, int cols, OptionalLong seed, Format[] formats, boolean stream, int threads) {
+        Creator.createSheets(createable, fPath, vPath, rows, cols, seed, formats, stream, threads, WriterOptions.DEFAULT, null);
+    }
+
+    /**
+     * Generates the layout once and writes it in every format in
+     * `formats`. Formats whose files already exist (and, if there is a
+     * manifest, are valid) are skipped. Files are written under temporary
+     * names and only renamed into place once the whole sheet has been
+     * written, so a sheet that is cut short never leaves a file behind.
+     *
+     * @param createable
+     * @param fPath
+     * @param vPath
+     * @param rows
+     * @param cols
+     * @param seed
+     * @param formats
+     * @param stream If true, sheets are streamed directly into the output
+     * files instead of going through SXSSF's temporary files (.xlsx) or
+     * being built in memory by fastods (.ods). Binary .xlsb and flat
+     * .fods files are always streamed.
+     * @param threads The number of threads that generate the rows of the
+     * sheet. More than one thread is only used if every sheet is streamed.
+     * @param options The settings of the writers, and the encodings of
+     * the ground truth of the sheet.
+     * @param manifest The manifest that the files are checked against and
+     * recorded in, or null to skip every format whose files exist.
+     * @throws UncheckedIOException If a file could not be written (e.g.
+     * the disk is full). None of the files of the sheet are kept then.
+     */
+    public static void createSheets (Creatable createable, String fPath, String vPath, int rows, int cols, OptionalLong seed, Format[] formats, boolean stream, int threads, WriterOptions options, Manifest manifest) {
+        String          key     = Creator.describe(createable, rows, cols, seed, stream);
+        List<Output>    outputs = new ArrayList<>();
+        try {
+            try (DualSheetWriter sheet = new DualSheetWriter(true, options)) {
+                for (Format format : formats) {
+                    Output output = Creator.output(manifest, key + " format=" + format.extension, Creator.formulaFile(fPath, rows, format), Creator.valueFile(vPath, rows, format));
+                    if (output != null) {
+                        outputs.add(output);
+                        SheetWriter formulas = Creator.createWriter(format, output.temps[0], stream, options);
+                        SheetWriter values;
+                        try {
+                            values = Creator.createWriter(format, output.temps[1], stream, options);
+                        } catch (IOException | RuntimeException e) {
+                            // The sheet does not own the formula writer yet
+                            try {
+                                formulas.close();
+                            } catch (IOException | RuntimeException suppressed) {
+                                e.addSuppressed(suppressed);
+                            }
+                            throw e;
+                        }
+                        sheet.add(format, formulas, values);
+                    }
                 }
-                Creator.saveWorkbook(fWorkbook, fName);
-                Creator.saveWorkbook(vWorkbook, vName);
-                fWorkbook.dispose();
-                vWorkbook.dispose();
+                for (GroundTruthWriter.Encoding encoding : options.getGroundTruth()) {
+                    Output output = Creator.output(manifest, key + " truth=" + encoding.extension, Creator.truthFile(vPath, rows, encoding));
+                    if (output != null) {
+                        outputs.add(output);
+                        sheet.addValues(new GroundTruthWriter(output.temps[0].getPath(), encoding, createable.getRowCount(rows), createable.getColCount(cols)));
+                    }
+                }
+                if (!sheet.isEmpty()) {
+                    if (threads > 1 && sheet.isChunkable()) {
+                        Creator.createSheet(createable, sheet, rows, cols, seed, threads);
+                    } else {
+                        Creator.createSheet(createable, sheet, rows, cols, seed);
+                    }
+                }
+            }
+            for (Output output : outputs) {
+                output.commit();
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Failed to create the sheet with " + rows + " row(s)", e);
+        } finally {
+            for (Output output : outputs) {
+                output.discard();
+            }
         }
     }
 
-    public static void createCalcSheet (Creatable createable, String fPath, String vPath, int rows, int cols, OptionalLong seed) {
-        File fName = Path.of(fPath, "fv-" + rows + ".ods").toFile();
-        File vName = Path.of(vPath, "vo-" + rows + ".ods").toFile();
-        if (!fName.exists() || !vName.exists()) {
-            try {
-                final AnonymousOdsFileWriter fWriter = Creator.odsFactory.createWriter();
-                final AnonymousOdsFileWriter vWriter = Creator.odsFactory.createWriter();
-                Table fSheet = fWriter.document().addTable("Sheet1");
-                Table vSheet = vWriter.document().addTable("Sheet1");
-                if (seed.isPresent()) {
-                    createable.createRandomCalcSheet(fSheet, vSheet, rows, cols, seed.getAsLong());
-                } else {
-                    createable.createCalcSheet(fSheet, vSheet, rows, cols);
+    /**
+     * Writes every row of the layout into `sheet` on the caller's thread.
+     *
+     * @param createable
+     * @param sheet
+     * @param rows
+     * @param cols
+     * @param seed
+     * @throws IOException
+     */
+    public static void createSheet (Creatable createable, DualSheetWriter sheet, int rows, int cols, OptionalLong seed) throws IOException {
+        Creator.createRows(Creator.prepare(createable, rows, cols, seed), sheet, 0, createable.getRowCount(rows));
+    }
+
+    /**
+     * Splits the rows of the layout into chunks that are generated and
+     * serialized by `threads` threads, then appends the chunks to `sheet`
+     * in order. At most 2 * `threads` chunks are held at a time.
+     *
+     * @param createable
+     * @param sheet A sheet for which `isChunkable` is true.
+     * @param rows
+     * @param cols
+     * @param seed
+     * @param threads
+     * @throws IOException
+     */
+    public static void createSheet (Creatable createable, DualSheetWriter sheet, int rows, int cols, OptionalLong seed, int threads) throws IOException {
+        RowCreator                                  creator = Creator.prepare(createable, rows, cols, seed);
+        int                                         count   = createable.getRowCount(rows);
+        int                                         size    = Creator.roundUp((count + threads * CHUNKS_PER_THREAD - 1) / (threads * CHUNKS_PER_THREAD), MIN_CHUNK_ROWS);
+        Deque<Future<DualSheetWriter.Chunk>>        pending = new ArrayDeque<>();
+        ExecutorService                             exc     = SimpleThreadPoolExecutor.getNewExecutor(threads);
+        try {
+            for (int from = 0; from < count || !pending.isEmpty(); ) {
+                while (from < count && pending.size() < threads * 2) {
+                    int start   = from;
+                    int end     = Math.min(count, from + size);
+                    pending.add(exc.submit(() -> Creator.createChunk(creator, sheet, start, end)));
+                    from = end;
+                }
+                sheet.appendChunk(Creator.get(pending.poll()));
+            }
+        } finally {
+            exc.shutdown();
+            for (Future<DualSheetWriter.Chunk> chunk : pending) {
+                try {
+                    chunk.get().discard();
+                } catch (ExecutionException | InterruptedException e) {
+                    // The chunk already cleaned up after itself
                 }
-                fWriter.saveAs(fName);
-                vWriter.saveAs(vName);
-            } catch (IOException e) {
-                e.printStackTrace();
             }
         }
     }
 
+    /**
+     * @return The key of the sheet in the manifest, without the format.
+     */
+    private static String describe (Creatable createable, int rows, int cols, OptionalLong seed, boolean stream) {
+        return "version=" + VERSION
+            + " layout=" + createable.getClass().getName()
+            + " rows=" + rows
+            + " cols=" + cols
+            + " seed=" + (seed.isPresent() ? String.valueOf(seed.getAsLong()) : "")
+            + " stream=" + stream;
+    }
+
+    /**
+     * @param manifest
+     * @param key
+     * @param files
+     * @return The output that creates `files`, or null if they already
+     * exist (and are valid).
+     * @throws IOException
+     */
+    private static Output output (Manifest manifest, String key, File... files) throws IOException {
+        List<File> list = Arrays.asList(files);
+        if (manifest != null ? manifest.isValid(key, list) : list.stream().allMatch(File::exists)) {
+            return null;
+        }
+        return new Output(manifest, key, files);
+    }
+
+    /**
+     * @param file
+     * @return The name under which `file` is written until it is complete.
+     */
+    static File tempFile (File file) {
+        return new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Renames `from` to `to`, replacing `to`. Readers of `to` either see
+     * the old or the new file, never part of one, unless the file system
+     * cannot rename atomically.
+     *
+     * @param from
+     * @param to
+     * @throws IOException
+     */
+    static void moveAtomically (File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static File formulaFile (String fPath, int rows, Format format) {
+        return Path.of(fPath, "fv-" + rows + "." + format.extension).toFile();
+    }
+
+    private static File valueFile (String vPath, int rows, Format format) {
+        return Path.of(vPath, "vo-" + rows + "." + format.extension).toFile();
+    }
+
+    private static File truthFile (String vPath, int rows, GroundTruthWriter.Encoding encoding) {
+        return Path.of(vPath, "gt-" + rows + "." + encoding.extension).toFile();
+    }
+
+    private static int roundUp (int n, int multiple) {
+        return Math.max(1, (n + multiple - 1) / multiple) * multiple;
+    }
+
+    private static RowCreator prepare (Creatable createable, int rows, int cols, OptionalLong seed) {
+        if (seed.isPresent()) {
+            return createable.prepareRandomSheet(rows, cols, seed.getAsLong());
+        }
+        return createable.prepareSheet(rows, cols);
+    }
+
+    private static void createRows (RowCreator creator, DualSheetWriter sheet, int from, int to) throws IOException {
+        if (creator instanceof UniformRowCreator && sheet.isRepeatable()) {
+            Creator.repeatRows(creator, sheet, from, to);
+            return;
+        }
+        for (int r = from; r < to; r++) {
+            creator.createRow(r, sheet.createRow(r));
+        }
+    }
+
+    /**
+     * Creates the first row of every run of rows whose numbers have the
+     * same count of digits, along with a probe for it, and lets `sheet`
+     * stamp out the rest of the run.
+     *
+     * @param creator
+     * @param sheet
+     * @param from
+     * @param to
+     * @throws IOException
+     */
+    private static void repeatRows (RowCreator creator, DualSheetWriter sheet, int from, int to) throws IOException {
+        for (int r = from; r < to; ) {
+            long    limit   = 10;
+            while (limit <= r + 1) {
+                limit *= 10;
+            }
+            int     end     = (int) Math.min(to, limit - 1);
+            creator.createRow(r, sheet.createRow(r));
+            if (end - r > 1) {
+                int probe = Creator.probe(r + 1) - 1;
+                creator.createRow(probe, sheet.createProbe(probe));
+                sheet.repeatRow(end);
+            }
+            r = end;
+        }
+    }
+
+    /**
+     * @param n
+     * @return A number with as many digits as `n`, none of which is the
+     * digit at the same place in `n`.
+     */
+    private static int probe (int n) {
+        int probe = 0;
+        for (int place = 1; n > 0; n /= 10, place *= 10) {
+            int digit = n % 10;
+            if (n < 10) {
+                probe += (digit == 1 ? 2 : 1) * place;
+            } else {
+                probe += (digit == 0 ? 1 : 0) * place;
+            }
+        }
+        return probe;
+    }
+
+    private static DualSheetWriter.Chunk createChunk (RowCreator creator, DualSheetWriter sheet, int from, int to) throws IOException {
+        DualSheetWriter.Chunk chunk = sheet.createChunk(from, to);
+        try {
+            Creator.createRows(creator, chunk, from, to);
+            chunk.close();
+        } catch (IOException | RuntimeException e) {
+            chunk.discard();
+            throw e;
+        }
+        return chunk;
+    }
+
+    private static DualSheetWriter.Chunk get (Future<DualSheetWriter.Chunk> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static SheetWriter createWriter (Format format, File file, boolean stream, WriterOptions options) throws IOException {
+        switch (format) {
+            case XLSX   : return stream ? new XlsxSheetWriter(file.getPath(), options) : new SXSSFSheetWriter(file.getPath(), options);
+            case ODS    : return stream ? new OdsSheetWriter(file.getPath(), options) : new FastodsSheetWriter(Creator.odsFactory, file);
+            case XLSB   : return new XlsbSheetWriter(file.getPath(), options);
+            case FODS   : return new OdsSheetWriter(file.getPath(), true, options);
+            default     : return new CsvSheetWriter(file.getPath());
+        }
+    }
+
     public static void saveWorkbook (Workbook wb, String name) {
         try (FileOutputStream fileOut = new FileOutputStream(name)) {
             wb.write(fileOut);
@@ -74,5 +508,47 @@ public abstract class Creator {
             e.printStackTrace();
         }
     }
-    
+
+    /**
+     * Files that are written under temporary names and renamed into place
+     * (and recorded in the manifest) once they are complete.
+     */
+    private static class Output {
+
+        private final Manifest  manifest;
+        private final String    key;
+        private final File[]    files;
+        private final File[]    temps;
+
+        Output (Manifest manifest, String key, File... files) {
+            this.manifest   = manifest;
+            this.key        = key;
+            this.files      = files;
+            this.temps      = new File[files.length];
+            for (int i = 0; i < files.length; i++) {
+                this.temps[i] = Creator.tempFile(files[i]);
+            }
+        }
+
+        void commit () throws IOException {
+            for (int i = 0; i < this.files.length; i++) {
+                Creator.moveAtomically(this.temps[i], this.files[i]);
+            }
+            if (this.manifest != null) {
+                this.manifest.record(this.key, Arrays.asList(this.files));
+            }
+        }
+
+        /**
+         * Deletes the temporary files that are left if the sheet was not
+         * completed.
+         */
+        void discard () {
+            for (File temp : this.temps) {
+                temp.delete();
+            }
+        }
+
+    }
+
 }
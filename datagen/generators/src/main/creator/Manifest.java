@@ -0,0 +1,144 @@
+package creator;
+
+import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.CRC32C;
+import java.nio.file.Path;
+import java.util.List;
+import java.io.File;
+
+/**
+ * Records which files were created from which inputs, so that later runs
+ * can tell datasets that are complete and up to date from ones that are
+ * missing, cut short by a crash or created from other inputs (e.g. with
+ * another seed). Each entry is a file in `<root>/manifest` named after the
+ * SHA-256 of its key, a description of everything the files depend on
+ * (which ends with the options of the manifest), and lists the size and
+ * CRC32C of every file. Entries are written under a temporary name and
+ * renamed into place, so processes that share the directory never read
+ * half an entry.
+ */
+public class Manifest {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path      root;
+    private final Path      dir;
+    private final String    options;
+
+    /**
+     * @param root The directory that the files of every entry are in
+     * (possibly in subdirectories). Their names are recorded relative to
+     * it, so it may be moved as a whole.
+     * @param options Everything else that the bytes of the files depend
+     * on and that is not part of the keys (e.g. the upper bound of the
+     * values and the settings of the writers), on a single line.
+     */
+    public Manifest (File root, String options) {
+        this.root       = root.toPath().toAbsolutePath();
+        this.dir        = this.root.resolve("manifest");
+        this.options    = options;
+    }
+
+    /**
+     * @param key
+     * @param files
+     * @return True if the entry for `key` lists `files`, and every one of
+     * them has the size and checksum it was recorded with.
+     * @throws IOException
+     */
+    boolean isValid (String key, List<File> files) throws IOException {
+        String  line    = key + " " + this.options;
+        Path    entry   = this.dir.resolve(Manifest.hash(line));
+        if (!Files.exists(entry)) {
+            return false;
+        }
+        List<String> lines = Files.readAllLines(entry, StandardCharsets.UTF_8);
+        if (lines.size() != files.size() + 1 || !lines.get(0).equals(line)) {
+            return false;
+        }
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i).toPath().toAbsolutePath();
+            if (!Files.isRegularFile(file) || !lines.get(i + 1).equals(this.describe(file, Files.size(file)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records `files`, which must be complete, as the files created for
+     * `key`, replacing any earlier entry for it.
+     *
+     * @param key
+     * @param files
+     * @throws IOException
+     */
+    void record (String key, List<File> files) throws IOException {
+        String          line    = key + " " + this.options;
+        StringBuilder   sb      = new StringBuilder(line).append('\n');
+        for (File f : files) {
+            Path file = f.toPath().toAbsolutePath();
+            sb.append(this.describe(file, Files.size(file))).append('\n');
+        }
+        Files.createDirectories(this.dir);
+        Path entry  = this.dir.resolve(Manifest.hash(line));
+        Path temp   = Creator.tempFile(entry.toFile()).toPath();
+        try {
+            Files.writeString(temp, sb, StandardCharsets.UTF_8);
+            Creator.moveAtomically(temp.toFile(), entry.toFile());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return The line of `file` in an entry: its checksum, its size and
+     * its name relative to the root, separated by tabs.
+     */
+    private String describe (Path file, long size) throws IOException {
+        return String.format("%08x\t%d\t%s", Manifest.checksum(file), size, this.root.relativize(file).toString().replace(File.separatorChar, '/'));
+    }
+
+    /**
+     * @param file
+     * @return The CRC32C of the contents of `file`.
+     * @throws IOException
+     */
+    static long checksum (Path file) throws IOException {
+        CRC32C      crc = new CRC32C();
+        ByteBuffer  buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(file)) {
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                crc.update(buf);
+                buf.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @param key
+     * @return The SHA-256 of `key` in hexadecimal.
+     */
+    static String hash (String key) {
+        try {
+            byte[]          digest  = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder   sb      = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package creator;
+
+import writers.DualRowWriter;
+
+/**
+ * Writes the cells of a single row of a prepared sheet. Implementations
+ * only read state that was computed when the sheet was prepared, so rows
+ * may be created in any order and from several threads at once.
+ */
+@FunctionalInterface
+public interface RowCreator {
+
+    public void createRow (int r, DualRowWriter row);
+
+}
@@ -0,0 +1,15 @@
+package creator;
+
+/**
+ * A RowCreator whose rows are all the same apart from the number of
+ * their own row, where it appears in references (e.g. the 5 of A5 in
+ * SUM(A5:A5) on row 5). Writers that support it create only a couple of
+ * rows of each run of row numbers with the same count of digits and
+ * stamp out the rest by patching those digits (see
+ * DualSheetWriter.repeatRow). Rows past the end of the sheet may be
+ * created as well, so they must follow the same pattern.
+ */
+@FunctionalInterface
+public interface UniformRowCreator extends RowCreator {
+
+}
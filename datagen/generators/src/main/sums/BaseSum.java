@@ -1,8 +1,6 @@
 package sums;
 
-import java.util.Random;
-import java.util.Deque;
-import java.util.List;
+import utils.CounterRandom;
 
 public abstract class BaseSum {
     
@@ -19,39 +17,49 @@ public abstract class BaseSum {
     }
 
     /**
-     * Fills the input deque with `size` random
-     * values from the interval [0, bound).
-     * 
-     * @param dequeToFill
-     * @param size
-     * @param rand
-     * @return The sum of `dequeToFill`.
+     * @param rows
+     * @return The number of rows in the sheet, which is one
+     * per formula row unless a subclass says otherwise.
      */
-    protected double randomlyFillDeque (Deque<Double> dequeToFill, int size, Random rand) {
-        double total = 0.0;
-        for (int i = 0; i < size; i++) {
-            int num = rand.nextInt(this.uppr);
-            dequeToFill.add((double) num);
-            total += num;
-        }
-        return total;
+    public int getRowCount (int rows) {
+        return rows;
+    }
+
+    /**
+     * @param cols
+     * @return The number of columns in the sheet: `cols` columns of
+     * values followed by `cols` columns of formulae.
+     */
+    public int getColCount (int cols) {
+        return cols * 2;
+    }
+
+    /**
+     * @param seed
+     * @param r
+     * @param c
+     * @return The random value of the cell at (`r`, `c`), which is
+     * taken from the interval [0, uppr) and depends on nothing else.
+     */
+    protected double randomValue (long seed, int r, int c) {
+        return CounterRandom.nextInt(seed, r, c, this.uppr);
     }
 
     /**
-     * Fills the input list with `size` random
-     * values from the interval [0, bound).
+     * Adds up the random values of the first `rows` rows and `cols`
+     * columns without storing them.
      * 
-     * @param listToFill
-     * @param size
-     * @param rand
-     * @return The sum of `dequeToFill`.
+     * @param seed
+     * @param rows
+     * @param cols
+     * @return The sum of the values.
      */
-    protected double randomlyFillList (List<Double> listToFill, int size, Random rand) {
+    protected double randomTotal (long seed, int rows, int cols) {
         double total = 0.0;
-        for (int i = 0; i < size; i++) {
-            int num = rand.nextInt(this.uppr);
-            listToFill.add((double) num);
-            total += num;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                total += this.randomValue(seed, r, c);
+            }
         }
         return total;
     }
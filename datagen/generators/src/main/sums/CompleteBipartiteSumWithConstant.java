@@ -1,17 +1,6 @@
 package sums;
 
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFRow;
-import org.apache.poi.ss.util.CellReference;
-
-import com.github.jferard.fastods.TableRowImpl;
-import com.github.jferard.fastods.Table;
-
-import java.util.ArrayDeque;
-import java.io.IOException;
-import java.util.Random;
-import java.util.Deque;
-
+import creator.RowCreator;
 import creator.Creatable;
 
 public class CompleteBipartiteSumWithConstant extends BaseSum implements Creatable {
@@ -33,72 +22,30 @@ public class CompleteBipartiteSumWithConstant extends BaseSum implements Creatab
      * and 2 columns of formulae.
      */
 
-    private static final String CREATE_STR = "SUM(A1:%s%d) + %d";
-
     public CompleteBipartiteSumWithConstant (int uppr) {
         super(uppr);
     }
 
     @Override
-    public void createExcelSheet(SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols) {
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
+    public RowCreator prepareSheet (int rows, int cols) {
+        return (r, row) -> {
             for (int c = 0; c < cols; c++) {
-                fRow.createCell(c).setCellValue(FILL_VALUE);
-                vRow.createCell(c).setCellValue(FILL_VALUE);
-                fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, CellReference.convertNumToColString(cols - 1), rows, r + 1));
-                vRow.createCell(c + cols).setCellValue((FILL_VALUE * rows * cols) + (r + 1));
+                row.setCellValue(c, FILL_VALUE);
+                row.setCellFormula(c + cols, row.formula().append("SUM(A1:").appendCell(cols - 1, rows).append(") + ").append(r + 1), (FILL_VALUE * rows * cols) + (r + 1));
             }
-        }
+        };
     }
 
     @Override
-    public void createRandomExcelSheet(SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols, long seed) {
-        Deque<Double> values = new ArrayDeque<>();
-        double total = super.randomlyFillDeque(values, rows * cols, new Random(seed));
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
+    public RowCreator prepareRandomSheet (int rows, int cols, long seed) {
+        double total = super.randomTotal(seed, rows, cols);
+        return (r, row) -> {
             for (int c = 0; c < cols; c++) {
-                double num = values.pop();
-                fRow.createCell(c).setCellValue(num);
-                vRow.createCell(c).setCellValue(num);
-                fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, CellReference.convertNumToColString(cols - 1), rows, r + 1));
-                vRow.createCell(c + cols).setCellValue(total + (r + 1));
+                double num = super.randomValue(seed, r, c);
+                row.setCellValue(c, num);
+                row.setCellFormula(c + cols, row.formula().append("SUM(A1:").appendCell(cols - 1, rows).append(") + ").append(r + 1), total + (r + 1));
             }
-        }
+        };
     }
 
-    @Override
-    public void createCalcSheet(Table fSheet, Table vSheet, int rows, int cols) throws IOException {
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
-            for (int c = 0; c < cols; c++) {
-                fRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-                vRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-                fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, CellReference.convertNumToColString(cols - 1), rows, r + 1));
-                vRow.getOrCreateCell(c + cols).setFloatValue((FILL_VALUE * rows * cols) + (r + 1));
-            }
-        }
-    }
-
-    @Override
-    public void createRandomCalcSheet(Table fSheet, Table vSheet, int rows, int cols, long seed) throws IOException {
-        Deque<Double> values = new ArrayDeque<>();
-        double total = super.randomlyFillDeque(values, rows * cols, new Random(seed));
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
-            for (int c = 0; c < cols; c++) {
-                double num = values.pop();
-                fRow.getOrCreateCell(c).setFloatValue(num);
-                vRow.getOrCreateCell(c).setFloatValue(num);
-                fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, CellReference.convertNumToColString(cols - 1), rows, r + 1));
-                vRow.getOrCreateCell(c + cols).setFloatValue(total + (r + 1));
-            }
-        }
-    }
-    
 }
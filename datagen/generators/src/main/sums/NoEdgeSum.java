@@ -1,14 +1,7 @@
 package sums;
 
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFRow;
-
-import com.github.jferard.fastods.TableRowImpl;
-import com.github.jferard.fastods.Table;
-
-import java.io.IOException;
-import java.util.Random;
-
+import creator.UniformRowCreator;
+import creator.RowCreator;
 import creator.Creatable;
 
 public class NoEdgeSum extends BaseSum implements Creatable {
@@ -30,70 +23,29 @@ public class NoEdgeSum extends BaseSum implements Creatable {
      * and 2 columns of formulae.
      */
 
-    private static final String CREATE_STR = "SUM(%f)";
-
     public NoEdgeSum (int uppr) {
         super(uppr);
     }
 
     @Override
-    public void createExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols) {
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
-            for (int c = 0; c < cols; c++) {
-                fRow.createCell(c).setCellValue(FILL_VALUE);
-                vRow.createCell(c).setCellValue(FILL_VALUE);
-                fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, FILL_VALUE));
-                vRow.createCell(c + cols).setCellValue(FILL_VALUE);
-            }
-        }
-    }
-
-    @Override
-    public void createRandomExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols, long seed) {
-        Random rand = new Random(seed);
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
-            for (int c = 0; c < cols; c++) {
-                double num = (double) rand.nextInt(uppr);
-                fRow.createCell(c).setCellValue(num);
-                vRow.createCell(c).setCellValue(num);
-                fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, num));
-                vRow.createCell(c + cols).setCellValue(num);
-            }
-        }
-    }
-
-    @Override
-    public void createCalcSheet(Table fSheet, Table vSheet, int rows, int cols) throws IOException {
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
+    public UniformRowCreator prepareSheet (int rows, int cols) {
+        return (r, row) -> {
             for (int c = 0; c < cols; c++) {
-                fRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-                vRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-                fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, FILL_VALUE));
-                vRow.getOrCreateCell(c + cols).setFloatValue(FILL_VALUE);
+                row.setCellValue(c, FILL_VALUE);
+                row.setCellFormula(c + cols, row.formula().append("SUM(").appendFixed(FILL_VALUE).append(')'), FILL_VALUE);
             }
-        }
+        };
     }
 
     @Override
-    public void createRandomCalcSheet(Table fSheet, Table vSheet, int rows, int cols, long seed) throws IOException {
-        Random rand = new Random(seed);
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
+    public RowCreator prepareRandomSheet (int rows, int cols, long seed) {
+        return (r, row) -> {
             for (int c = 0; c < cols; c++) {
-                double num = (double) rand.nextInt(uppr);
-                fRow.getOrCreateCell(c).setFloatValue(num);
-                vRow.getOrCreateCell(c).setFloatValue(num);
-                fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, num));
-                vRow.getOrCreateCell(c + cols).setFloatValue(num);
+                double num = super.randomValue(seed, r, c);
+                row.setCellValue(c, num);
+                row.setCellFormula(c + cols, row.formula().append("SUM(").appendFixed(num).append(')'), num);
             }
-        }
+        };
     }
 
 }
@@ -1,17 +1,6 @@
 package sums;
 
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFRow;
-import org.apache.poi.ss.util.CellReference;
-
-import com.github.jferard.fastods.TableRowImpl;
-import com.github.jferard.fastods.Table;
-
-import java.util.ArrayDeque;
-import java.io.IOException;
-import java.util.Random;
-import java.util.Deque;
-
+import creator.RowCreator;
 import creator.Creatable;
 
 public class RunningSum extends BaseSum implements Creatable {
@@ -33,74 +22,33 @@ public class RunningSum extends BaseSum implements Creatable {
      * and 2 columns of formulae.
      */
 
-    private static final String CREATE_STR = "SUM(A1:%s%d)";
-
     public RunningSum (int uppr) {
         super(uppr);
     }
 
     @Override
-    public void createExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols) {
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
-            for (int c = 0; c < cols; c++) {
-                fRow.createCell(c).setCellValue(FILL_VALUE);
-                vRow.createCell(c).setCellValue(FILL_VALUE);
-                fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, CellReference.convertNumToColString(cols - 1), r + 1));
-                vRow.createCell(c + cols).setCellValue(FILL_VALUE * (r + 1) * cols);
-            }
-        }   
-    }
-
-    @Override
-    public void createRandomExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols, long seed) {
-        double total = 0.0;
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
-            Deque<Double> values = new ArrayDeque<>();
-            total += super.randomlyFillDeque(values, cols, new Random(seed));
-            for (int c = 0; c < cols; c++) {
-                double num = values.pop();
-                fRow.createCell(c).setCellValue(num);
-                vRow.createCell(c).setCellValue(num);
-                fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, CellReference.convertNumToColString(cols - 1), r + 1));
-                vRow.createCell(c + cols).setCellValue(total);
-            }
-        }
-    }
-
-    @Override
-    public void createCalcSheet(Table fSheet, Table vSheet, int rows, int cols) throws IOException {
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
+    public RowCreator prepareSheet (int rows, int cols) {
+        return (r, row) -> {
             for (int c = 0; c < cols; c++) {
-                fRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-                vRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-                fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, CellReference.convertNumToColString(cols - 1), r + 1));
-                vRow.getOrCreateCell(c + cols).setFloatValue((FILL_VALUE * (r + 1) * cols));
+                row.setCellValue(c, FILL_VALUE);
+                row.setCellFormula(c + cols, row.formula().append("SUM(A1:").appendCell(cols - 1, r + 1).append(')'), FILL_VALUE * (r + 1) * cols);
             }
-        }
+        };
     }
 
     @Override
-    public void createRandomCalcSheet(Table fSheet, Table vSheet, int rows, int cols, long seed) throws IOException {
-        double total = 0.0;
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
-            Deque<Double> values = new ArrayDeque<>();
-            total += super.randomlyFillDeque(values, cols, new Random(seed));
+    public RowCreator prepareRandomSheet (int rows, int cols, long seed) {
+        // Every row holds the values of the first row, so the running
+        // total grows by the same amount on each row.
+        double rowTotal = super.randomTotal(seed, 1, cols);
+        return (r, row) -> {
+            double total = rowTotal * (r + 1);
             for (int c = 0; c < cols; c++) {
-                double num = values.pop();
-                fRow.getOrCreateCell(c).setFloatValue(num);
-                vRow.getOrCreateCell(c).setFloatValue(num);
-                fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, CellReference.convertNumToColString(cols - 1), r + 1));
-                vRow.getOrCreateCell(c + cols).setFloatValue(total);
+                double num = super.randomValue(seed, 0, c);
+                row.setCellValue(c, num);
+                row.setCellFormula(c + cols, row.formula().append("SUM(A1:").appendCell(cols - 1, r + 1).append(')'), total);
             }
-        }
+        };
     }
 
 }
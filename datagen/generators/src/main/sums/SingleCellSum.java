@@ -1,15 +1,7 @@
 package sums;
 
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFRow;
-import org.apache.poi.ss.util.CellReference;
-
-import com.github.jferard.fastods.TableRowImpl;
-import com.github.jferard.fastods.Table;
-
-import java.io.IOException;
-import java.util.Random;
-
+import creator.UniformRowCreator;
+import creator.RowCreator;
 import creator.Creatable;
 
 public class SingleCellSum extends BaseSum implements Creatable {
@@ -31,74 +23,29 @@ public class SingleCellSum extends BaseSum implements Creatable {
      * and 2 columns of formulae.
      */
 
-    private static final String CREATE_STR = "SUM(%s%d:%s%d)";
-
     public SingleCellSum (int uppr) {
         super(uppr);
     }
 
     @Override
-    public void createExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols) {
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
-            for (int c = 0; c < cols; c++) {
-                String col = CellReference.convertNumToColString(c);
-                fRow.createCell(c).setCellValue(FILL_VALUE);
-                vRow.createCell(c).setCellValue(FILL_VALUE);
-                fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, col, r + 1, col, r + 1));
-                vRow.createCell(c + cols).setCellValue(FILL_VALUE);
-            }
-        }   
-    }
-
-    @Override
-    public void createRandomExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols, long seed) {
-        Random rand = new Random(seed);
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
-            for (int c = 0; c < cols; c++) {
-                double num = rand.nextInt(uppr);
-                String col = CellReference.convertNumToColString(c);
-                fRow.createCell(c).setCellValue(num);
-                vRow.createCell(c).setCellValue(num);
-                fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, col, r + 1, col, r + 1));
-                vRow.createCell(c + cols).setCellValue(num);
-            }
-        }
-    }
-
-    @Override
-    public void createCalcSheet(Table fSheet, Table vSheet, int rows, int cols) throws IOException {
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
+    public UniformRowCreator prepareSheet (int rows, int cols) {
+        return (r, row) -> {
             for (int c = 0; c < cols; c++) {
-                String col = CellReference.convertNumToColString(c);
-                fRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-                vRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-                fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, col, r + 1, col, r + 1));
-                vRow.getOrCreateCell(c + cols).setFloatValue(FILL_VALUE);
+                row.setCellValue(c, FILL_VALUE);
+                row.setCellFormula(c + cols, row.formula().append("SUM(").appendCell(c, r + 1).append(':').appendCell(c, r + 1).append(')'), FILL_VALUE);
             }
-        }
+        };
     }
 
     @Override
-    public void createRandomCalcSheet(Table fSheet, Table vSheet, int rows, int cols, long seed) throws IOException {
-        Random rand = new Random(seed);
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
+    public RowCreator prepareRandomSheet (int rows, int cols, long seed) {
+        return (r, row) -> {
             for (int c = 0; c < cols; c++) {
-                double num = rand.nextInt(uppr);
-                String col = CellReference.convertNumToColString(c);
-                fRow.getOrCreateCell(c).setFloatValue(num);
-                vRow.getOrCreateCell(c).setFloatValue(num);
-                fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, col, r + 1, col, r + 1));
-                vRow.getOrCreateCell(c + cols).setFloatValue(num);
+                double num = super.randomValue(seed, r, c);
+                row.setCellValue(c, num);
+                row.setCellFormula(c + cols, row.formula().append("SUM(").appendCell(c, r + 1).append(':').appendCell(c, r + 1).append(')'), num);
             }
-        }
+        };
     }
 
 }
@@ -10,6 +10,15 @@ public abstract class BaseSpecialSum extends BaseSum {
     super(uppr);
   }
   
+  /**
+   * Special sums always have MAX_V_ROWS rows of values, even
+   * if only the first `rows` of them contain formulae.
+   */
+  @Override
+  public int getRowCount (int rows) {
+    return MAX_V_ROWS;
+  }
+
   public static void setMaxRows (int val) {
     MAX_V_ROWS = val;
   }
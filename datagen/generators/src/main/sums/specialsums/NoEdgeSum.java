@@ -1,14 +1,6 @@
 package sums.specialsums;
 
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFRow;
-
-import com.github.jferard.fastods.TableRowImpl;
-import com.github.jferard.fastods.Table;
-
-import java.io.IOException;
-import java.util.Random;
-
+import creator.RowCreator;
 import creator.Creatable;
 
 public class NoEdgeSum extends BaseSpecialSum implements Creatable {
@@ -35,85 +27,37 @@ public class NoEdgeSum extends BaseSpecialSum implements Creatable {
    * of the input formula and N is the number of rows.
    */
 
-  private static final String CREATE_STR = "SUM(%f)";
-
   public NoEdgeSum (int uppr) {
     super(uppr);
   }
 
   @Override
-  public void createExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols) {
-    for (int r = 0; r < MAX_V_ROWS; r++) {
-      SXSSFRow fRow = fSheet.createRow(r);
-      SXSSFRow vRow = vSheet.createRow(r);
+  public RowCreator prepareSheet (int rows, int cols) {
+    return (r, row) -> {
       for (int c = 0; c < cols; c++) {
-        fRow.createCell(c).setCellValue(FILL_VALUE);
-        vRow.createCell(c).setCellValue(FILL_VALUE);
+        row.setCellValue(c, FILL_VALUE);
         if (r < rows) {
-          fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, FILL_VALUE));
+          row.setCellFormula(c + cols, row.formula().append("SUM(").appendFixed(FILL_VALUE).append(')'), FILL_VALUE);
         } else {
-          fRow.createCell(c + cols).setCellValue(FILL_VALUE);
+          row.setCellResult(c + cols, FILL_VALUE);
         }
-        vRow.createCell(c + cols).setCellValue(FILL_VALUE);
       }
-    }
+    };
   }
 
   @Override
-  public void createRandomExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols, long seed) {
-    Random rand = new Random(seed);
-    for (int r = 0; r < MAX_V_ROWS; r++) {
-      SXSSFRow fRow = fSheet.createRow(r);
-      SXSSFRow vRow = vSheet.createRow(r);
+  public RowCreator prepareRandomSheet (int rows, int cols, long seed) {
+    return (r, row) -> {
       for (int c = 0; c < cols; c++) {
-        double num = (double) rand.nextInt(uppr);
-        fRow.createCell(c).setCellValue(num);
-        vRow.createCell(c).setCellValue(num);
+        double num = super.randomValue(seed, r, c);
+        row.setCellValue(c, num);
         if (r < rows) {
-          fRow.createCell(c + cols).setCellFormula(String.format(CREATE_STR, num));
+          row.setCellFormula(c + cols, row.formula().append("SUM(").appendFixed(num).append(')'), num);
         } else {
-          fRow.createCell(c + cols).setCellValue(num);
+          row.setCellResult(c + cols, num);
         }
-        vRow.createCell(c + cols).setCellValue(num);
       }
-    }
+    };
   }
 
-  @Override
-  public void createCalcSheet(Table fSheet, Table vSheet, int rows, int cols) throws IOException {
-    for (int r = 0; r < MAX_V_ROWS; r++) {
-      TableRowImpl fRow = fSheet.getRow(r);
-      TableRowImpl vRow = vSheet.getRow(r);
-      for (int c = 0; c < cols; c++) {
-        fRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-        vRow.getOrCreateCell(c).setFloatValue(FILL_VALUE);
-        if (r < rows) {
-          fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, FILL_VALUE));
-        } else {
-          fRow.getOrCreateCell(c + cols).setFormula(FILL_VALUE + "");          
-        }
-        vRow.getOrCreateCell(c + cols).setFloatValue(FILL_VALUE);
-      }
-    }
-  }
-
-  @Override
-  public void createRandomCalcSheet(Table fSheet, Table vSheet, int rows, int cols, long seed) throws IOException {
-    Random rand = new Random(seed);
-    for (int r = 0; r < MAX_V_ROWS; r++) {
-      TableRowImpl fRow = fSheet.getRow(r);
-      TableRowImpl vRow = vSheet.getRow(r);
-      for (int c = 0; c < cols; c++) {
-        double num = (double) rand.nextInt(uppr);
-        fRow.getOrCreateCell(c).setFloatValue(num);
-        vRow.getOrCreateCell(c).setFloatValue(num);
-        if (r < rows) {
-          fRow.getOrCreateCell(c + cols).setFormula(String.format(CREATE_STR, num));
-        } else {
-          fRow.getOrCreateCell(c + cols).setFormula(num + "");
-        }
-        vRow.getOrCreateCell(c + cols).setFloatValue(num);
-      }
-    }
-  }
 }
@@ -0,0 +1,84 @@
+package utils;
+
+/**
+ * A stateless, counter-based source of random numbers. The value of a
+ * cell is a pure function of (seed, row, column), so any cell can be
+ * computed on its own, in any order and on any thread, without keeping
+ * the values of the sheet in memory. The mixing function is the
+ * finalizer of SplitMix64, which passes BigCrush when it is applied to
+ * consecutive counters.
+ */
+public final class CounterRandom {
+
+    /** The odd increment of SplitMix64 (the golden ratio) */
+    private static final long   GAMMA   = 0x9e3779b97f4a7c15L;
+
+    /** The number of Feistel rounds used by `permute` */
+    private static final int    ROUNDS  = 4;
+
+    private CounterRandom () {}
+
+    /**
+     * @param seed
+     * @param row
+     * @param col
+     * @return 64 random bits for the cell at (`row`, `col`).
+     */
+    public static long hash (long seed, long row, long col) {
+        return CounterRandom.mix(CounterRandom.mix(seed + GAMMA * (row + 1)) + GAMMA * (col + 1));
+    }
+
+    /**
+     * @param seed
+     * @param row
+     * @param col
+     * @param bound
+     * @return A random value from the interval [0, `bound`) for the cell
+     * at (`row`, `col`).
+     */
+    public static int nextInt (long seed, long row, long col, int bound) {
+        // Lemire's multiply-shift, which is cheaper than a modulo and
+        // has a negligible bias for the bounds that layouts use
+        return (int) (((CounterRandom.hash(seed, row, col) >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * A pseudo-random permutation of [0, `size`), which is what a
+     * shuffled list of consecutive numbers would hold at index `i`.
+     * It is a Feistel network over the smallest even number of bits
+     * that covers `size`; results that fall outside of [0, `size`) are
+     * fed back in (cycle walking) until they land inside it.
+     *
+     * @param seed
+     * @param i
+     * @param size
+     * @return The `i`-th value of the permutation.
+     */
+    public static long permute (long seed, long i, long size) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size);
+        }
+        int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(size - 1));
+        int half = (bits + 1) / 2;
+        long mask = (1L << half) - 1;
+        long x = i;
+        do {
+            long left   = x >>> half;
+            long right  = x & mask;
+            for (int round = 0; round < ROUNDS; round++) {
+                long tmp = left ^ (CounterRandom.hash(seed, round, right) & mask);
+                left  = right;
+                right = tmp;
+            }
+            x = (left << half) | right;
+        } while (x >= size);
+        return x;
+    }
+
+    private static long mix (long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,233 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.regex.Pattern;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the flat JSON objects, one per line, that the daemon
+ * (see Daemon) exchanges with its clients. Members are strings, numbers,
+ * booleans, null or arrays of those; nested objects are not supported.
+ */
+public class JsonLines {
+
+    private static final Pattern    NUMBER      = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+    private static final BigDecimal LONG_MIN    = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX    = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    private final String    line;
+    private int             pos;
+
+    private JsonLines (String line) {
+        this.line   = line;
+        this.pos    = 0;
+    }
+
+    /**
+     * @param line
+     * @return The members of the object on `line`, in order. Strings,
+     * booleans and null are returned as String, Boolean and null, numbers
+     * as text and arrays as lists. Whole numbers are written out as plain
+     * integers, whatever form they were given in (e.g. 100.0 and 1e2 as
+     * "100"), so that they can be read with Integer.parseInt.
+     * @throws IllegalArgumentException If `line` is not a flat object.
+     */
+    public static Map<String, Object> parse (String line) {
+        JsonLines           json    = new JsonLines(line);
+        Map<String, Object> members = new LinkedHashMap<>();
+        json.expect('{');
+        if (!json.consume('}')) {
+            do {
+                String key = json.string();
+                json.expect(':');
+                members.put(key, json.value(true));
+            } while (json.consume(','));
+            json.expect('}');
+        }
+        json.skipSpace();
+        if (json.pos != line.length()) {
+            throw json.error("Trailing characters");
+        }
+        return members;
+    }
+
+    /**
+     * @param members Alternating keys and values (strings, numbers,
+     * booleans, null or collections of those).
+     * @return The object on a single line.
+     */
+    public static String format (Object... members) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i + 1 < members.length; i += 2) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            JsonLines.append(sb, members[i]);
+            sb.append(": ");
+            JsonLines.append(sb, members[i + 1]);
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void append (StringBuilder sb, Object value) {
+        if (value == null || value instanceof Boolean || value instanceof Number) {
+            sb.append(value);
+        } else if (value instanceof Collection) {
+            sb.append('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                JsonLines.append(sb, item);
+                first = false;
+            }
+            sb.append(']');
+        } else {
+            String s = value.toString();
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"'    : sb.append("\\\""); break;
+                    case '\\'   : sb.append("\\\\"); break;
+                    case '\n'   : sb.append("\\n");  break;
+                    case '\r'   : sb.append("\\r");  break;
+                    case '\t'   : sb.append("\\t");  break;
+                    default     :
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+    }
+
+    private Object value (boolean allowArray) {
+        this.skipSpace();
+        if (this.pos >= this.line.length()) {
+            throw this.error("Missing value");
+        }
+        char c = this.line.charAt(this.pos);
+        if (c == '"') {
+            return this.string();
+        }
+        if (c == '[' && allowArray) {
+            this.pos++;
+            List<Object> items = new ArrayList<>();
+            if (!this.consume(']')) {
+                do {
+                    items.add(this.value(false));
+                } while (this.consume(','));
+                this.expect(']');
+            }
+            return items;
+        }
+        if (this.line.startsWith("true", this.pos))  { this.pos += 4; return Boolean.TRUE;  }
+        if (this.line.startsWith("false", this.pos)) { this.pos += 5; return Boolean.FALSE; }
+        if (this.line.startsWith("null", this.pos))  { this.pos += 4; return null;          }
+        int start = this.pos;
+        while (this.pos < this.line.length() && "+-0123456789.eE".indexOf(this.line.charAt(this.pos)) >= 0) {
+            this.pos++;
+        }
+        if (start == this.pos) {
+            throw this.error("Unexpected character '" + c + "'");
+        }
+        String number = this.line.substring(start, this.pos);
+        try {
+            if (NUMBER.matcher(number).matches()) {
+                return JsonLines.toPlain(number);
+            }
+        } catch (NumberFormatException e) {
+            // The exponent is out of range
+        }
+        this.pos = start;
+        throw this.error("Invalid number " + number);
+    }
+
+    /**
+     * @param number A JSON number.
+     * @return `number` as a plain integer if it is whole and fits in a
+     * long, or as it was written otherwise.
+     */
+    private static String toPlain (String number) {
+        BigDecimal value = new BigDecimal(number);
+        if (value.signum() == 0) {
+            return "0";
+        }
+        if (value.compareTo(LONG_MIN) < 0 || value.compareTo(LONG_MAX) > 0 || value.stripTrailingZeros().scale() > 0) {
+            return number;
+        }
+        return String.valueOf(value.longValueExact());
+    }
+
+    private String string () {
+        this.expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (this.pos >= this.line.length()) {
+                throw this.error("Unterminated string");
+            }
+            char c = this.line.charAt(this.pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (this.pos >= this.line.length()) {
+                throw this.error("Unterminated escape");
+            }
+            char e = this.line.charAt(this.pos++);
+            switch (e) {
+                case 'n'    : sb.append('\n'); break;
+                case 'r'    : sb.append('\r'); break;
+                case 't'    : sb.append('\t'); break;
+                case 'b'    : sb.append('\b'); break;
+                case 'f'    : sb.append('\f'); break;
+                case 'u'    :
+                    if (this.pos + 4 > this.line.length()) {
+                        throw this.error("Unterminated escape");
+                    }
+                    sb.append((char) Integer.parseInt(this.line.substring(this.pos, this.pos + 4), 16));
+                    this.pos += 4;
+                    break;
+                default     : sb.append(e);
+            }
+        }
+    }
+
+    private void expect (char c) {
+        if (!this.consume(c)) {
+            throw this.error("Expected '" + c + "'");
+        }
+    }
+
+    private boolean consume (char c) {
+        this.skipSpace();
+        if (this.pos < this.line.length() && this.line.charAt(this.pos) == c) {
+            this.pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipSpace () {
+        while (this.pos < this.line.length() && Character.isWhitespace(this.line.charAt(this.pos))) {
+            this.pos++;
+        }
+    }
+
+    private IllegalArgumentException error (String message) {
+        return new IllegalArgumentException(message + " at position " + this.pos + " of " + this.line);
+    }
+
+}
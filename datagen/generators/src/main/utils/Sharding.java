@@ -0,0 +1,48 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Splits a series of tasks into shards of about equal cost. The split
+ * only depends on the costs and the number of shards, so processes on
+ * different machines that are given the same series agree on it without
+ * talking to each other, and each can create its own share.
+ */
+public class Sharding {
+
+    private Sharding () {}
+
+    /**
+     * Assigns the most costly tasks first, each to the shard with the
+     * least cost so far (the lowest one on ties). No shard ends up more
+     * than the cost of one task above the mean.
+     *
+     * @param costs The estimated cost of every task.
+     * @param count The number of shards.
+     * @return The shard (0 to `count` - 1) of every task.
+     */
+    public static int[] assign (long[] costs, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid number of shards: " + count);
+        }
+        Integer[]   order   = new Integer[costs.length];
+        int[]       shards  = new int[costs.length];
+        long[]      loads   = new long[count];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> costs[a] != costs[b] ? Long.compare(costs[b], costs[a]) : Integer.compare(a, b));
+        for (int task : order) {
+            int least = 0;
+            for (int s = 1; s < count; s++) {
+                if (loads[s] < loads[least]) {
+                    least = s;
+                }
+            }
+            shards[task]    = least;
+            loads[least]    += costs[task];
+        }
+        return shards;
+    }
+
+}
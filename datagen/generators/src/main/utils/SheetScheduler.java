@@ -0,0 +1,272 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs tasks on a fixed number of threads, largest first, and only starts
+ * a task once its estimated heap footprint fits in what the tasks that are
+ * already running leave of a budget. Tasks start strictly in order, so a
+ * large task that waits for memory is not overtaken by smaller ones that
+ * would hold on to the memory it waits for. A task whose footprint alone
+ * exceeds the budget runs once nothing else does.
+ */
+public class SheetScheduler {
+
+    private final PriorityQueue<Task>   queue;
+    private final Statistics            stats;
+    private final int                   threads;
+    private final long                  budget;
+    private long                        reserved;
+    private int                         running;
+    private long                        count;
+
+    /**
+     * @param threads The number of tasks that may run at once.
+     * @param budget The heap, in bytes, that running tasks may take
+     * together by estimate.
+     */
+    public SheetScheduler (int threads, long budget) {
+        this.queue      = new PriorityQueue<>();
+        this.stats      = new Statistics();
+        this.threads    = threads;
+        this.budget     = budget;
+    }
+
+    /**
+     * @return Three quarters of the maximum heap of the JVM, which leaves
+     * room for what the estimates miss.
+     */
+    public static long defaultBudget () {
+        return Runtime.getRuntime().maxMemory() / 4 * 3;
+    }
+
+    /**
+     * Queues a task. Nothing runs until `run` is called.
+     *
+     * @param size The amount of work of the task (e.g. its number of
+     * cells). Larger tasks run first and ties run in the order they were
+     * submitted.
+     * @param footprint The estimated heap, in bytes, the task takes while
+     * it runs.
+     * @param task
+     */
+    public synchronized void submit (long size, long footprint, Runnable task) {
+        this.queue.add(new Task(size, footprint, this.count++, task));
+        this.stats.maxQueued = Math.max(this.stats.maxQueued, this.queue.size());
+    }
+
+    /**
+     * Runs every queued task and waits for all of them to finish. Tasks
+     * that throw, errors included (e.g. an OutOfMemoryError the budget
+     * did not prevent), are reported and counted as failed.
+     *
+     * @return The statistics of this scheduler, which cover every task it
+     * has run so far.
+     */
+    public Statistics run () {
+        long            start   = System.nanoTime();
+        List<Thread>    workers = new ArrayList<>();
+        for (int i = 0; i < this.threads; i++) {
+            Thread worker = new Thread(this::work, "scheduler-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.forEach(Thread::interrupt);
+        }
+        synchronized (this) {
+            this.stats.elapsed += System.nanoTime() - start;
+            return this.stats;
+        }
+    }
+
+    private void work () {
+        Task task;
+        while ((task = this.take()) != null) {
+            try {
+                task.runnable.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    this.stats.failed++;
+                }
+            } finally {
+                this.release(task);
+            }
+        }
+    }
+
+    /**
+     * @return The next task once it fits, or null if there are no more
+     * tasks.
+     */
+    private synchronized Task take () {
+        boolean held = false;
+        while (!this.queue.isEmpty() && !this.fits(this.queue.peek())) {
+            long since = System.nanoTime();
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            this.stats.idle += System.nanoTime() - since;
+            held = true;
+        }
+        Task task = this.queue.poll();
+        if (task == null) {
+            return null;
+        }
+        long wait = System.nanoTime() - task.queued;
+        this.reserved               += task.footprint;
+        this.running                += 1;
+        this.stats.tasks            += 1;
+        this.stats.heldBack         += held ? 1 : 0;
+        this.stats.oversized        += task.footprint > this.budget ? 1 : 0;
+        this.stats.totalWait        += wait;
+        this.stats.maxWait          = Math.max(this.stats.maxWait, wait);
+        this.stats.peakRunning      = Math.max(this.stats.peakRunning, this.running);
+        this.stats.peakReserved     = Math.max(this.stats.peakReserved, this.reserved);
+        this.notifyAll();
+        return task;
+    }
+
+    private synchronized void release (Task task) {
+        this.reserved   -= task.footprint;
+        this.running    -= 1;
+        this.notifyAll();
+    }
+
+    private boolean fits (Task task) {
+        return this.running == 0 || this.reserved + task.footprint <= this.budget;
+    }
+
+    public static class Statistics {
+
+        private int     tasks;
+        private int     failed;
+        private int     maxQueued;
+        private int     peakRunning;
+        private int     heldBack;
+        private int     oversized;
+        private long    peakReserved;
+        private long    totalWait;
+        private long    maxWait;
+        private long    idle;
+        private long    elapsed;
+
+        private Statistics () {}
+
+        public int getTasks () {
+            return this.tasks;
+        }
+
+        public int getFailed () {
+            return this.failed;
+        }
+
+        /** @return The most tasks that were queued at once. */
+        public int getMaxQueued () {
+            return this.maxQueued;
+        }
+
+        /** @return The most tasks that ran at once. */
+        public int getPeakRunning () {
+            return this.peakRunning;
+        }
+
+        /** @return The number of tasks that a free thread had to wait for memory to start. */
+        public int getHeldBack () {
+            return this.heldBack;
+        }
+
+        /** @return The number of tasks that ran alone because they exceeded the budget. */
+        public int getOversized () {
+            return this.oversized;
+        }
+
+        /** @return The largest sum of the footprints of the tasks that ran at once. */
+        public long getPeakReserved () {
+            return this.peakReserved;
+        }
+
+        /**
+         * @param unit
+         * @return The mean time tasks spent queued before they started.
+         */
+        public long getMeanWait (TimeUnit unit) {
+            return this.tasks == 0 ? 0 : unit.convert(this.totalWait / this.tasks, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @param unit
+         * @return The longest time a task spent queued before it started.
+         */
+        public long getMaxWait (TimeUnit unit) {
+            return unit.convert(this.maxWait, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @param unit
+         * @return The time that threads spent idle, summed over threads,
+         * because the next task did not fit in the budget.
+         */
+        public long getIdle (TimeUnit unit) {
+            return unit.convert(this.idle, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString () {
+            return String.format(
+                "Scheduled %d task(s) (%d failed), at most %d queued and %d running at once%n"
+                    + "Waited %.1f s on average and %.1f s at most, %d task(s) held back for memory (threads idle %.1f s), %d over budget%n"
+                    + "Peak estimated heap %d MB, %.1f s in total"
+                , this.tasks
+                , this.failed
+                , this.maxQueued
+                , this.peakRunning
+                , this.getMeanWait(TimeUnit.MILLISECONDS) / 1000.0
+                , this.getMaxWait(TimeUnit.MILLISECONDS) / 1000.0
+                , this.heldBack
+                , this.getIdle(TimeUnit.MILLISECONDS) / 1000.0
+                , this.oversized
+                , this.peakReserved >> 20
+                , this.elapsed / 1e9
+            );
+        }
+
+    }
+
+    private static class Task implements Comparable<Task> {
+
+        private final Runnable  runnable;
+        private final long      size;
+        private final long      footprint;
+        private final long      order;
+        private final long      queued;
+
+        private Task (long size, long footprint, long order, Runnable runnable) {
+            this.runnable   = runnable;
+            this.size       = size;
+            this.footprint  = footprint;
+            this.order      = order;
+            this.queued     = System.nanoTime();
+        }
+
+        @Override
+        public int compareTo (Task other) {
+            int bySize = Long.compare(other.size, this.size);
+            return bySize != 0 ? bySize : Long.compare(this.order, other.order);
+        }
+
+    }
+
+}
@@ -4,11 +4,31 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.lang.reflect.Method;
 
 public class SimpleThreadPoolExecutor {
 
     private static final int DEFAULT_QUEUE_SIZE = 1000;
 
+    /** Thread.ofVirtual() and Thread.Builder.start(Runnable), or null before Java 21 */
+    private static final Method OF_VIRTUAL;
+    private static final Method START;
+
+    static {
+        Method ofVirtual    = null;
+        Method start        = null;
+        if (Runtime.version().feature() >= 21) {
+            try {
+                ofVirtual   = Thread.class.getMethod("ofVirtual");
+                start       = Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class);
+            } catch (ReflectiveOperationException e) {
+                ofVirtual   = null;
+            }
+        }
+        OF_VIRTUAL  = ofVirtual;
+        START       = start;
+    }
+
     public static ExecutorService getNewExecutor (int poolSize) {
         return SimpleThreadPoolExecutor.getNewExecutor(poolSize, DEFAULT_QUEUE_SIZE);
     }
@@ -24,6 +44,31 @@ public class SimpleThreadPoolExecutor {
         );
     }
 
+    /**
+     * Starts `task` on a thread that mostly waits for I/O: a virtual
+     * thread on Java 21+, which costs next to nothing while it is blocked,
+     * and a daemon platform thread otherwise.
+     *
+     * @param name
+     * @param task
+     * @return The started thread.
+     */
+    public static Thread startIoThread (String name, Runnable task) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Thread thread = (Thread) START.invoke(OF_VIRTUAL.invoke(null), task);
+                thread.setName(name);
+                return thread;
+            } catch (ReflectiveOperationException e) {
+                // Fall back to a platform thread
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
     public static void wait (ExecutorService executor) {
         executor.shutdown();
         try {
@@ -0,0 +1,99 @@
+package utils;
+
+/**
+ * The sums of the windows [r, r + `window`) of every column of a sheet,
+ * computed incrementally instead of by adding up `window` values per
+ * cell. Each thread keeps the totals of the row it asked for last, so
+ * moving on to the next row only adds the value that enters the window
+ * and subtracts the one that leaves it. Asking for any other row starts
+ * over. This suits RowCreators, which are called for consecutive rows
+ * by every thread (or chunk) that generates part of a sheet.
+ *
+ * The values are expected to be integers, for which the running totals
+ * are exact, so the results do not depend on where a thread starts.
+ */
+public class WindowSum {
+
+    @FunctionalInterface
+    public interface Values {
+        /**
+         * @param r
+         * @param c
+         * @return The value of the cell at (`r`, `c`).
+         */
+        public double get (int r, int c);
+    }
+
+    private final Values                values;
+    private final int                   cols;
+    private final int                   window;
+    private final int                   end;
+    private final ThreadLocal<Cursor>   cursor;
+
+    /**
+     * @param values
+     * @param cols The number of columns.
+     * @param window The number of rows in a window.
+     * @param end The number of rows with values. Windows are cut off at
+     * this row.
+     */
+    public WindowSum (Values values, int cols, int window, int end) {
+        this.values = values;
+        this.cols   = cols;
+        this.window = window;
+        this.end    = end;
+        this.cursor = ThreadLocal.withInitial(() -> new Cursor(cols));
+    }
+
+    /**
+     * @param r
+     * @param c
+     * @return The sum of the values in rows [`r`, `r` + window) of column
+     * `c`.
+     */
+    public double get (int r, int c) {
+        Cursor cur = this.cursor.get();
+        if (cur.row != r) {
+            if (cur.row >= 0 && cur.row == r - 1) {
+                this.slide(cur.totals, r);
+            } else {
+                this.fill(cur.totals, r);
+            }
+            cur.row = r;
+        }
+        return cur.totals[c];
+    }
+
+    private void fill (double[] totals, int r) {
+        for (int c = 0; c < this.cols; c++) {
+            double total = 0.0;
+            for (int i = r, to = (int) Math.min((long) r + this.window, this.end); i < to; i++) {
+                total += this.values.get(i, c);
+            }
+            totals[c] = total;
+        }
+    }
+
+    private void slide (double[] totals, int r) {
+        long enter = (long) r + this.window - 1;
+        for (int c = 0; c < this.cols; c++) {
+            totals[c] -= this.values.get(r - 1, c);
+            if (enter < this.end) {
+                totals[c] += this.values.get((int) enter, c);
+            }
+        }
+    }
+
+    private static class Cursor {
+
+        private final double[]  totals;
+        private int             row;
+
+        Cursor (int cols) {
+            this.totals = new double[cols];
+            this.row    = -1;
+        }
+
+    }
+
+}
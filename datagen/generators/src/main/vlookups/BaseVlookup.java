@@ -1,9 +1,6 @@
 package vlookups;
 
-import java.util.Collections;
-import java.util.ArrayList;
-import java.util.Random;
-import java.util.List;
+import utils.CounterRandom;
 
 public abstract class BaseVlookup {
 
@@ -20,17 +17,31 @@ public abstract class BaseVlookup {
     }
 
     /**
-     * Creates a list from [0, `size`) and shuffles its ordering.
-     * 
-     * @param rand
+     * @param rows
+     * @return The number of rows in the sheet (one per formula row).
+     */
+    public int getRowCount (int rows) {
+        return rows;
+    }
+
+    /**
+     * @param cols
+     * @return The number of columns in the sheet, which is always 3 (the
+     * COLS parameter is ignored).
+     */
+    public int getColCount (int cols) {
+        return 3;
+    }
+
+    /**
+     * @param seed
+     * @param i
      * @param size
-     * @return The list as described above.
+     * @return The `i`-th number of a shuffled ordering of [0, `size`),
+     * computed without materializing the ordering.
      */
-    protected List<Double> getShuffledConsecutiveNumbers (Random rand, int size) {
-        List<Double> nums = new ArrayList<>(size);
-        for (int r = 0; r < size; r++) { nums.add((double) r); }
-        Collections.shuffle(nums, rand);
-        return nums;
+    protected double getShuffledNumber (long seed, int i, int size) {
+        return CounterRandom.permute(seed, i, size);
     }
 
 }
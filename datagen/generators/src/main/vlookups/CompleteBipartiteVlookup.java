@@ -1,15 +1,7 @@
 package vlookups;
 
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFRow;
-
-import com.github.jferard.fastods.TableRowImpl;
-import com.github.jferard.fastods.Table;
-
-import java.io.IOException;
-import java.util.Random;
-import java.util.List;
-
+import creator.UniformRowCreator;
+import creator.RowCreator;
 import creator.Creatable;
 
 public class CompleteBipartiteVlookup extends BaseVlookup implements Creatable {
@@ -29,71 +21,28 @@ public class CompleteBipartiteVlookup extends BaseVlookup implements Creatable {
      * A may not be in the same order as the values in column C.
      */
 
-    private static final String EXCEL_FSTR = "VLOOKUP(C%d, A1:A%d, 1, FALSE)";
-    private static final String LIBRE_FSTR = "VLOOKUP(C%d; A1:A%d; 1; 0)";
-
     public CompleteBipartiteVlookup (int uppr) {
         super(uppr);
     }
 
     @Override
-    public void createExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols) {
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
-            fRow.createCell(0).setCellValue(FILL_VALUE);
-            vRow.createCell(0).setCellValue(FILL_VALUE);
-            fRow.createCell(1).setCellFormula(String.format(EXCEL_FSTR, r + 1, rows));
-            vRow.createCell(1).setCellValue(FILL_VALUE);
-            fRow.createCell(2).setCellValue(FILL_VALUE);
-            vRow.createCell(2).setCellValue(FILL_VALUE);
-        }
+    public UniformRowCreator prepareSheet (int rows, int cols) {
+        return (r, row) -> {
+            row.setCellValue(0, FILL_VALUE);
+            row.setCellFormula(1, row.formula().append("VLOOKUP(C").append(r + 1).append(", A1:A").append(rows).append(", 1, FALSE)"), FILL_VALUE);
+            row.setCellValue(2, FILL_VALUE);
+        };
     }
 
     @Override
-    public void createRandomExcelSheet (SXSSFSheet fSheet, SXSSFSheet vSheet, int rows, int cols, long seed) {
-        List<Double> vals = super.getShuffledConsecutiveNumbers(new Random(seed + 0), rows);
-        List<Double> look = super.getShuffledConsecutiveNumbers(new Random(seed + 1), rows);
-        for (int r = 0; r < rows; r++) {
-            SXSSFRow fRow = fSheet.createRow(r);
-            SXSSFRow vRow = vSheet.createRow(r);
-            fRow.createCell(0).setCellValue(vals.get(r));
-            vRow.createCell(0).setCellValue(vals.get(r));
-            fRow.createCell(1).setCellFormula(String.format(EXCEL_FSTR, r + 1, rows));
-            vRow.createCell(1).setCellValue(look.get(r));
-            fRow.createCell(2).setCellValue(look.get(r));
-            vRow.createCell(2).setCellValue(look.get(r));
-        }
+    public RowCreator prepareRandomSheet (int rows, int cols, long seed) {
+        return (r, row) -> {
+            double val = super.getShuffledNumber(seed + 0, r, rows);
+            double key = super.getShuffledNumber(seed + 1, r, rows);
+            row.setCellValue(0, val);
+            row.setCellFormula(1, row.formula().append("VLOOKUP(C").append(r + 1).append(", A1:A").append(rows).append(", 1, FALSE)"), key);
+            row.setCellValue(2, key);
+        };
     }
 
-    @Override
-    public void createCalcSheet(Table fSheet, Table vSheet, int rows, int cols) throws IOException {
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
-            fRow.getOrCreateCell(0).setFloatValue(FILL_VALUE);
-            vRow.getOrCreateCell(0).setFloatValue(FILL_VALUE);
-            fRow.getOrCreateCell(1).setFormula(String.format(LIBRE_FSTR, r + 1, rows));
-            vRow.getOrCreateCell(1).setFloatValue(FILL_VALUE);
-            fRow.getOrCreateCell(2).setFloatValue(FILL_VALUE);
-            vRow.getOrCreateCell(2).setFloatValue(FILL_VALUE);
-        }
-    }
-
-    @Override
-    public void createRandomCalcSheet(Table fSheet, Table vSheet, int rows, int cols, long seed) throws IOException {
-        List<Double> vals = super.getShuffledConsecutiveNumbers(new Random(seed + 0), rows);
-        List<Double> look = super.getShuffledConsecutiveNumbers(new Random(seed + 1), rows);
-        for (int r = 0; r < rows; r++) {
-            TableRowImpl fRow = fSheet.getRow(r);
-            TableRowImpl vRow = vSheet.getRow(r);
-            fRow.getOrCreateCell(0).setFloatValue(vals.get(r));
-            vRow.getOrCreateCell(0).setFloatValue(vals.get(r));
-            fRow.getOrCreateCell(1).setFormula(String.format(LIBRE_FSTR, r + 1, rows));
-            vRow.getOrCreateCell(1).setFloatValue(look.get(r));
-            fRow.getOrCreateCell(2).setFloatValue(look.get(r));
-            vRow.getOrCreateCell(2).setFloatValue(look.get(r));
-        }
-    }
-    
 }
@@ -0,0 +1,253 @@
+package writers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.io.IOException;
+import java.io.File;
+
+/**
+ * Hands rows over to another thread, which replays them into `delegate`
+ * and closes it. Rows are passed in fixed-size batches that are recycled
+ * once they have been written, so at most `BATCHES` batches of rows are
+ * ever held in memory. Chunks are appended and rows are repeated on the
+ * same thread, in order with the rows around them.
+ */
+class AsyncSheetWriter implements ChunkableSheetWriter, RepeatableSheetWriter {
+
+    private static final int    BATCH_ROWS  = 1024;
+    private static final int    BATCHES     = 4;
+    private static final Batch  END         = new Batch(0);
+
+    private final SheetWriter           delegate;
+    private final BlockingQueue<Batch>  full;
+    private final BlockingQueue<Batch>  free;
+    private final Thread                thread;
+    private volatile Exception          error;
+    private Batch                       batch;
+    private RowBuffer                   probe;
+    private boolean                     finished;
+
+    AsyncSheetWriter (SheetWriter delegate) {
+        this.delegate   = delegate;
+        this.full       = new ArrayBlockingQueue<>(BATCHES + 1);
+        this.free       = new ArrayBlockingQueue<>(BATCHES);
+        for (int i = 1; i < BATCHES; i++) {
+            this.free.add(new Batch(BATCH_ROWS));
+        }
+        this.batch      = new Batch(BATCH_ROWS);
+        this.finished   = false;
+        this.thread     = new Thread(this::run, "sheet-writer");
+        this.thread.start();
+    }
+
+    @Override
+    public RowWriter createRow (int r) throws IOException {
+        this.checkError();
+        if (this.batch.size == BATCH_ROWS) {
+            this.dispatch();
+            this.batch = this.take(this.free);
+        }
+        RowBuffer row = this.batch.rows[this.batch.size++];
+        row.reset(r);
+        return row;
+    }
+
+    /**
+     * Only valid if `delegate` is a RepeatableSheetWriter. The probe is
+     * passed on along with `repeatRow`.
+     */
+    @Override
+    public RowWriter createProbe (int r) throws IOException {
+        this.checkError();
+        this.probe = new RowBuffer();
+        this.probe.reset(r);
+        return this.probe;
+    }
+
+    /**
+     * Only valid if `delegate` is a RepeatableSheetWriter. Returns as soon
+     * as the rows have been queued.
+     */
+    @Override
+    public void repeatRow (int to) throws IOException {
+        this.checkError();
+        if (this.batch.size > 0) {
+            this.dispatch();
+            this.batch = this.take(this.free);
+        }
+        this.put(new Batch(this.probe, to));
+        this.probe = null;
+    }
+
+    /**
+     * Only valid if `delegate` is a ChunkableSheetWriter. The chunk is
+     * written by the caller, not by the background thread.
+     */
+    @Override
+    public SheetWriter createChunk (int from, int to, File file) throws IOException {
+        return ((ChunkableSheetWriter) this.delegate).createChunk(from, to, file);
+    }
+
+    /**
+     * Only valid if `delegate` is a ChunkableSheetWriter. Returns as soon
+     * as the chunk has been queued.
+     */
+    @Override
+    public void appendChunk (int from, int to, File file) throws IOException {
+        this.checkError();
+        if (this.batch.size > 0) {
+            this.dispatch();
+            this.batch = this.take(this.free);
+        }
+        this.put(new Batch(from, to, file));
+    }
+
+    /**
+     * Sends the remaining rows to the background thread and tells it to
+     * close `delegate`. Does not wait for it to do so.
+     *
+     * @throws IOException
+     */
+    void finish () throws IOException {
+        if (!this.finished) {
+            this.finished = true;
+            this.dispatch();
+            this.put(END);
+        }
+    }
+
+    @Override
+    public void close () throws IOException {
+        this.finish();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        this.checkError();
+    }
+
+    private void run () {
+        try {
+            for (Batch b = this.full.take(); b != END; b = this.full.take()) {
+                try {
+                    if (this.error == null) {
+                        b.writeTo(this.delegate);
+                    } else if (b.chunk != null) {
+                        b.chunk.delete();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    this.error = e;
+                }
+                if (b.rows != null) {
+                    b.size = 0;
+                    this.free.put(b);
+                }
+            }
+        } catch (InterruptedException e) {
+            this.error = e;
+        } finally {
+            try {
+                this.delegate.close();
+            } catch (IOException | RuntimeException e) {
+                if (this.error == null) {
+                    this.error = e;
+                }
+            }
+        }
+    }
+
+    private void dispatch () throws IOException {
+        if (this.batch.size > 0) {
+            this.put(this.batch);
+        }
+    }
+
+    private void checkError () throws IOException {
+        if (this.error != null) {
+            throw new IOException("Failed to write sheet", this.error);
+        }
+    }
+
+    private void put (Batch b) throws IOException {
+        try {
+            this.full.put(b);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private Batch take (BlockingQueue<Batch> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Either a batch of rows, a chunk of rows [`from`, `to`) to append if
+     * `chunk` is set, or a probe for repeating the last row up to row
+     * `to` if `probe` is set.
+     */
+    private static class Batch {
+
+        private final RowBuffer[]   rows;
+        private final File          chunk;
+        private final RowBuffer     probe;
+        private final int           from;
+        private final int           to;
+        private int                 size;
+
+        Batch (int capacity) {
+            this.rows   = new RowBuffer[capacity];
+            this.chunk  = null;
+            this.probe  = null;
+            this.from   = 0;
+            this.to     = 0;
+            this.size   = 0;
+            for (int i = 0; i < capacity; i++) {
+                this.rows[i] = new RowBuffer();
+            }
+        }
+
+        Batch (int from, int to, File chunk) {
+            this.rows   = null;
+            this.chunk  = chunk;
+            this.probe  = null;
+            this.from   = from;
+            this.to     = to;
+            this.size   = 0;
+        }
+
+        Batch (RowBuffer probe, int to) {
+            this.rows   = null;
+            this.chunk  = null;
+            this.probe  = probe;
+            this.from   = 0;
+            this.to     = to;
+            this.size   = 0;
+        }
+
+        void writeTo (SheetWriter out) throws IOException {
+            if (this.chunk != null) {
+                ((ChunkableSheetWriter) out).appendChunk(this.from, this.to, this.chunk);
+                return;
+            }
+            if (this.probe != null) {
+                RepeatableSheetWriter sheet = (RepeatableSheetWriter) out;
+                this.probe.writeTo(sheet.createProbe(this.probe.row()));
+                sheet.repeatRow(this.to);
+                return;
+            }
+            for (int i = 0; i < this.size; i++) {
+                this.rows[i].writeTo(out.createRow(this.rows[i].row()));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package writers;
+
+import org.apache.poi.ss.util.CellReference;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The formula cells of a sheet, in the order that SpreadsheetML's
+ * `xl/calcChain.xml` lists them. Layouts put their formulas in the same
+ * columns of consecutive rows, so each column only keeps the runs of
+ * rows [start, end] that hold formulas, rather than one entry per cell.
+ *
+ * The chain is written row by row, left to right, which is a valid
+ * calculation order for formulas that only refer to formulas above
+ * them (e.g. a running total). Excel reorders the chain on its own if
+ * it finds otherwise, so the order is a hint rather than a requirement
+ * for the file to open.
+ */
+class CalcChain {
+
+    private int[][] starts;
+    private int[][] ends;
+    private int[]   runs;
+
+    CalcChain () {
+        this.starts = new int[0][];
+        this.ends   = new int[0][];
+        this.runs   = new int[0];
+    }
+
+    /**
+     * @return True if no formula was added.
+     */
+    boolean isEmpty () {
+        for (int n : this.runs) {
+            if (n > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the formula at (`r`, `c`). Rows must be added in ascending
+     * order.
+     *
+     * @param r
+     * @param c
+     */
+    void add (int r, int c) {
+        this.addRun(c, r, r);
+    }
+
+    /**
+     * Adds the formulas of `other`, all of which are in rows below those
+     * of this chain.
+     *
+     * @param other
+     */
+    void append (CalcChain other) {
+        for (int c = 0; c < other.runs.length; c++) {
+            for (int k = 0; k < other.runs[c]; k++) {
+                this.addRun(c, other.starts[c][k], other.ends[c][k]);
+            }
+        }
+    }
+
+    /**
+     * Writes the whole `xl/calcChain.xml` part.
+     *
+     * @param out
+     * @throws IOException
+     */
+    void writeTo (XmlOutput out) throws IOException {
+        int         cols    = this.runs.length;
+        int[]       cursor  = new int[cols];
+        String[]    names   = new String[cols];
+        for (int c = 0; c < cols; c++) {
+            names[c] = CellReference.convertNumToColString(c);
+        }
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        out.write("<calcChain xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">");
+        // Entries without an `i` attribute are on the same sheet as the previous one
+        boolean first = true;
+        for (int r = this.nextRow(cursor, 0); r >= 0; r = this.nextRow(cursor, r + 1)) {
+            for (int c = 0; c < cols; c++) {
+                if (cursor[c] < this.runs[c] && this.starts[c][cursor[c]] <= r) {
+                    out.write("<c r=\"");
+                    out.write(names[c]);
+                    out.write(r + 1);
+                    out.write(first ? "\" i=\"1\"/>" : "\"/>");
+                    first = false;
+                }
+            }
+        }
+        out.write("</calcChain>");
+    }
+
+    /**
+     * Moves the cursor of every column past the runs that end before row
+     * `r`.
+     *
+     * @param cursor
+     * @param r
+     * @return The first row from `r` on that holds a formula, or -1 if
+     * there is none.
+     */
+    private int nextRow (int[] cursor, int r) {
+        int next = -1;
+        for (int c = 0; c < this.runs.length; c++) {
+            while (cursor[c] < this.runs[c] && this.ends[c][cursor[c]] < r) {
+                cursor[c]++;
+            }
+            if (cursor[c] < this.runs[c]) {
+                int start = Math.max(r, this.starts[c][cursor[c]]);
+                next = next < 0 ? start : Math.min(next, start);
+            }
+        }
+        return next;
+    }
+
+    private void addRun (int c, int start, int end) {
+        if (c >= this.runs.length) {
+            int from    = this.runs.length;
+            this.starts = Arrays.copyOf(this.starts, c + 1);
+            this.ends   = Arrays.copyOf(this.ends, c + 1);
+            this.runs   = Arrays.copyOf(this.runs, c + 1);
+            for (int i = from; i <= c; i++) {
+                this.starts[i]  = new int[4];
+                this.ends[i]    = new int[4];
+            }
+        }
+        int n = this.runs[c];
+        if (n > 0 && this.ends[c][n - 1] + 1 == start) {
+            this.ends[c][n - 1] = end;
+            return;
+        }
+        if (n == this.starts[c].length) {
+            this.starts[c]  = Arrays.copyOf(this.starts[c], n * 2);
+            this.ends[c]    = Arrays.copyOf(this.ends[c], n * 2);
+        }
+        this.starts[c][n]   = start;
+        this.ends[c][n]     = end;
+        this.runs[c]        = n + 1;
+    }
+
+}
@@ -0,0 +1,40 @@
+package writers;
+
+import java.io.IOException;
+import java.io.File;
+
+/**
+ * A sheet writer whose rows can be serialized in independent chunks
+ * (e.g. on several threads) and then joined in order. Chunks hold the
+ * serialized markup of their rows only, so joining them is a plain
+ * copy of their bytes.
+ */
+public interface ChunkableSheetWriter extends SheetWriter {
+
+    /**
+     * Creates a writer for rows [`from`, `to`) that serializes them into
+     * `file`. Rows that are not created are written as empty rows. The
+     * returned writer does not touch this one and may be used on any
+     * thread.
+     *
+     * @param from
+     * @param to
+     * @param file
+     * @return The writer for the chunk.
+     * @throws IOException
+     */
+    public SheetWriter createChunk (int from, int to, File file) throws IOException;
+
+    /**
+     * Appends a chunk that was created by `createChunk` and closed, then
+     * deletes `file`. Every row before `from` must already have been
+     * created or appended.
+     *
+     * @param from
+     * @param to
+     * @param file
+     * @throws IOException
+     */
+    public void appendChunk (int from, int to, File file) throws IOException;
+
+}
@@ -0,0 +1,131 @@
+package writers;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.File;
+
+/**
+ * Writes a sheet as comma-separated values. Formulas are written as
+ * text starting with `=`, which is how spreadsheet applications import
+ * them. Skipped rows become empty lines.
+ */
+public class CsvSheetWriter implements ChunkableSheetWriter, RepeatableSheetWriter {
+
+    private final FileOutputStream  file;
+    private final XmlOutput         out;
+    private final RowStream         rows;
+
+    /**
+     * @param name The name of the file to create.
+     * @throws IOException
+     */
+    public CsvSheetWriter (String name) throws IOException {
+        this.file   = new FileOutputStream(name);
+        this.out    = new XmlOutput(this.file);
+        this.rows   = new RowStream(new Rows(), this.out);
+    }
+
+    @Override
+    public RowWriter createRow (int r) throws IOException {
+        return this.rows.createRow(r);
+    }
+
+    @Override
+    public RowWriter createProbe (int r) throws IOException {
+        return this.rows.createProbe(r);
+    }
+
+    @Override
+    public void repeatRow (int to) throws IOException {
+        this.rows.repeatRow(to);
+    }
+
+    @Override
+    public SheetWriter createChunk (int from, int to, File file) throws IOException {
+        return RowStream.chunk(new Rows(), from, to, file);
+    }
+
+    @Override
+    public void appendChunk (int from, int to, File file) throws IOException {
+        this.rows.append(from, to, file);
+    }
+
+    @Override
+    public void close () throws IOException {
+        try {
+            this.rows.close();
+        } finally {
+            this.file.close();
+        }
+    }
+
+    private static class Rows implements RowSerializer {
+
+        @Override
+        public void writeRow (XmlOutput out, RowBuffer row) throws IOException {
+            for (int c = 0, width = row.width(); c < width; c++) {
+                if (c > 0) {
+                    out.write(',');
+                }
+                switch (row.type(c)) {
+                    case RowBuffer.NUMBER:
+                        out.write(row.number(c));
+                        break;
+                    case RowBuffer.FORMULA:
+                        Rows.writeField(out, "=", row.formula(c));
+                        break;
+                    case RowBuffer.STRING:
+                        Rows.writeField(out, "", row.text(c));
+                        break;
+                }
+            }
+            out.write('\n');
+        }
+
+        @Override
+        public boolean isStateless () {
+            return true;
+        }
+
+        @Override
+        public void writeSkippedRows (XmlOutput out, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                out.write('\n');
+            }
+        }
+
+        /**
+         * Writes `prefix` followed by `s`, quoting both if `s` contains
+         * a separator, a quote or a line break.
+         *
+         * @param out
+         * @param prefix
+         * @param s
+         * @throws IOException
+         */
+        private static void writeField (XmlOutput out, String prefix, CharSequence s) throws IOException {
+            boolean quote = false;
+            for (int i = 0, n = s.length(); i < n && !quote; i++) {
+                char ch = s.charAt(i);
+                quote = ch == ',' || ch == '"' || ch == '\n';
+            }
+            if (!quote) {
+                out.write(prefix);
+                out.write(s);
+                return;
+            }
+            out.write('"');
+            out.write(prefix);
+            for (int i = 0, n = s.length(); i < n; i++) {
+                char ch = s.charAt(i);
+                if (ch == '"') {
+                    out.write('"');
+                }
+                out.write(ch);
+            }
+            out.write('"');
+        }
+
+    }
+
+}
@@ -0,0 +1,302 @@
+package writers;
+
+import java.math.BigInteger;
+
+/**
+ * Formats doubles straight into a byte buffer, in the same notation as
+ * Double.toString (e.g. 12.0, 0.001, 1.0E7, -2.5E-4) but without
+ * creating any objects.
+ *
+ * Integers below 10^7, which is what almost every generated cell holds,
+ * are printed digit by digit. Every other value goes through Ryu (Ulf
+ * Adams, "Ryu: Fast Float-to-String Conversion", PLDI 2018), which finds
+ * the shortest decimal that reads back as the same double. This is what
+ * Double.toString does from Java 19 on; older versions occasionally
+ * print one more digit than necessary (e.g. 2.0000000000000004E16 for
+ * 2.0E16 + 4), so for such values the two may differ in text but never
+ * in the double they stand for.
+ */
+final class DoubleFormat {
+
+    /** The longest text a double can take (e.g. -2.2250738585072014E-308) */
+    static final int MAX_LENGTH = 24;
+
+    private static final int        POW5_BITCOUNT       = 125;
+    private static final int        POW5_INV_BITCOUNT   = 125;
+    private static final int        POW5_TABLE_SIZE     = 326;
+    private static final int        POW5_INV_TABLE_SIZE = 342;
+
+    /** 5^i, normalized to 125 bits, as { low 64 bits, high bits } */
+    private static final long[][]   POW5                = new long[POW5_TABLE_SIZE][];
+
+    /** 2^(k + 124) / 5^i rounded up, where 5^i has k bits, split like POW5 */
+    private static final long[][]   POW5_INV            = new long[POW5_INV_TABLE_SIZE][];
+
+    static {
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int i = 0; i < POW5_INV_TABLE_SIZE; i++) {
+            BigInteger  pow = BigInteger.valueOf(5).pow(i);
+            int         len = pow.bitLength();
+            if (i < POW5_TABLE_SIZE) {
+                BigInteger norm = len > POW5_BITCOUNT ? pow.shiftRight(len - POW5_BITCOUNT) : pow.shiftLeft(POW5_BITCOUNT - len);
+                POW5[i] = new long[] { norm.and(mask).longValue(), norm.shiftRight(64).longValue() };
+            }
+            BigInteger inv = BigInteger.ONE.shiftLeft(len - 1 + POW5_INV_BITCOUNT).divide(pow).add(BigInteger.ONE);
+            POW5_INV[i] = new long[] { inv.and(mask).longValue(), inv.shiftRight(64).longValue() };
+        }
+    }
+
+    private DoubleFormat () {}
+
+    /**
+     * Writes `v` into `buf`, which must have room for MAX_LENGTH bytes
+     * from `pos` on.
+     *
+     * @param v
+     * @param buf
+     * @param pos
+     * @return The position after the last byte written.
+     */
+    static int write (double v, byte[] buf, int pos) {
+        long bits = Double.doubleToRawLongBits(v);
+        if (v != v) {
+            return DoubleFormat.ascii("NaN", buf, pos);
+        }
+        if (bits < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        if (v == Double.POSITIVE_INFINITY) {
+            return DoubleFormat.ascii("Infinity", buf, pos);
+        }
+        if (v < 1e7 && v == (long) v) {
+            pos = DoubleFormat.digits((long) v, DoubleFormat.length((long) v), buf, pos);
+            buf[pos++] = '.';
+            buf[pos++] = '0';
+            return pos;
+        }
+        return DoubleFormat.shortest(bits & Long.MAX_VALUE, buf, pos);
+    }
+
+    /**
+     * Ryu's d2d, followed by the layout of Double.toString.
+     */
+    private static int shortest (long bits, byte[] buf, int pos) {
+        long    mantissa    = bits & ((1L << 52) - 1);
+        int     exponent    = (int) (bits >>> 52);
+        int     e2;
+        long    m2;
+        if (exponent == 0) {
+            e2 = 1 - 1023 - 52 - 2;
+            m2 = mantissa;
+        } else {
+            e2 = exponent - 1023 - 52 - 2;
+            m2 = (1L << 52) | mantissa;
+        }
+        boolean even            = (m2 & 1) == 0;
+        long    mv              = 4 * m2;
+        int     mmShift         = mantissa != 0 || exponent <= 1 ? 1 : 0;
+        boolean vmTrailingZeros = false;
+        boolean vrTrailingZeros = false;
+        long    vr;
+        long    vp;
+        long    vm;
+        int     e10;
+
+        // The interval of decimals that read back as `bits`, scaled by a power of 10
+        if (e2 >= 0) {
+            int q   = DoubleFormat.log10Pow2(e2) - (e2 > 3 ? 1 : 0);
+            int k   = POW5_INV_BITCOUNT + DoubleFormat.pow5Bits(q) - 1;
+            int j   = -e2 + q + k;
+            e10     = q;
+            vr      = DoubleFormat.mulShift(mv, POW5_INV[q], j);
+            vp      = DoubleFormat.mulShift(mv + 2, POW5_INV[q], j);
+            vm      = DoubleFormat.mulShift(mv - 1 - mmShift, POW5_INV[q], j);
+            if (q <= 21) {
+                if (mv % 5 == 0) {
+                    vrTrailingZeros = DoubleFormat.pow5Factor(mv) >= q;
+                } else if (even) {
+                    vmTrailingZeros = DoubleFormat.pow5Factor(mv - 1 - mmShift) >= q;
+                } else if (DoubleFormat.pow5Factor(mv + 2) >= q) {
+                    vp--;
+                }
+            }
+        } else {
+            int q   = DoubleFormat.log10Pow5(-e2) - (-e2 > 1 ? 1 : 0);
+            int i   = -e2 - q;
+            int k   = DoubleFormat.pow5Bits(i) - POW5_BITCOUNT;
+            int j   = q - k;
+            e10     = q + e2;
+            vr      = DoubleFormat.mulShift(mv, POW5[i], j);
+            vp      = DoubleFormat.mulShift(mv + 2, POW5[i], j);
+            vm      = DoubleFormat.mulShift(mv - 1 - mmShift, POW5[i], j);
+            if (q <= 1) {
+                vrTrailingZeros = true;
+                if (even) {
+                    vmTrailingZeros = mmShift == 1;
+                } else {
+                    vp--;
+                }
+            } else if (q < 63) {
+                vrTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+            }
+        }
+
+        // Drop the digits that the whole interval shares
+        int     removed     = 0;
+        int     lastRemoved = 0;
+        long    output;
+        if (vmTrailingZeros || vrTrailingZeros) {
+            while (vp / 10 > vm / 10) {
+                vmTrailingZeros &= vm % 10 == 0;
+                vrTrailingZeros &= lastRemoved == 0;
+                lastRemoved = (int) (vr % 10);
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            if (vmTrailingZeros) {
+                while (vm % 10 == 0) {
+                    vrTrailingZeros &= lastRemoved == 0;
+                    lastRemoved = (int) (vr % 10);
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+            if (vrTrailingZeros && lastRemoved == 5 && vr % 2 == 0) {
+                // Round half to even
+                lastRemoved = 4;
+            }
+            output = vr + ((vr == vm && (!even || !vmTrailingZeros)) || lastRemoved >= 5 ? 1 : 0);
+        } else {
+            boolean roundUp = false;
+            while (vp / 10 > vm / 10) {
+                roundUp = vr % 10 >= 5;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            output = vr + (vr == vm || roundUp ? 1 : 0);
+        }
+        return DoubleFormat.layout(output, e10 + removed, buf, pos);
+    }
+
+    /**
+     * Writes `output` * 10^`exp` in plain notation if it lies in
+     * [10^-3, 10^7) and in computerized scientific notation otherwise,
+     * always with at least one digit after the point.
+     */
+    private static int layout (long output, int exp, byte[] buf, int pos) {
+        int length  = DoubleFormat.length(output);
+        int sci     = exp + length - 1;
+        if (sci >= 0 && sci < 7) {
+            if (exp >= 0) {
+                pos = DoubleFormat.digits(output, length, buf, pos);
+                for (int i = 0; i < exp; i++) {
+                    buf[pos++] = '0';
+                }
+                buf[pos++] = '.';
+                buf[pos++] = '0';
+            } else {
+                // Leave a gap for the point after the integer digits
+                DoubleFormat.digits(output, length, buf, pos + 1);
+                System.arraycopy(buf, pos + 1, buf, pos, sci + 1);
+                buf[pos + sci + 1] = '.';
+                pos += length + 1;
+            }
+        } else if (sci < 0 && sci >= -3) {
+            buf[pos++] = '0';
+            buf[pos++] = '.';
+            for (int i = -1; i > sci; i--) {
+                buf[pos++] = '0';
+            }
+            pos = DoubleFormat.digits(output, length, buf, pos);
+        } else {
+            DoubleFormat.digits(output, length, buf, pos + 1);
+            buf[pos] = buf[pos + 1];
+            buf[pos + 1] = '.';
+            pos += length + 1;
+            if (length == 1) {
+                buf[pos++] = '0';
+            }
+            buf[pos++] = 'E';
+            if (sci < 0) {
+                buf[pos++] = '-';
+                sci = -sci;
+            }
+            pos = DoubleFormat.digits(sci, DoubleFormat.length(sci), buf, pos);
+        }
+        return pos;
+    }
+
+    /**
+     * The bits 64 to 127 of (`m` * `mul`) >> (`j` - 64), where `mul` is a
+     * 128-bit table entry.
+     */
+    private static long mulShift (long m, long[] mul, int j) {
+        long    high0   = DoubleFormat.unsignedMultiplyHigh(m, mul[0]);
+        long    low2    = m * mul[1];
+        long    high2   = DoubleFormat.unsignedMultiplyHigh(m, mul[1]);
+        long    low     = high0 + low2;
+        long    high    = high2 + (Long.compareUnsigned(low, low2) < 0 ? 1 : 0);
+        int     shift   = j - 64;
+        return shift == 0 ? low : (low >>> shift) | (high << (64 - shift));
+    }
+
+    private static long unsignedMultiplyHigh (long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    private static int pow5Factor (long v) {
+        int count = 0;
+        while (v % 5 == 0) {
+            v /= 5;
+            count++;
+        }
+        return count;
+    }
+
+    /** The number of bits of 5^e (1 for e = 0) */
+    private static int pow5Bits (int e) {
+        return ((e * 1217359) >>> 19) + 1;
+    }
+
+    /** floor(log10(2^e)) */
+    private static int log10Pow2 (int e) {
+        return (e * 78913) >>> 18;
+    }
+
+    /** floor(log10(5^e)) */
+    private static int log10Pow5 (int e) {
+        return (e * 732923) >>> 20;
+    }
+
+    private static int length (long v) {
+        int length = 1;
+        for (long p = 10; length < 19 && v >= p; p *= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int digits (long v, int length, byte[] buf, int pos) {
+        int end = pos + length;
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        return end;
+    }
+
+    private static int ascii (String s, byte[] buf, int pos) {
+        for (int i = 0; i < s.length(); i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        return pos;
+    }
+
+}
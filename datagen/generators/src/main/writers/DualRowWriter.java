@@ -0,0 +1,45 @@
+package writers;
+
+/**
+ * Receives the logical cells of one row. Every call describes a single
+ * cell and is written to both the formula-value and the value-only sheet
+ * of every attached format.
+ */
+public interface DualRowWriter {
+
+    /**
+     * Writes `value` to both sheets.
+     *
+     * @param c
+     * @param value
+     */
+    public void setCellValue    (int c, double value                    );
+
+    /**
+     * @return An empty builder for the text of the next formula. The same
+     * builder is returned every time, so its content must be passed to
+     * `setCellFormula` before this is called again.
+     */
+    public FormulaBuilder formula ();
+
+    /**
+     * Writes `formula` to the formula-value sheet and its evaluated
+     * `result` to the value-only sheet. Formulas use Excel's syntax.
+     *
+     * @param c
+     * @param formula
+     * @param result
+     */
+    public void setCellFormula  (int c, CharSequence formula, double result );
+    public void setCellFormula  (int c, CharSequence formula, String result );
+
+    /**
+     * Writes the precomputed `result` of a formula that is not part of
+     * the benchmark (the EVAL(...) cells of the special sums).
+     *
+     * @param c
+     * @param result
+     */
+    public void setCellResult   (int c, double result                   );
+
+}
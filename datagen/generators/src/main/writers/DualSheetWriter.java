@@ -0,0 +1,379 @@
+package writers;
+
+import java.io.IOException;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.io.File;
+
+/**
+ * Fans out a single stream of logical cells to the formula-value and
+ * value-only sheets of one or more formats, so that layouts only
+ * generate each cell once no matter how many files are written. Sheets
+ * that only take the values (e.g. a GroundTruthWriter) can be attached
+ * as well, with `addValues`. If
+ * `concurrent` is set, each sheet is serialized (and saved) on its own
+ * thread while the caller keeps generating rows. If every sheet is a
+ * ChunkableSheetWriter, ranges of rows can also be written as separate
+ * chunks (see `createChunk`) and appended in order. If every sheet is a
+ * RepeatableSheetWriter, rows that only differ in their number can be
+ * stamped out from a single row (see `repeatRow`).
+ */
+public class DualSheetWriter implements Closeable {
+
+    private final boolean       concurrent;
+    private final WriterOptions options;
+    private final Row           row;
+    private boolean             chunkable;
+    private boolean             repeatable;
+    private Format[]            formats;
+    private SheetWriter[]       fSheets;
+    private SheetWriter[]       vSheets;
+
+    /**
+     * Creates a writer for a single format that writes on the caller's
+     * thread, without cached results.
+     *
+     * @param format
+     * @param fSheet The formula-value sheet.
+     * @param vSheet The value-only sheet.
+     */
+    public DualSheetWriter (Format format, SheetWriter fSheet, SheetWriter vSheet) {
+        this(false, WriterOptions.DEFAULT);
+        this.add(format, fSheet, vSheet);
+    }
+
+    /**
+     * Creates a writer without any sheets. Use `add` to attach them.
+     *
+     * @param concurrent If true, all sheets are written on background threads.
+     * @param options Whether the formula-value sheets get the results of
+     * their formulas as cached values (see WriterOptions.withCachedResults).
+     */
+    public DualSheetWriter (boolean concurrent, WriterOptions options) {
+        this.concurrent = concurrent;
+        this.options    = options;
+        this.row        = new Row(options.isCachedResults());
+        this.chunkable  = true;
+        this.repeatable = true;
+        this.formats    = new Format[0];
+        this.fSheets    = new SheetWriter[0];
+        this.vSheets    = new SheetWriter[0];
+    }
+
+    /**
+     * Attaches a pair of sheets. This must be done before any row is created.
+     *
+     * @param format
+     * @param fSheet The formula-value sheet, or null if there is none
+     * (see `addValues`).
+     * @param vSheet The value-only sheet.
+     */
+    public void add (Format format, SheetWriter fSheet, SheetWriter vSheet) {
+        int n = this.formats.length;
+        this.formats = Arrays.copyOf(this.formats, n + 1);
+        this.fSheets = Arrays.copyOf(this.fSheets, n + 1);
+        this.vSheets = Arrays.copyOf(this.vSheets, n + 1);
+        this.formats[n] = format;
+        this.fSheets[n] = this.concurrent && fSheet != null ? new AsyncSheetWriter(fSheet) : fSheet;
+        this.vSheets[n] = this.concurrent ? new AsyncSheetWriter(vSheet) : vSheet;
+        this.row.formats    = this.formats;
+        this.row.fRows      = new RowWriter[n + 1];
+        this.row.vRows      = new RowWriter[n + 1];
+        this.chunkable     &= (fSheet == null || fSheet instanceof ChunkableSheetWriter) && vSheet instanceof ChunkableSheetWriter;
+        this.repeatable    &= (fSheet == null || fSheet instanceof RepeatableSheetWriter) && vSheet instanceof RepeatableSheetWriter;
+    }
+
+    /**
+     * Attaches a sheet that receives the same cells as the value-only
+     * sheets, without a formula-value counterpart. This must be done
+     * before any row is created.
+     *
+     * @param vSheet
+     */
+    public void addValues (SheetWriter vSheet) {
+        this.add(null, null, vSheet);
+    }
+
+    /**
+     * @return True if no sheets have been attached.
+     */
+    public boolean isEmpty () {
+        return this.formats.length == 0;
+    }
+
+    /**
+     * @return True if every sheet can be written in chunks.
+     */
+    public boolean isChunkable () {
+        return this.chunkable;
+    }
+
+    /**
+     * @return True if every sheet can repeat rows.
+     */
+    public boolean isRepeatable () {
+        return this.repeatable;
+    }
+
+    /**
+     * Creates a writer for rows [`from`, `to`) of every sheet. The chunk
+     * writes into temporary files on the caller's thread and must be
+     * closed before it is passed to `appendChunk`. Only valid if
+     * `isChunkable` is true.
+     *
+     * @param from
+     * @param to
+     * @return The writer for the chunk.
+     * @throws IOException
+     */
+    public Chunk createChunk (int from, int to) throws IOException {
+        Chunk chunk = new Chunk(from, to, this.options);
+        try {
+            for (int i = 0; i < this.formats.length; i++) {
+                File fFile = this.fSheets[i] == null ? null : File.createTempFile("chunk-", ".part");
+                File vFile = File.createTempFile("chunk-", ".part");
+                chunk.files.add(fFile);
+                chunk.files.add(vFile);
+                chunk.add(this.formats[i]
+                    , fFile == null ? null : ((ChunkableSheetWriter) this.fSheets[i]).createChunk(from, to, fFile)
+                    , ((ChunkableSheetWriter) this.vSheets[i]).createChunk(from, to, vFile)
+                );
+            }
+        } catch (IOException | RuntimeException e) {
+            chunk.discard();
+            throw e;
+        }
+        return chunk;
+    }
+
+    /**
+     * Appends a closed chunk to every sheet. Chunks must be appended in
+     * ascending order of rows. Their temporary files are deleted once
+     * they have been copied.
+     *
+     * @param chunk
+     * @throws IOException
+     */
+    public void appendChunk (Chunk chunk) throws IOException {
+        for (int i = 0; i < this.formats.length; i++) {
+            if (this.fSheets[i] != null) {
+                ((ChunkableSheetWriter) this.fSheets[i]).appendChunk(chunk.from, chunk.to, chunk.files.get(2 * i));
+            }
+            ((ChunkableSheetWriter) this.vSheets[i]).appendChunk(chunk.from, chunk.to, chunk.files.get(2 * i + 1));
+        }
+    }
+
+    /**
+     * Starts row `r` in every sheet.
+     *
+     * @param r
+     * @return The writer for row `r`.
+     * @throws IOException
+     */
+    public DualRowWriter createRow (int r) throws IOException {
+        for (int i = 0; i < this.formats.length; i++) {
+            this.row.fRows[i] = this.fSheets[i] == null ? null : this.fSheets[i].createRow(r);
+            this.row.vRows[i] = this.vSheets[i].createRow(r);
+        }
+        return this.row;
+    }
+
+    /**
+     * Starts a probe for the row that was created last in every sheet
+     * (see RepeatableSheetWriter). Only valid if `isRepeatable` is true.
+     *
+     * @param r A row whose number has as many digits as that of the last
+     * row, but a different digit at every place.
+     * @return The writer for the probe.
+     * @throws IOException
+     */
+    public DualRowWriter createProbe (int r) throws IOException {
+        for (int i = 0; i < this.formats.length; i++) {
+            this.row.fRows[i] = this.fSheets[i] == null ? null : ((RepeatableSheetWriter) this.fSheets[i]).createProbe(r);
+            this.row.vRows[i] = ((RepeatableSheetWriter) this.vSheets[i]).createProbe(r);
+        }
+        return this.row;
+    }
+
+    /**
+     * Writes the row that was created last and copies of it, told apart
+     * by the last probe, up to row `to` (exclusive) in every sheet. Only
+     * valid if `isRepeatable` is true.
+     *
+     * @param to
+     * @throws IOException
+     */
+    public void repeatRow (int to) throws IOException {
+        for (int i = 0; i < this.formats.length; i++) {
+            if (this.fSheets[i] != null) {
+                ((RepeatableSheetWriter) this.fSheets[i]).repeatRow(to);
+            }
+            ((RepeatableSheetWriter) this.vSheets[i]).repeatRow(to);
+        }
+    }
+
+    /**
+     * Closes every sheet. When writing concurrently, all background
+     * threads are told to finish before any of them is waited on so that
+     * the files are saved at the same time.
+     */
+    @Override
+    public void close () throws IOException {
+        IOException error = null;
+        if (this.concurrent) {
+            for (int i = 0; i < this.formats.length; i++) {
+                error = DualSheetWriter.finish(this.fSheets[i], error);
+                error = DualSheetWriter.finish(this.vSheets[i], error);
+            }
+        }
+        for (int i = 0; i < this.formats.length; i++) {
+            error = DualSheetWriter.close(this.fSheets[i], error);
+            error = DualSheetWriter.close(this.vSheets[i], error);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static IOException finish (SheetWriter sheet, IOException error) {
+        if (sheet == null) {
+            return error;
+        }
+        try {
+            ((AsyncSheetWriter) sheet).finish();
+        } catch (IOException e) {
+            return error == null ? e : error;
+        }
+        return error;
+    }
+
+    private static IOException close (SheetWriter sheet, IOException error) {
+        if (sheet == null) {
+            return error;
+        }
+        try {
+            sheet.close();
+        } catch (IOException e) {
+            return error == null ? e : error;
+        }
+        return error;
+    }
+
+    /**
+     * Rows [`from`, `to`) of a sheet, written into temporary files.
+     */
+    public static class Chunk extends DualSheetWriter {
+
+        private final List<File>    files;
+        private final int           from;
+        private final int           to;
+
+        private Chunk (int from, int to, WriterOptions options) {
+            super(false, options);
+            this.files  = new ArrayList<>();
+            this.from   = from;
+            this.to     = to;
+        }
+
+        /**
+         * Closes the chunk (if it is still open) and deletes its
+         * temporary files. Use this for chunks that will not be appended.
+         */
+        public void discard () {
+            try {
+                this.close();
+            } catch (IOException e) {
+                // The files are deleted regardless
+            }
+            for (File file : this.files) {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+
+    }
+
+    private static class Row implements DualRowWriter {
+
+        private final FormulaBuilder    builder = new FormulaBuilder();
+        private final StringBuilder     scratch = new StringBuilder();
+        private final boolean           cached;
+        private Format[]                formats;
+        private RowWriter[]             fRows;
+        private RowWriter[]             vRows;
+
+        Row (boolean cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public FormulaBuilder formula () {
+            return this.builder.clear();
+        }
+
+        @Override
+        public void setCellValue (int c, double value) {
+            for (int i = 0; i < this.formats.length; i++) {
+                if (this.fRows[i] != null) {
+                    this.fRows[i].setCellValue(c, value);
+                }
+                this.vRows[i].setCellValue(c, value);
+            }
+        }
+
+        @Override
+        public void setCellFormula (int c, CharSequence formula, double result) {
+            for (int i = 0; i < this.formats.length; i++) {
+                this.vRows[i].setCellValue(c, result);
+                if (this.fRows[i] == null) {
+                    continue;
+                }
+                if (this.cached) {
+                    this.fRows[i].setCellFormula(c, this.formats[i].formula(formula, this.scratch), result);
+                } else {
+                    this.fRows[i].setCellFormula(c, this.formats[i].formula(formula, this.scratch));
+                }
+            }
+        }
+
+        @Override
+        public void setCellFormula (int c, CharSequence formula, String result) {
+            for (int i = 0; i < this.formats.length; i++) {
+                this.vRows[i].setCellValue(c, result);
+                if (this.fRows[i] == null) {
+                    continue;
+                }
+                if (this.cached) {
+                    this.fRows[i].setCellFormula(c, this.formats[i].formula(formula, this.scratch), result);
+                } else {
+                    this.fRows[i].setCellFormula(c, this.formats[i].formula(formula, this.scratch));
+                }
+            }
+        }
+
+        @Override
+        public void setCellResult (int c, double result) {
+            for (int i = 0; i < this.formats.length; i++) {
+                this.vRows[i].setCellValue(c, result);
+                if (this.fRows[i] == null) {
+                    continue;
+                }
+                if (this.formats[i].resultsAsFormulas()) {
+                    this.scratch.setLength(0);
+                    if (this.cached) {
+                        this.fRows[i].setCellFormula(c, this.scratch.append(result), result);
+                    } else {
+                        this.fRows[i].setCellFormula(c, this.scratch.append(result));
+                    }
+                } else {
+                    this.fRows[i].setCellValue(c, result);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,95 @@
+package writers;
+
+import com.github.jferard.fastods.AnonymousOdsFileWriter;
+import com.github.jferard.fastods.TableRowImpl;
+import com.github.jferard.fastods.TableCell;
+import com.github.jferard.fastods.OdsFactory;
+import com.github.jferard.fastods.Table;
+
+import java.io.IOException;
+import java.io.File;
+
+/**
+ * Writes an .ods file through fastods. The whole table is kept in
+ * memory until the writer is closed.
+ */
+public class FastodsSheetWriter implements SheetWriter {
+
+    private final AnonymousOdsFileWriter    writer;
+    private final Table                     table;
+    private final File                      file;
+    private final Row                       row;
+
+    /**
+     * @param factory
+     * @param file The file to create.
+     * @throws IOException
+     */
+    public FastodsSheetWriter (OdsFactory factory, File file) throws IOException {
+        this.writer = factory.createWriter();
+        this.table  = this.writer.document().addTable("Sheet1");
+        this.file   = file;
+        this.row    = new Row();
+    }
+
+    /**
+     * Writes into an existing table. Closing this writer does nothing.
+     *
+     * @param table
+     */
+    public FastodsSheetWriter (Table table) {
+        this.writer = null;
+        this.table  = table;
+        this.file   = null;
+        this.row    = new Row();
+    }
+
+    @Override
+    public RowWriter createRow (int r) throws IOException {
+        this.row.current = this.table.getRow(r);
+        return this.row;
+    }
+
+    @Override
+    public void close () throws IOException {
+        if (this.writer != null) {
+            this.writer.saveAs(this.file);
+        }
+    }
+
+    private static class Row implements RowWriter {
+
+        private TableRowImpl current;
+
+        @Override
+        public void setCellValue (int c, double value) {
+            this.current.getOrCreateCell(c).setFloatValue(value);
+        }
+
+        @Override
+        public void setCellValue (int c, String value) {
+            this.current.getOrCreateCell(c).setStringValue(value);
+        }
+
+        @Override
+        public void setCellFormula (int c, CharSequence formula) {
+            this.current.getOrCreateCell(c).setFormula(formula.toString());
+        }
+
+        @Override
+        public void setCellFormula (int c, CharSequence formula, double result) {
+            TableCell cell = this.current.getOrCreateCell(c);
+            cell.setFloatValue(result);
+            cell.setFormula(formula.toString());
+        }
+
+        @Override
+        public void setCellFormula (int c, CharSequence formula, String result) {
+            TableCell cell = this.current.getOrCreateCell(c);
+            cell.setStringValue(result);
+            cell.setFormula(formula.toString());
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+package writers;
+
+/**
+ * The file formats that layouts can be written to. Layouts describe
+ * formulas using Excel's syntax; each format converts them to its own
+ * dialect and decides how precomputed results are stored.
+ */
+public enum Format {
+
+    XLSX    ("xlsx" , false ),
+    XLSB    ("xlsb" , false ),
+    ODS     ("ods"  , true  ),
+    FODS    ("fods" , true  ),
+    CSV     ("csv"  , false );
+
+    public final String     extension;
+    private final boolean   calc;
+
+    private Format (String extension, boolean calc) {
+        this.extension  = extension;
+        this.calc       = calc;
+    }
+
+    /**
+     * @param formula A formula written using Excel's syntax.
+     * @param scratch A buffer to convert the formula into if its syntax
+     * differs in this format.
+     * @return `formula` in this format's syntax.
+     */
+    public CharSequence formula (CharSequence formula, StringBuilder scratch) {
+        if (!this.calc) {
+            return formula;
+        }
+        scratch.setLength(0);
+        Format.toCalcFormula(formula, scratch);
+        return scratch;
+    }
+
+    /**
+     * Calc has always been given the precomputed results of formulas
+     * that are not part of a benchmark as constant formulas (e.g. =2.0)
+     * rather than as plain values.
+     *
+     * @return True if precomputed results are written as formulas.
+     */
+    public boolean resultsAsFormulas () {
+        return this.calc;
+    }
+
+    /**
+     * Replaces argument separators with semicolons and the FALSE
+     * constant with 0 (e.g. `VLOOKUP(C1, A1:A1, 1, FALSE)` becomes
+     * `VLOOKUP(C1; A1:A1; 1; 0)`). Text inside string literals is left
+     * alone.
+     *
+     * @param formula
+     * @param sb The OpenFormula equivalent of `formula` is appended here.
+     */
+    static void toCalcFormula (CharSequence formula, StringBuilder sb) {
+        boolean quoted = false;
+        for (int i = 0, n = formula.length(); i < n; i++) {
+            char ch = formula.charAt(i);
+            if (ch == '"') {
+                quoted = !quoted;
+            } else if (!quoted && ch == ',') {
+                ch = ';';
+            } else if (!quoted && startsWith(formula, "FALSE", i) && !isNamePart(formula, i - 1) && !isNamePart(formula, i + 5) && !startsWith(formula, "(", i + 5)) {
+                sb.append('0');
+                i += 4;
+                continue;
+            }
+            sb.append(ch);
+        }
+    }
+
+    private static boolean startsWith (CharSequence s, String prefix, int i) {
+        if (i + prefix.length() > s.length()) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length(); j++) {
+            if (s.charAt(i + j) != prefix.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNamePart (CharSequence s, int i) {
+        return i >= 0 && i < s.length() && (Character.isLetterOrDigit(s.charAt(i)) || s.charAt(i) == '_' || s.charAt(i) == '.');
+    }
+
+}
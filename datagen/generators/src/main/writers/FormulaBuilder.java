@@ -0,0 +1,174 @@
+package writers;
+
+import java.util.Arrays;
+
+/**
+ * Builds the text of a formula in a reusable buffer so that layouts do
+ * not have to go through String.format (and CellReference) for every
+ * cell. Column letters come from a table that is computed once for all
+ * of Excel's columns and numbers are appended digit by digit. Writers
+ * copy the characters out of the builder, so once it has been passed to
+ * `setCellFormula` it may be reused for the next formula.
+ */
+public final class FormulaBuilder implements CharSequence {
+
+    /** Excel's last column is XFD */
+    private static final int        MAX_COLUMNS = 16384;
+    private static final char[][]   COLUMNS     = new char[MAX_COLUMNS][];
+
+    static {
+        for (int c = 0; c < MAX_COLUMNS; c++) {
+            COLUMNS[c] = FormulaBuilder.toColumnName(c).toCharArray();
+        }
+    }
+
+    private char[]  chars;
+    private int     length;
+
+    public FormulaBuilder () {
+        this.chars  = new char[64];
+        this.length = 0;
+    }
+
+    /**
+     * Empties the builder.
+     *
+     * @return This builder.
+     */
+    public FormulaBuilder clear () {
+        this.length = 0;
+        return this;
+    }
+
+    public FormulaBuilder append (char ch) {
+        this.ensureCapacity(1);
+        this.chars[this.length++] = ch;
+        return this;
+    }
+
+    public FormulaBuilder append (String s) {
+        int n = s.length();
+        this.ensureCapacity(n);
+        s.getChars(0, n, this.chars, this.length);
+        this.length += n;
+        return this;
+    }
+
+    /**
+     * Appends the decimal representation of `v`.
+     *
+     * @param v
+     * @return This builder.
+     */
+    public FormulaBuilder append (long v) {
+        if (v < 0) {
+            if (v == Long.MIN_VALUE) {
+                return this.append(Long.toString(v));
+            }
+            this.append('-');
+            v = -v;
+        }
+        int size = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            size++;
+        }
+        this.ensureCapacity(size);
+        for (int i = this.length + size - 1; i >= this.length; i--) {
+            this.chars[i] = (char) ('0' + (v % 10));
+            v /= 10;
+        }
+        this.length += size;
+        return this;
+    }
+
+    /**
+     * Appends `v` with six decimal places, the way "%f" formats it.
+     *
+     * @param v
+     * @return This builder.
+     */
+    public FormulaBuilder appendFixed (double v) {
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+            if (v == 0 && 1 / v < 0) {
+                this.append('-');
+            }
+            return this.append((long) v).append(".000000");
+        }
+        return this.append(String.format("%f", v));
+    }
+
+    /**
+     * Appends the letters of column `c` (e.g. 0 -> A, 27 -> AB).
+     *
+     * @param c
+     * @return This builder.
+     */
+    public FormulaBuilder appendColumn (int c) {
+        char[] name = c < MAX_COLUMNS ? COLUMNS[c] : FormulaBuilder.toColumnName(c).toCharArray();
+        this.ensureCapacity(name.length);
+        System.arraycopy(name, 0, this.chars, this.length, name.length);
+        this.length += name.length;
+        return this;
+    }
+
+    /**
+     * Appends an A1-style reference (e.g. column 1 and row 3 -> B3).
+     *
+     * @param c The index of the column, starting at 0.
+     * @param row The number of the row, starting at 1.
+     * @return This builder.
+     */
+    public FormulaBuilder appendCell (int c, int row) {
+        return this.appendColumn(c).append(row);
+    }
+
+    /**
+     * Copies the characters [`from`, `to`) into `dst`.
+     *
+     * @param from
+     * @param to
+     * @param dst
+     * @param at
+     */
+    public void getChars (int from, int to, char[] dst, int at) {
+        System.arraycopy(this.chars, from, dst, at, to - from);
+    }
+
+    @Override
+    public int length () {
+        return this.length;
+    }
+
+    @Override
+    public char charAt (int i) {
+        if (i >= this.length) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        return this.chars[i];
+    }
+
+    @Override
+    public CharSequence subSequence (int from, int to) {
+        return this.toString().substring(from, to);
+    }
+
+    @Override
+    public String toString () {
+        return new String(this.chars, 0, this.length);
+    }
+
+    private void ensureCapacity (int n) {
+        if (this.length + n > this.chars.length) {
+            this.chars = Arrays.copyOf(this.chars, Math.max(this.length + n, this.chars.length * 2));
+        }
+    }
+
+    private static String toColumnName (int c) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = c + 1; n > 0; n = (n - 1) / 26) {
+            sb.append((char) ('A' + (n - 1) % 26));
+        }
+        return sb.reverse().toString();
+    }
+
+}
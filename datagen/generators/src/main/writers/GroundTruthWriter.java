@@ -0,0 +1,233 @@
+package writers;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.File;
+
+/**
+ * Writes the evaluated results of a sheet (i.e. its value-only sheet) as
+ * a dense, row-major matrix with one entry per cell, so that verifiers
+ * can check the results of an engine without parsing a spreadsheet.
+ *
+ * The binary encoding is a 24-byte header followed by the matrix as
+ * little-endian doubles, which keeps the matrix 8-byte aligned for
+ * memory-mapping (e.g. with numpy.memmap at offset 24). The header is:
+ *
+ *      0   4 bytes   The magic number "SMGT"
+ *      4   int32     The version of the encoding (1)
+ *      8   int64     The number of rows
+ *      16  int64     The number of columns
+ *
+ * Cells that are empty are NaN. Cells that hold an error (e.g. #N/A)
+ * are NaN as well, but with bit 32 set and the code that Excel's binary
+ * formats use for the error in the lowest byte (0x2A for #N/A), so they
+ * can be told apart by their bits. Text, which no layout produces, is
+ * stored like an empty cell.
+ *
+ * The text encodings hold one line per row and one field per column.
+ * Empty cells are empty fields and errors are written as they are
+ * displayed (e.g. #N/A).
+ */
+public class GroundTruthWriter implements ChunkableSheetWriter, RepeatableSheetWriter {
+
+    public enum Encoding {
+
+        BIN ('\0'   ),
+        CSV (','    ),
+        TSV ('\t'   );
+
+        public final String     extension;
+        private final char      separator;
+
+        private Encoding (char separator) {
+            this.extension  = this.name().toLowerCase();
+            this.separator  = separator;
+        }
+
+    }
+
+    public static final int     HEADER_SIZE = 24;
+    public static final int     VERSION     = 1;
+
+    /** The bits of empty cells (the canonical NaN) */
+    public static final long    EMPTY       = 0x7FF8000000000000L;
+
+    /** The bits of error cells, without the code of the error */
+    public static final long    ERROR       = 0x7FF8000100000000L;
+
+    private static final byte[] MAGIC       = { 'S', 'M', 'G', 'T' };
+
+    private final FileOutputStream  file;
+    private final XmlOutput         out;
+    private final RowStream         rows;
+    private final Encoding          encoding;
+    private final int               cols;
+
+    /**
+     * @param name The name of the file to create.
+     * @param encoding
+     * @param rows The number of rows in the sheet.
+     * @param cols The number of columns in the sheet.
+     * @throws IOException
+     */
+    public GroundTruthWriter (String name, Encoding encoding, int rows, int cols) throws IOException {
+        this.encoding   = encoding;
+        this.cols       = cols;
+        this.file       = new FileOutputStream(name);
+        this.out        = new XmlOutput(this.file);
+        this.rows       = new RowStream(this.createRows(), this.out, rows);
+        if (encoding == Encoding.BIN) {
+            byte[] header = new byte[HEADER_SIZE];
+            System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+            GroundTruthWriter.putInt(header, 4, VERSION);
+            GroundTruthWriter.putLong(header, 8, rows);
+            GroundTruthWriter.putLong(header, 16, cols);
+            this.out.writeBytes(header, 0, HEADER_SIZE);
+        }
+    }
+
+    @Override
+    public RowWriter createRow (int r) throws IOException {
+        return this.rows.createRow(r);
+    }
+
+    @Override
+    public RowWriter createProbe (int r) throws IOException {
+        return this.rows.createProbe(r);
+    }
+
+    @Override
+    public void repeatRow (int to) throws IOException {
+        this.rows.repeatRow(to);
+    }
+
+    @Override
+    public SheetWriter createChunk (int from, int to, File file) throws IOException {
+        return RowStream.chunk(this.createRows(), from, to, file);
+    }
+
+    @Override
+    public void appendChunk (int from, int to, File file) throws IOException {
+        this.rows.append(from, to, file);
+    }
+
+    @Override
+    public void close () throws IOException {
+        try {
+            this.rows.close();
+        } finally {
+            this.file.close();
+        }
+    }
+
+    /**
+     * @param code The code of an error in Excel's binary formats (see
+     * XlsbSheetWriter).
+     * @return The bits that the binary encoding stores for the error.
+     */
+    public static long errorBits (int code) {
+        return ERROR | code;
+    }
+
+    private RowSerializer createRows () {
+        return this.encoding == Encoding.BIN ? new BinaryRows() : new TextRows();
+    }
+
+    private static void putInt (byte[] b, int pos, int v) {
+        for (int i = 0; i < 4; i++) {
+            b[pos + i] = (byte) (v >>> (8 * i));
+        }
+    }
+
+    private static void putLong (byte[] b, int pos, long v) {
+        for (int i = 0; i < 8; i++) {
+            b[pos + i] = (byte) (v >>> (8 * i));
+        }
+    }
+
+    private void checkWidth (RowBuffer row) {
+        if (row.width() > this.cols) {
+            throw new IllegalArgumentException("Row " + row.row() + " has " + row.width() + " cells, which is more than the " + this.cols + " columns of the ground truth.");
+        }
+    }
+
+    private class BinaryRows implements RowSerializer {
+
+        private final byte[] buf = new byte[8 * GroundTruthWriter.this.cols];
+
+        @Override
+        public void writeRow (XmlOutput out, RowBuffer row) throws IOException {
+            GroundTruthWriter.this.checkWidth(row);
+            for (int c = 0; c < GroundTruthWriter.this.cols; c++) {
+                long bits = EMPTY;
+                if (c < row.width()) {
+                    switch (row.type(c)) {
+                        case RowBuffer.NUMBER:
+                            bits = Double.doubleToRawLongBits(row.number(c));
+                            break;
+                        case RowBuffer.STRING:
+                            if (row.text(c).startsWith("#")) {
+                                bits = GroundTruthWriter.errorBits(XlsbSheetWriter.errorCode(row.text(c)));
+                            }
+                            break;
+                    }
+                }
+                GroundTruthWriter.putLong(this.buf, 8 * c, bits);
+            }
+            out.writeBytes(this.buf, 0, this.buf.length);
+        }
+
+        @Override
+        public boolean isStateless () {
+            return true;
+        }
+
+        @Override
+        public void writeSkippedRows (XmlOutput out, int count) throws IOException {
+            for (int c = 0; c < GroundTruthWriter.this.cols; c++) {
+                GroundTruthWriter.putLong(this.buf, 8 * c, EMPTY);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeBytes(this.buf, 0, this.buf.length);
+            }
+        }
+
+    }
+
+    private class TextRows implements RowSerializer {
+
+        @Override
+        public void writeRow (XmlOutput out, RowBuffer row) throws IOException {
+            GroundTruthWriter.this.checkWidth(row);
+            for (int c = 0; c < GroundTruthWriter.this.cols; c++) {
+                if (c > 0) {
+                    out.write(GroundTruthWriter.this.encoding.separator);
+                }
+                if (c < row.width()) {
+                    switch (row.type(c)) {
+                        case RowBuffer.NUMBER   : out.write(row.number(c)); break;
+                        case RowBuffer.STRING   : out.write(row.text(c));   break;
+                    }
+                }
+            }
+            out.write('\n');
+        }
+
+        @Override
+        public boolean isStateless () {
+            return true;
+        }
+
+        @Override
+        public void writeSkippedRows (XmlOutput out, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                for (int c = 1; c < GroundTruthWriter.this.cols; c++) {
+                    out.write(GroundTruthWriter.this.encoding.separator);
+                }
+                out.write('\n');
+            }
+        }
+
+    }
+
+}
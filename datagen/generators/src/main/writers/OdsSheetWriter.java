@@ -0,0 +1,321 @@
+package writers;
+
+import java.nio.charset.StandardCharsets;
+import java.io.FileOutputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.io.File;
+
+/**
+ * Writes an .ods file by streaming `content.xml` straight into the final
+ * archive as rows are created. Only the current row is held in memory,
+ * so heap usage does not depend on the number of rows. The styles and
+ * the cell markup are the same as what fastods produces; the empty
+ * `Configurations2` folders and `settings.xml` (view settings only) are
+ * left out. The same markup may also be written as a flat .fods file,
+ * which is plain XML and skips compression altogether. Unlike fastods,
+ * runs of identical rows and cells are written once with a repeat count
+ * (see WriterOptions.withRepeatCompression), which collapses unseeded
+ * sheets and the constant regions of special sums.
+ */
+public class OdsSheetWriter implements ChunkableSheetWriter, RepeatableSheetWriter {
+
+    private static final String MIMETYPE = "application/vnd.oasis.opendocument.spreadsheet";
+
+    private static final String MANIFEST =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<manifest:manifest xmlns:manifest=\"urn:oasis:names:tc:opendocument:xmlns:manifest:1.0\" manifest:version=\"1.2\">"
+        + "<manifest:file-entry manifest:full-path=\"/\" manifest:media-type=\"application/vnd.oasis.opendocument.spreadsheet\" manifest:version=\"1.2\"/>"
+        + "<manifest:file-entry manifest:full-path=\"content.xml\" manifest:media-type=\"text/xml\"/>"
+        + "<manifest:file-entry manifest:full-path=\"meta.xml\" manifest:media-type=\"text/xml\"/>"
+        + "<manifest:file-entry manifest:full-path=\"styles.xml\" manifest:media-type=\"text/xml\"/>"
+        + "</manifest:manifest>";
+
+    private static final String FONT_FACES =
+        "<office:font-face-decls><style:font-face style:name=\"Liberation Sans\" svg:font-family=\"Liberation Sans\"/></office:font-face-decls>";
+
+    private static final String COMMON_STYLES =
+        "<office:styles><style:style style:name=\"Default\" style:family=\"table-cell\"><style:table-cell-properties style:vertical-align=\"top\"/><style:text-properties style:font-name=\"Liberation Sans\"/><style:paragraph-properties fo:margin=\"0cm\"/></style:style>"
+        + "<style:style style:name=\"Header\" style:family=\"paragraph\" style:parent-style-name=\"Standard\" style:class=\"extra\"><style:paragraph-properties text:number-lines=\"false\" text:line-number=\"0\"/></style:style>"
+        + "<style:style style:name=\"Footer\" style:family=\"paragraph\" style:parent-style-name=\"Standard\" style:class=\"extra\"><style:paragraph-properties text:number-lines=\"false\" text:line-number=\"0\"/></style:style></office:styles>";
+
+    /** The automatic styles of `styles.xml` */
+    private static final String PAGE_STYLES =
+        "<style:style style:name=\"none\" style:family=\"text\"><style:text-properties/></style:style>"
+        + "<style:page-layout style:name=\"Default\"><style:page-layout-properties fo:page-width=\"21cm\" fo:page-height=\"29.7cm\" style:num-format=\"1\" style:writing-mode=\"lr-tb\" style:print-orientation=\"portrait\" fo:margin=\"1.5cm\"/>"
+        + "<style:header-style><style:header-footer-properties fo:min-height=\"0cm\" fo:margin=\"0cm\"/></style:header-style><style:footer-style><style:header-footer-properties fo:min-height=\"0cm\" fo:margin=\"0cm\"/></style:footer-style></style:page-layout>";
+
+    private static final String MASTER_STYLES =
+        "<office:master-styles><style:master-page style:name=\"Default\" style:page-layout-name=\"Default\"><style:header><text:p><text:span text:style-name=\"none\"></text:span></text:p></style:header><style:header-left style:display=\"false\"/>"
+        + "<style:footer><text:p><text:span text:style-name=\"none\"></text:span></text:p></style:footer><style:footer-left style:display=\"false\"/></style:master-page></office:master-styles>";
+
+    /** The automatic styles of `content.xml` */
+    private static final String TABLE_STYLES =
+        "<number:number-style style:name=\"float-data\" number:language=\"en\" number:country=\"US\" style:volatile=\"true\"><number:number number:decimal-places=\"2\" number:min-integer-digits=\"1\"/></number:number-style>"
+        + "<style:style style:name=\"ta1\" style:family=\"table\" style:master-page-name=\"Default\"><style:table-properties table:display=\"true\" style:writing-mode=\"lr-tb\"/></style:style>"
+        + "<style:style style:name=\"Default-_-float-data\" style:family=\"table-cell\" style:parent-style-name=\"Default\" style:data-style-name=\"float-data\"><style:paragraph-properties fo:text-align=\"end\"/></style:style>"
+        + "<style:style style:name=\"ro1\" style:family=\"table-row\"><style:table-row-properties style:row-height=\"0.45cm\" fo:break-before=\"auto\"/></style:style>"
+        + "<style:style style:name=\"co1\" style:family=\"table-column\"><style:table-column-properties fo:break-before=\"auto\" style:column-width=\"2.5cm\"/></style:style>";
+
+    private static final String BODY_HEAD =
+        "<office:body><office:spreadsheet><table:table table:name=\"Sheet1\" table:style-name=\"ta1\" table:print=\"false\">"
+        + "<table:table-column table:style-name=\"co1\" table:number-columns-repeated=\"1024\" table:default-cell-style-name=\"Default\"/>";
+
+    private static final String BODY_TAIL =
+        "</table:table></office:spreadsheet></office:body>";
+
+    private static final String META =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<office:document-meta xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\" xmlns:ooo=\"http://openoffice.org/2004/office\" xmlns:meta=\"urn:oasis:names:tc:opendocument:xmlns:meta:1.0\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" office:version=\"1.2\">"
+        + "<office:meta><dc:date>%s</dc:date><dc:language>en</dc:language><meta:editing-cycles>1</meta:editing-cycles></office:meta></office:document-meta>";
+
+    private static final String STYLES =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<office:document-styles xmlns:fo=\"urn:oasis:names:tc:opendocument:xmlns:xsl-fo-compatible:1.0\" xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\" xmlns:text=\"urn:oasis:names:tc:opendocument:xmlns:text:1.0\" xmlns:style=\"urn:oasis:names:tc:opendocument:xmlns:style:1.0\" xmlns:svg=\"urn:oasis:names:tc:opendocument:xmlns:svg-compatible:1.0\" xmlns:table=\"urn:oasis:names:tc:opendocument:xmlns:table:1.0\" office:version=\"1.2\">"
+        + FONT_FACES + COMMON_STYLES + "<office:automatic-styles>" + PAGE_STYLES + "</office:automatic-styles>" + MASTER_STYLES + "</office:document-styles>";
+
+    private static final String CONTENT_HEAD =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<office:document-content xmlns:fo=\"urn:oasis:names:tc:opendocument:xmlns:xsl-fo-compatible:1.0\" xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\" xmlns:number=\"urn:oasis:names:tc:opendocument:xmlns:datastyle:1.0\" xmlns:of=\"urn:oasis:names:tc:opendocument:xmlns:of:1.2\" xmlns:style=\"urn:oasis:names:tc:opendocument:xmlns:style:1.0\" xmlns:text=\"urn:oasis:names:tc:opendocument:xmlns:text:1.0\" xmlns:svg=\"urn:oasis:names:tc:opendocument:xmlns:svg-compatible:1.0\" xmlns:table=\"urn:oasis:names:tc:opendocument:xmlns:table:1.0\" office:version=\"1.2\">"
+        + FONT_FACES + "<office:automatic-styles>" + TABLE_STYLES + "</office:automatic-styles>" + BODY_HEAD;
+
+    private static final String CONTENT_TAIL =
+        BODY_TAIL + "</office:document-content>";
+
+    /**
+     * A flat document holds the parts of an .ods archive in a single
+     * `office:document` element, in the order meta, styles and content.
+     */
+    private static final String FLAT_HEAD =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<office:document xmlns:fo=\"urn:oasis:names:tc:opendocument:xmlns:xsl-fo-compatible:1.0\" xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\" xmlns:meta=\"urn:oasis:names:tc:opendocument:xmlns:meta:1.0\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:number=\"urn:oasis:names:tc:opendocument:xmlns:datastyle:1.0\" xmlns:of=\"urn:oasis:names:tc:opendocument:xmlns:of:1.2\" xmlns:style=\"urn:oasis:names:tc:opendocument:xmlns:style:1.0\" xmlns:text=\"urn:oasis:names:tc:opendocument:xmlns:text:1.0\" xmlns:svg=\"urn:oasis:names:tc:opendocument:xmlns:svg-compatible:1.0\" xmlns:table=\"urn:oasis:names:tc:opendocument:xmlns:table:1.0\" office:version=\"1.2\" office:mimetype=\"" + MIMETYPE + "\">"
+        + "<office:meta><dc:date>%s</dc:date><dc:language>en</dc:language><meta:editing-cycles>1</meta:editing-cycles></office:meta>"
+        + FONT_FACES + COMMON_STYLES + "<office:automatic-styles>" + PAGE_STYLES + TABLE_STYLES + "</office:automatic-styles>" + MASTER_STYLES + BODY_HEAD;
+
+    private static final String FLAT_TAIL =
+        BODY_TAIL + "</office:document>";
+
+    private final ZipWriter         zip;
+    private final boolean           repeat;
+    private final OutputStream      content;
+    private final XmlOutput         out;
+    private final RowStream         rows;
+
+    /**
+     * @param name The name of the file to create.
+     * @param options Whether runs of identical rows and cells are
+     * collapsed, and the settings of the archive.
+     * @throws IOException
+     */
+    public OdsSheetWriter (String name, WriterOptions options) throws IOException {
+        this(name, false, options);
+    }
+
+    /**
+     * @param name The name of the file to create.
+     * @param flat If true, the file is written as an uncompressed flat
+     * XML document (.fods) instead of a zip archive.
+     * @param options
+     * @throws IOException
+     */
+    public OdsSheetWriter (String name, boolean flat, WriterOptions options) throws IOException {
+        LocalDateTime   now     = LocalDateTime.ofInstant(XlsxSheetWriter.DOCUMENT_TIME, ZoneOffset.UTC);
+        OutputStream    file    = flat ? new FileOutputStream(name) : null;
+        this.zip    = flat ? null : new ZipWriter(name, now, options);
+        this.repeat = options.isRepeatCompression();
+        try {
+            if (flat) {
+                this.content    = file;
+                this.out        = new XmlOutput(this.content);
+                this.out.write(String.format(FLAT_HEAD, now));
+            } else {
+                this.zip.writeEntry("mimetype", MIMETYPE.getBytes(StandardCharsets.US_ASCII), false);
+                this.writeEntry("META-INF/manifest.xml" , MANIFEST);
+                this.writeEntry("meta.xml"              , String.format(META, now));
+                this.writeEntry("styles.xml"            , STYLES);
+                this.content    = this.zip.openEntry("content.xml");
+                this.out        = new XmlOutput(this.content);
+                this.out.write(CONTENT_HEAD);
+            }
+            this.rows = new RowStream(new Rows(this.repeat), this.out);
+        } catch (IOException | RuntimeException e) {
+            if (this.zip != null) {
+                this.zip.abort();
+            } else {
+                try {
+                    file.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public RowWriter createRow (int r) throws IOException {
+        return this.rows.createRow(r);
+    }
+
+    @Override
+    public RowWriter createProbe (int r) throws IOException {
+        return this.rows.createProbe(r);
+    }
+
+    @Override
+    public void repeatRow (int to) throws IOException {
+        this.rows.repeatRow(to);
+    }
+
+    @Override
+    public SheetWriter createChunk (int from, int to, File file) throws IOException {
+        return RowStream.chunk(new Rows(this.repeat), from, to, file);
+    }
+
+    @Override
+    public void appendChunk (int from, int to, File file) throws IOException {
+        this.rows.append(from, to, file);
+    }
+
+    @Override
+    public void close () throws IOException {
+        try {
+            this.rows.flush();
+            this.out.write(this.zip == null ? FLAT_TAIL : CONTENT_TAIL);
+            this.out.close();
+            this.content.close();
+        } finally {
+            if (this.zip != null) {
+                this.zip.close();
+            } else {
+                this.content.close();
+            }
+        }
+    }
+
+    private void writeEntry (String name, String content) throws IOException {
+        this.zip.writeEntry(name, content.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    private static class Rows implements RowSerializer {
+
+        private final RowBuffer last;
+        private int             repeated;
+
+        /**
+         * @param repeat True to collapse runs of identical rows and cells.
+         */
+        Rows (boolean repeat) {
+            this.last       = repeat ? new RowBuffer() : null;
+            this.repeated   = 0;
+        }
+
+        @Override
+        public void writeRow (XmlOutput out, RowBuffer row) throws IOException {
+            if (this.last == null) {
+                this.writeRow(out, row, 1);
+                return;
+            }
+            if (this.repeated > 0 && this.last.row() + this.repeated == row.row() && this.last.contentEquals(row)) {
+                this.repeated++;
+                return;
+            }
+            this.flush(out);
+            this.last.reset(row.row());
+            row.writeTo(this.last);
+            this.repeated = 1;
+        }
+
+        /**
+         * Writes the run of identical rows that is held back, if any.
+         */
+        @Override
+        public void flush (XmlOutput out) throws IOException {
+            if (this.repeated > 0) {
+                this.writeRow(out, this.last, this.repeated);
+                this.repeated = 0;
+            }
+        }
+
+        /**
+         * Runs of identical rows are held back.
+         */
+        @Override
+        public boolean isStateless () {
+            return this.last == null;
+        }
+
+        @Override
+        public void writeSkippedRows (XmlOutput out, int count) throws IOException {
+            this.flush(out);
+            out.write("<table:table-row table:style-name=\"ro1\" table:number-rows-repeated=\"");
+            out.write(count);
+            out.write("\"><table:table-cell/></table:table-row>");
+        }
+
+        private void writeRow (XmlOutput out, RowBuffer row, int count) throws IOException {
+            if (count > 1) {
+                out.write("<table:table-row table:style-name=\"ro1\" table:number-rows-repeated=\"");
+                out.write(count);
+                out.write("\">");
+            } else {
+                out.write("<table:table-row table:style-name=\"ro1\">");
+            }
+            for (int c = 0, width = row.width(), e; c < width; c = e) {
+                e = c + 1;
+                if (this.last != null) {
+                    while (e < width && row.cellEquals(c, row, e)) {
+                        e++;
+                    }
+                }
+                out.write("<table:table-cell");
+                if (e - c > 1) {
+                    out.write(" table:number-columns-repeated=\"");
+                    out.write(e - c);
+                    out.write('"');
+                }
+                switch (row.type(c)) {
+                    case RowBuffer.NUMBER:
+                        out.write(" table:style-name=\"Default-_-float-data\" office:value-type=\"float\" office:value=\"");
+                        out.write(row.number(c));
+                        out.write("\"/>");
+                        break;
+                    case RowBuffer.FORMULA:
+                        this.writeFormula(out, row, c);
+                        break;
+                    case RowBuffer.STRING:
+                        out.write(" table:style-name=\"Default\" office:value-type=\"string\" office:string-value=\"");
+                        out.writeEscaped(row.text(c));
+                        out.write("\"/>");
+                        break;
+                    default:
+                        out.write("/>");
+                }
+            }
+            out.write("</table:table-row>");
+        }
+
+        private void writeFormula (XmlOutput out, RowBuffer row, int c) throws IOException {
+            switch (row.result(c)) {
+                case RowBuffer.NUMBER:
+                    out.write(" table:style-name=\"Default-_-float-data\" office:value-type=\"float\" office:value=\"");
+                    out.write(row.number(c));
+                    out.write("\" table:formula=\"of:=");
+                    break;
+                case RowBuffer.STRING:
+                    out.write(" table:style-name=\"Default\" office:value-type=\"string\" office:string-value=\"");
+                    out.writeEscaped(row.text(c));
+                    out.write("\" table:formula=\"of:=");
+                    break;
+                default:
+                    out.write(" table:style-name=\"Default\" table:formula=\"of:=");
+            }
+            out.writeEscaped(row.formula(c));
+            out.write("\"/>");
+        }
+
+    }
+
+}
@@ -0,0 +1,169 @@
+package writers;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import utils.SimpleThreadPoolExecutor;
+
+/**
+ * Compresses its input into a single raw DEFLATE stream on several
+ * threads, the same way pigz does. The input is cut into blocks that are
+ * compressed independently, each one primed with the last 32 KiB of the
+ * block before it so that matches across block boundaries are not lost.
+ * Every block but the last ends with a sync flush, which aligns it to a
+ * byte boundary, so the blocks can simply be concatenated in order.
+ * Closing this stream finishes it but does NOT close `out`. The threads
+ * are stopped once it is finished or aborted, one of which must happen.
+ */
+class ParallelDeflaterOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE         = 1 << 17;
+    private static final int DICTIONARY_SIZE    = 1 << 15;
+
+    private final OutputStream              out;
+    private final int                       level;
+    private final int                       maxPending;
+    private final ExecutorService           exc;
+    private final Deque<Future<byte[]>>     pending;
+    private byte[]                          dictionary;
+    private byte[]                          block;
+    private int                             size;
+    private boolean                         finished;
+
+    /**
+     * @param out
+     * @param level A Deflater compression level.
+     * @param threads
+     */
+    ParallelDeflaterOutputStream (OutputStream out, int level, int threads) {
+        this.out        = out;
+        this.level      = level;
+        this.maxPending = threads * 2;
+        this.exc        = SimpleThreadPoolExecutor.getNewExecutor(threads);
+        this.pending    = new ArrayDeque<>();
+        this.dictionary = null;
+        this.block      = new byte[BLOCK_SIZE];
+        this.size       = 0;
+        this.finished   = false;
+    }
+
+    @Override
+    public void write (int b) throws IOException {
+        if (this.size == BLOCK_SIZE) {
+            this.submit(false);
+        }
+        this.block[this.size++] = (byte) b;
+    }
+
+    @Override
+    public void write (byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (this.size == BLOCK_SIZE) {
+                this.submit(false);
+            }
+            int n = Math.min(len, BLOCK_SIZE - this.size);
+            System.arraycopy(b, off, this.block, this.size, n);
+            this.size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compresses the remaining input and writes everything that is still
+     * pending. Must be called exactly once, after the last write.
+     *
+     * @throws IOException
+     */
+    void finish () throws IOException {
+        if (this.finished) {
+            return;
+        }
+        this.finished = true;
+        try {
+            this.submit(true);
+            while (!this.pending.isEmpty()) {
+                this.writeNext();
+            }
+        } finally {
+            this.exc.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops the threads without writing anything more, e.g. after a write
+     * to `out` failed.
+     */
+    void abort () {
+        this.finished = true;
+        this.pending.clear();
+        this.exc.shutdownNow();
+    }
+
+    @Override
+    public void close () throws IOException {
+        this.finish();
+    }
+
+    private void submit (boolean last) throws IOException {
+        byte[]  input       = this.block;
+        int     length      = this.size;
+        byte[]  dictionary  = this.dictionary;
+        int     level       = this.level;
+        this.dictionary = Arrays.copyOfRange(input, Math.max(0, length - DICTIONARY_SIZE), length);
+        this.pending.add(this.exc.submit(() -> ParallelDeflaterOutputStream.compress(input, length, dictionary, level, last)));
+        this.block      = new byte[BLOCK_SIZE];
+        this.size       = 0;
+        while (this.pending.size() > this.maxPending) {
+            this.writeNext();
+        }
+    }
+
+    private void writeNext () throws IOException {
+        try {
+            this.out.write(this.pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+    }
+
+    private static byte[] compress (byte[] input, int length, byte[] dictionary, int level, boolean last) {
+        Deflater                deflater    = new Deflater(level, true);
+        ByteArrayOutputStream   compressed  = new ByteArrayOutputStream(length / 4 + 64);
+        byte[]                  buf         = new byte[1 << 16];
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, length);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buf, 0, deflater.deflate(buf));
+                }
+            } else {
+                // A full buffer means the flush may not be complete yet
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+}
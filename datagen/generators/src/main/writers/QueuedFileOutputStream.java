@@ -0,0 +1,165 @@
+package writers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.BlockingQueue;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+
+import utils.SimpleThreadPoolExecutor;
+
+/**
+ * Writes to a file on a thread of its own (see
+ * SimpleThreadPoolExecutor.startIoThread), so the thread that produces
+ * the bytes does not wait for the disk. Bytes are collected into blocks
+ * that are handed over through a queue of at most `blocks` blocks; once
+ * it is full, writes wait until the disk has caught up. `flush` returns
+ * once everything written so far is in the file. Closing this stream
+ * stops its thread but does NOT close the file.
+ */
+class QueuedFileOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final FileOutputStream          file;
+    private final BlockingQueue<Block>      full;
+    private final BlockingQueue<Block>      free;
+    private final Thread                    writer;
+    private volatile IOException            error;
+    private Block                           block;
+    private boolean                         closed;
+
+    /**
+     * @param file
+     * @param blocks The number of blocks that may wait for the disk.
+     */
+    QueuedFileOutputStream (FileOutputStream file, int blocks) {
+        this.file   = file;
+        this.full   = new ArrayBlockingQueue<>(blocks);
+        this.free   = new ArrayBlockingQueue<>(blocks + 1);
+        this.block  = new Block(new byte[BLOCK_SIZE], null);
+        this.closed = false;
+        this.writer = SimpleThreadPoolExecutor.startIoThread("disk-writer", this::drain);
+    }
+
+    @Override
+    public void write (int b) throws IOException {
+        if (this.block.size == BLOCK_SIZE) {
+            this.submit();
+        }
+        this.block.data[this.block.size++] = (byte) b;
+    }
+
+    @Override
+    public void write (byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (this.block.size == BLOCK_SIZE) {
+                this.submit();
+            }
+            int n = Math.min(len, BLOCK_SIZE - this.block.size);
+            System.arraycopy(b, off, this.block.data, this.block.size, n);
+            this.block.size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush () throws IOException {
+        if (this.block.size > 0) {
+            this.submit();
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        this.put(new Block(null, done));
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        this.checkError();
+    }
+
+    @Override
+    public void close () throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.flush();
+        } finally {
+            this.writer.interrupt();
+        }
+    }
+
+    private void submit () throws IOException {
+        Block next = this.free.poll();
+        this.put(this.block);
+        this.block = next != null ? next : new Block(new byte[BLOCK_SIZE], null);
+    }
+
+    private void put (Block block) throws IOException {
+        this.checkError();
+        try {
+            this.full.put(block);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private void checkError () throws IOException {
+        if (this.error != null) {
+            throw new IOException("Failed to write to disk", this.error);
+        }
+    }
+
+    /**
+     * Writes blocks until the stream is closed. After a failure, blocks
+     * are dropped so that writers never wait on a full queue; the failure
+     * is thrown by their next write.
+     */
+    private void drain () {
+        try {
+            while (true) {
+                Block block = this.full.take();
+                if (block.done != null) {
+                    block.done.countDown();
+                    continue;
+                }
+                if (this.error == null) {
+                    try {
+                        this.file.write(block.data, 0, block.size);
+                    } catch (IOException e) {
+                        this.error = e;
+                    }
+                }
+                block.size = 0;
+                this.free.offer(block);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * A block of bytes, or a marker that is counted down once every
+     * block before it has been written.
+     */
+    private static class Block {
+
+        private final byte[]            data;
+        private final CountDownLatch    done;
+        private int                     size;
+
+        Block (byte[] data, CountDownLatch done) {
+            this.data   = data;
+            this.done   = done;
+            this.size   = 0;
+        }
+
+    }
+
+}
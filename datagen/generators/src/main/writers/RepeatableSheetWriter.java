@@ -0,0 +1,36 @@
+package writers;
+
+import java.io.IOException;
+
+/**
+ * A sheet writer that can stamp out copies of a row that only differ in
+ * the number of the row, where it appears in references (the rows of a
+ * creator.UniformRowCreator), without having each copy created. Where
+ * the number appears is found by comparing the row with a probe: the
+ * same row created for another number with the same count of digits,
+ * which is not written (see RowTemplate).
+ */
+public interface RepeatableSheetWriter extends SheetWriter {
+
+    /**
+     * Starts a probe for the row that was created last. The probe must be
+     * complete before `repeatRow` is called.
+     *
+     * @param r A row whose number has as many digits as that of the last
+     * row, but a different digit at every place.
+     * @return The writer for the probe.
+     * @throws IOException
+     */
+    public RowWriter createProbe (int r) throws IOException;
+
+    /**
+     * Writes the row that was created last and copies of it up to row `to`
+     * (exclusive), as told apart by the last probe. Row `to` - 1 must
+     * have as many digits as the row that was created last.
+     *
+     * @param to
+     * @throws IOException
+     */
+    public void repeatRow (int to) throws IOException;
+
+}
@@ -0,0 +1,320 @@
+package writers;
+
+import java.util.Arrays;
+
+/**
+ * Holds the cells of a single row until the row is complete. Layouts
+ * do not set cells in column order (e.g. value column `c` is followed
+ * by formula column `c + cols`), but both SpreadsheetML and ODF need
+ * a row's cells in ascending column order, so streaming writers
+ * collect a row here and serialize it once the next row is created.
+ * The text of formulas is copied into a single character buffer that
+ * is reused from row to row, so buffering a formula allocates nothing.
+ * A formula may come with a cached result, which is kept in the same
+ * slots as the values of NUMBER and STRING cells.
+ */
+class RowBuffer implements RowWriter {
+
+    static final byte EMPTY     = 0;
+    static final byte NUMBER    = 1;
+    static final byte STRING    = 2;
+    static final byte FORMULA   = 3;
+
+    private byte[]      types   = new byte[16];
+    private byte[]      results = new byte[16];
+    private double[]    numbers = new double[16];
+    private String[]    texts   = new String[16];
+    private int[]       starts  = new int[16];
+    private int[]       ends    = new int[16];
+    private char[]      chars   = new char[256];
+    private int         used    = 0;
+    private int         row     = -1;
+    private int         width   = 0;
+    private final Chars view    = new Chars();
+
+    /**
+     * Clears the buffer so that it may be reused for row `r`.
+     *
+     * @param r
+     */
+    void reset (int r) {
+        Arrays.fill(this.types, 0, this.width, EMPTY);
+        Arrays.fill(this.results, 0, this.width, EMPTY);
+        Arrays.fill(this.texts, 0, this.width, null);
+        this.row   = r;
+        this.width = 0;
+        this.used  = 0;
+    }
+
+    /**
+     * @return The index of the buffered row, or -1 if no row has been started.
+     */
+    int row () {
+        return this.row;
+    }
+
+    /**
+     * @return One more than the index of the right-most cell that was set.
+     */
+    int width () {
+        return this.width;
+    }
+
+    byte type (int c) {
+        return this.types[c];
+    }
+
+    /**
+     * @param c
+     * @return The type of the cached result of the formula in cell `c`
+     * (NUMBER or STRING, read with `number` or `text`), or EMPTY if it
+     * has none.
+     */
+    byte result (int c) {
+        return this.results[c];
+    }
+
+    double number (int c) {
+        return this.numbers[c];
+    }
+
+    String text (int c) {
+        return this.texts[c];
+    }
+
+    /**
+     * @param c
+     * @return The text of the formula in cell `c`. The returned object is
+     * reused by the next call, so it must not be kept.
+     */
+    CharSequence formula (int c) {
+        return this.view.of(this.starts[c], this.ends[c]);
+    }
+
+    /**
+     * @param c
+     * @param other
+     * @param d
+     * @return True if cell `c` of this row holds the same content as cell
+     * `d` of `other`, including the cached result of a formula.
+     */
+    boolean cellEquals (int c, RowBuffer other, int d) {
+        byte type = this.types[c];
+        if (type != other.types[d] || this.results[c] != other.results[d]) {
+            return false;
+        }
+        if (type == FORMULA && !Arrays.equals(this.chars, this.starts[c], this.ends[c], other.chars, other.starts[d], other.ends[d])) {
+            return false;
+        }
+        return this.valueEquals(c, other, d);
+    }
+
+    /**
+     * @param other
+     * @return True if every cell of this row holds the same content as
+     * the same cell of `other`.
+     */
+    boolean contentEquals (RowBuffer other) {
+        if (this.width != other.width) {
+            return false;
+        }
+        for (int c = 0; c < this.width; c++) {
+            if (!this.cellEquals(c, other, c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param other
+     * @return True if every cell of this row holds the same content as
+     * the same cell of `other`, except that the characters of their
+     * formulas may differ. The formulas must be as long and be stored at
+     * the same positions (see `formulaChar`).
+     */
+    boolean shapeEquals (RowBuffer other) {
+        if (this.width != other.width || this.used != other.used) {
+            return false;
+        }
+        for (int c = 0; c < this.width; c++) {
+            byte type = this.types[c];
+            if (type != other.types[c] || this.results[c] != other.results[c]) {
+                return false;
+            }
+            if (type == FORMULA && (this.starts[c] != other.starts[c] || this.ends[c] != other.ends[c])) {
+                return false;
+            }
+            if (!this.valueEquals(c, other, c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of characters that the text of the formulas of
+     * this row takes up, one after the other.
+     */
+    int formulaChars () {
+        return this.used;
+    }
+
+    /**
+     * @param i
+     * @return Character `i` of the text of the formulas of this row.
+     */
+    char formulaChar (int i) {
+        return this.chars[i];
+    }
+
+    void setFormulaChar (int i, char ch) {
+        this.chars[i] = ch;
+    }
+
+    /**
+     * Changes the index of the buffered row without clearing its cells.
+     *
+     * @param r
+     */
+    void moveTo (int r) {
+        this.row = r;
+    }
+
+    /**
+     * Copies the buffered cells into `out` in ascending column order.
+     *
+     * @param out
+     */
+    void writeTo (RowWriter out) {
+        for (int c = 0; c < this.width; c++) {
+            switch (this.types[c]) {
+                case NUMBER     : out.setCellValue(c, this.numbers[c]);    break;
+                case STRING     : out.setCellValue(c, this.texts[c]);      break;
+                case FORMULA    : this.writeFormulaTo(out, c);             break;
+            }
+        }
+    }
+
+    @Override
+    public void setCellValue (int c, double value) {
+        this.ensureCapacity(c);
+        this.types[c]   = NUMBER;
+        this.numbers[c] = value;
+        this.texts[c]   = null;
+    }
+
+    @Override
+    public void setCellValue (int c, String value) {
+        this.ensureCapacity(c);
+        this.types[c] = STRING;
+        this.texts[c] = value;
+    }
+
+    @Override
+    public void setCellFormula (int c, CharSequence formula, double result) {
+        this.setCellFormula(c, formula);
+        this.results[c] = NUMBER;
+        this.numbers[c] = result;
+    }
+
+    @Override
+    public void setCellFormula (int c, CharSequence formula, String result) {
+        this.setCellFormula(c, formula);
+        this.results[c] = STRING;
+        this.texts[c]   = result;
+    }
+
+    @Override
+    public void setCellFormula (int c, CharSequence formula) {
+        this.ensureCapacity(c);
+        int n = formula.length();
+        if (this.used + n > this.chars.length) {
+            this.chars = Arrays.copyOf(this.chars, Math.max(this.used + n, this.chars.length * 2));
+        }
+        if (formula instanceof FormulaBuilder) {
+            ((FormulaBuilder) formula).getChars(0, n, this.chars, this.used);
+        } else if (formula instanceof String) {
+            ((String) formula).getChars(0, n, this.chars, this.used);
+        } else {
+            for (int i = 0; i < n; i++) {
+                this.chars[this.used + i] = formula.charAt(i);
+            }
+        }
+        this.types[c]   = FORMULA;
+        this.results[c] = EMPTY;
+        this.texts[c]   = null;
+        this.starts[c]  = this.used;
+        this.ends[c]    = this.used + n;
+        this.used      += n;
+    }
+
+    private boolean valueEquals (int c, RowBuffer other, int d) {
+        byte value = this.types[c] == FORMULA ? this.results[c] : this.types[c];
+        switch (value) {
+            case NUMBER : return Double.doubleToLongBits(this.numbers[c]) == Double.doubleToLongBits(other.numbers[d]);
+            case STRING : return this.texts[c].equals(other.texts[d]);
+            default     : return true;
+        }
+    }
+
+    private void writeFormulaTo (RowWriter out, int c) {
+        switch (this.results[c]) {
+            case NUMBER : out.setCellFormula(c, this.formula(c), this.numbers[c]);  break;
+            case STRING : out.setCellFormula(c, this.formula(c), this.texts[c]);    break;
+            default     : out.setCellFormula(c, this.formula(c));                   break;
+        }
+    }
+
+    private void ensureCapacity (int c) {
+        if (c >= this.types.length) {
+            int size = Math.max(c + 1, this.types.length * 2);
+            this.types   = Arrays.copyOf(this.types,   size);
+            this.results = Arrays.copyOf(this.results, size);
+            this.numbers = Arrays.copyOf(this.numbers, size);
+            this.texts   = Arrays.copyOf(this.texts,   size);
+            this.starts  = Arrays.copyOf(this.starts,  size);
+            this.ends    = Arrays.copyOf(this.ends,    size);
+        }
+        if (c >= this.width) {
+            this.width = c + 1;
+        }
+    }
+
+    /**
+     * A view of part of `chars`.
+     */
+    private class Chars implements CharSequence {
+
+        private int start;
+        private int end;
+
+        Chars of (int start, int end) {
+            this.start  = start;
+            this.end    = end;
+            return this;
+        }
+
+        @Override
+        public int length () {
+            return this.end - this.start;
+        }
+
+        @Override
+        public char charAt (int i) {
+            return RowBuffer.this.chars[this.start + i];
+        }
+
+        @Override
+        public CharSequence subSequence (int from, int to) {
+            return this.toString().substring(from, to);
+        }
+
+        @Override
+        public String toString () {
+            return new String(RowBuffer.this.chars, this.start, this.end - this.start);
+        }
+
+    }
+
+}
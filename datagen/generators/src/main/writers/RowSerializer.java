@@ -0,0 +1,47 @@
+package writers;
+
+import java.io.IOException;
+
+/**
+ * Turns buffered rows into the markup of one file format.
+ */
+interface RowSerializer {
+
+    /**
+     * @param out
+     * @param row A complete row.
+     * @throws IOException
+     */
+    void writeRow (XmlOutput out, RowBuffer row) throws IOException;
+
+    /**
+     * Writes `count` consecutive rows that have no cells.
+     *
+     * @param out
+     * @param count
+     * @throws IOException
+     */
+    void writeSkippedRows (XmlOutput out, int count) throws IOException;
+
+    /**
+     * Writes any rows that the serializer held back. Called before a
+     * chunk is appended and once the last row has been written. A
+     * serializer that holds rows back must also write them before it
+     * writes skipped rows.
+     *
+     * @param out
+     * @throws IOException
+     */
+    default void flush (XmlOutput out) throws IOException {
+    }
+
+    /**
+     * @return True if `writeRow` writes the row right away and keeps no
+     * track of it, so that the markup of a row may be copied in its place
+     * (see RowTemplate).
+     */
+    default boolean isStateless () {
+        return false;
+    }
+
+}
@@ -0,0 +1,166 @@
+package writers;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.File;
+
+/**
+ * Buffers one row at a time and serializes it once the next row is
+ * created. Rows that are never created are written as empty rows, and
+ * chunks written by other streams can be appended in between. Rows that
+ * only differ in their number can be repeated from a template (see
+ * RepeatableSheetWriter).
+ */
+class RowStream implements RepeatableSheetWriter {
+
+    private final RowSerializer     serializer;
+    private final XmlOutput         out;
+    private final RowBuffer         row;
+    private final RowBuffer         probe;
+    private final FileOutputStream  file;
+    private final int               end;
+    private int                     next;
+
+    /**
+     * @param serializer
+     * @param out The output that rows are written to. It is flushed but
+     * not closed by this stream.
+     */
+    RowStream (RowSerializer serializer, XmlOutput out) {
+        this(serializer, out, null, 0, -1);
+    }
+
+    /**
+     * @param serializer
+     * @param out
+     * @param end The number of rows in the sheet. Rows before `end` that
+     * are never created are written as empty rows when the stream is
+     * closed.
+     */
+    RowStream (RowSerializer serializer, XmlOutput out, int end) {
+        this(serializer, out, null, 0, end);
+    }
+
+    private RowStream (RowSerializer serializer, XmlOutput out, FileOutputStream file, int from, int end) {
+        this.serializer = serializer;
+        this.out        = out;
+        this.row        = new RowBuffer();
+        this.probe      = new RowBuffer();
+        this.file       = file;
+        this.end        = end;
+        this.next       = from;
+    }
+
+    /**
+     * @param serializer
+     * @param from
+     * @param to
+     * @param file
+     * @return A stream that writes rows [`from`, `to`) into `file` and
+     * closes it once the stream is closed.
+     * @throws IOException
+     */
+    static RowStream chunk (RowSerializer serializer, int from, int to, File file) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        return new RowStream(serializer, new XmlOutput(stream), stream, from, to);
+    }
+
+    @Override
+    public RowWriter createRow (int r) throws IOException {
+        if (r < this.next || r <= this.row.row()) {
+            throw new IllegalArgumentException("Attempting to write row " + r + " after row " + Math.max(this.next - 1, this.row.row()) + " was already written.");
+        }
+        if (this.end >= 0 && r >= this.end) {
+            throw new IllegalArgumentException("Attempting to write row " + r + " past the end of a chunk that ends at row " + this.end + ".");
+        }
+        this.flushRow();
+        this.skipTo(r);
+        this.row.reset(r);
+        return this.row;
+    }
+
+    @Override
+    public RowWriter createProbe (int r) throws IOException {
+        if (this.row.row() < this.next) {
+            throw new IllegalStateException("Attempting to create a probe without a row to repeat.");
+        }
+        this.probe.reset(r);
+        return this.probe;
+    }
+
+    @Override
+    public void repeatRow (int to) throws IOException {
+        if (this.row.row() < this.next || this.probe.row() < 0) {
+            throw new IllegalStateException("Attempting to repeat a row without a row and a probe.");
+        }
+        if (this.end >= 0 && to > this.end) {
+            throw new IllegalArgumentException("Attempting to write row " + (to - 1) + " past the end of a chunk that ends at row " + this.end + ".");
+        }
+        RowTemplate.of(this.serializer, this.row, this.probe).writeRows(this.out, to);
+        this.next = to;
+        this.probe.reset(-1);
+    }
+
+    /**
+     * Serializes the buffered row, if any, and the rows that the
+     * serializer held back.
+     *
+     * @throws IOException
+     */
+    void flush () throws IOException {
+        this.flushRow();
+        this.serializer.flush(this.out);
+    }
+
+    /**
+     * Copies the serialized rows [`from`, `to`) from `file` and deletes it.
+     *
+     * @param from
+     * @param to
+     * @param file
+     * @throws IOException
+     */
+    void append (int from, int to, File file) throws IOException {
+        try {
+            if (from < this.next || from <= this.row.row()) {
+                throw new IllegalArgumentException("Attempting to append rows from " + from + " after row " + Math.max(this.next - 1, this.row.row()) + " was already written.");
+            }
+            this.flush();
+            this.skipTo(from);
+            this.out.copyFrom(file);
+            this.next = to;
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Override
+    public void close () throws IOException {
+        try {
+            this.flush();
+            if (this.end >= 0) {
+                this.skipTo(this.end);
+            }
+            this.out.close();
+        } finally {
+            if (this.file != null) {
+                this.file.close();
+            }
+        }
+    }
+
+    private void flushRow () throws IOException {
+        if (this.row.row() >= this.next) {
+            this.serializer.writeRow(this.out, this.row);
+            this.next = this.row.row() + 1;
+        }
+    }
+
+    private void skipTo (int r) throws IOException {
+        if (r > this.next) {
+            this.serializer.writeSkippedRows(this.out, r - this.next);
+            this.next = r;
+        }
+    }
+
+}
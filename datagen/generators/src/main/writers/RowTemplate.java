@@ -0,0 +1,155 @@
+package writers;
+
+import java.io.ByteArrayOutputStream;
+import java.util.function.IntUnaryOperator;
+import java.util.function.IntPredicate;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes copies of a row that only differ in the number of the row by
+ * patching the digits of the number into a rendered row. The digits are
+ * found by comparing the row with a probe, the same row created for a
+ * number with as many digits but a different digit at every place, so
+ * every character at which the two differ belongs to a row number and
+ * everything else stays put (e.g. the 1 of A1 in SUM(A1:A9) of row 1).
+ *
+ * If the serializer is stateless, the row is serialized once and the
+ * digits are patched into its markup, which is then copied for every
+ * row. Otherwise, the digits are patched into the formulas of the row,
+ * which is serialized again for every row.
+ */
+class RowTemplate {
+
+    private final RowSerializer serializer;
+    private final RowBuffer     row;
+    private final byte[]        markup;
+    private final int[]         runs;
+    private final byte[]        digits;
+
+    private RowTemplate (RowSerializer serializer, RowBuffer row, byte[] markup, int[] runs) {
+        this.serializer = serializer;
+        this.row        = row;
+        this.markup     = markup;
+        this.runs       = runs;
+        this.digits     = new byte[RowTemplate.length(row.row() + 1)];
+    }
+
+    /**
+     * @param serializer
+     * @param row
+     * @param probe The same row as `row`, created for another row.
+     * @return The template for `row`. It keeps `row`, which it changes
+     * when formulas are patched.
+     * @throws IOException
+     * @throws IllegalStateException If the rows differ in anything but
+     * the digits of their number.
+     */
+    static RowTemplate of (RowSerializer serializer, RowBuffer row, RowBuffer probe) throws IOException {
+        int     number  = row.row() + 1;
+        int     other   = probe.row() + 1;
+        int     length  = RowTemplate.length(number);
+        if (length != RowTemplate.length(other)) {
+            throw new IllegalArgumentException("Row " + number + " and probe " + other + " have different numbers of digits.");
+        }
+        byte[]  markup  = null;
+        int[]   runs    = null;
+        if (serializer.isStateless()) {
+            byte[] a = RowTemplate.render(serializer, row);
+            byte[] b = RowTemplate.render(serializer, probe);
+            if (a.length == b.length) {
+                markup  = a;
+                runs    = RowTemplate.findRuns(a.length, i -> a[i] != b[i], i -> a[i], number, length);
+            }
+        } else if (row.shapeEquals(probe)) {
+            runs = RowTemplate.findRuns(row.formulaChars(), i -> row.formulaChar(i) != probe.formulaChar(i), row::formulaChar, number, length);
+        }
+        if (runs == null) {
+            throw new IllegalStateException("Row " + number + " differs from probe " + other + " in more than its number.");
+        }
+        return new RowTemplate(serializer, row, markup, runs);
+    }
+
+    /**
+     * Writes the row of the template and its copies up to row `to`
+     * (exclusive).
+     *
+     * @param out
+     * @param to
+     * @throws IOException
+     */
+    void writeRows (XmlOutput out, int to) throws IOException {
+        for (int r = this.row.row(); r < to; r++) {
+            int n = r + 1;
+            for (int i = this.digits.length - 1; i >= 0; i--) {
+                this.digits[i] = (byte) ('0' + (n % 10));
+                n /= 10;
+            }
+            if (this.markup != null) {
+                for (int start : this.runs) {
+                    System.arraycopy(this.digits, 0, this.markup, start, this.digits.length);
+                }
+                out.writeBytes(this.markup, 0, this.markup.length);
+            } else {
+                for (int start : this.runs) {
+                    for (int i = 0; i < this.digits.length; i++) {
+                        this.row.setFormulaChar(start + i, (char) this.digits[i]);
+                    }
+                }
+                this.row.moveTo(r);
+                this.serializer.writeRow(out, this.row);
+            }
+        }
+    }
+
+    private static byte[] render (RowSerializer serializer, RowBuffer row) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (XmlOutput out = new XmlOutput(bytes)) {
+            serializer.writeRow(out, row);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param size
+     * @param differs
+     * @param at The characters of the row.
+     * @param number
+     * @param length The number of digits of the numbers of the row and
+     * of its probe.
+     * @return The start of every run of characters at which the row and
+     * its probe differ, or null unless each run spells the number of the
+     * row.
+     */
+    private static int[] findRuns (int size, IntPredicate differs, IntUnaryOperator at, int number, int length) {
+        int[]   runs    = new int[8];
+        int     count   = 0;
+        for (int i = 0; i < size; i++) {
+            if (!differs.test(i)) {
+                continue;
+            }
+            if (i + length > size || (i + length < size && differs.test(i + length))) {
+                return null;
+            }
+            for (int j = 0, n = number; j < length; j++, n /= 10) {
+                int p = i + length - 1 - j;
+                if (!differs.test(p) || at.applyAsInt(p) != '0' + (n % 10)) {
+                    return null;
+                }
+            }
+            if (count == runs.length) {
+                runs = Arrays.copyOf(runs, count * 2);
+            }
+            runs[count++] = i;
+            i += length - 1;
+        }
+        return Arrays.copyOf(runs, count);
+    }
+
+    private static int length (int n) {
+        int length = 1;
+        while (n >= 10) { n /= 10; length++; }
+        return length;
+    }
+
+}
@@ -0,0 +1,25 @@
+package writers;
+
+public interface RowWriter {
+
+    public void setCellValue    (int c, double value            );
+    public void setCellValue    (int c, String value            );
+    public void setCellFormula  (int c, CharSequence formula    );
+
+    /**
+     * Writes `formula` with `result` as its cached value. Writers that
+     * cannot store cached values ignore `result`.
+     *
+     * @param c
+     * @param formula
+     * @param result
+     */
+    public default void setCellFormula (int c, CharSequence formula, double result) {
+        this.setCellFormula(c, formula);
+    }
+
+    public default void setCellFormula (int c, CharSequence formula, String result) {
+        this.setCellFormula(c, formula);
+    }
+
+}
@@ -0,0 +1,95 @@
+package writers;
+
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFCell;
+import org.apache.poi.xssf.streaming.SXSSFRow;
+import org.apache.poi.ss.usermodel.FormulaError;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes an .xlsx file through POI's SXSSF. Every row is flushed to a
+ * compressed temporary file and then copied into the final archive
+ * when the writer is closed.
+ */
+public class SXSSFSheetWriter implements SheetWriter {
+
+    private final SXSSFWorkbook workbook;
+    private final SXSSFSheet    sheet;
+    private final String        name;
+    private final Row           row;
+
+    /**
+     * @param name The name of the file to create.
+     * @param options Whether the workbook asks to be recalculated when it
+     * is opened.
+     */
+    public SXSSFSheetWriter (String name, WriterOptions options) {
+        this.workbook = new SXSSFWorkbook(1);
+        this.workbook.setCompressTempFiles(true);
+        this.sheet = this.workbook.createSheet("Sheet1");
+        this.name  = name;
+        this.row   = new Row();
+        if (options.getFullCalcOnLoad() != null) {
+            this.workbook.setForceFormulaRecalculation(options.getFullCalcOnLoad());
+        }
+    }
+
+    @Override
+    public RowWriter createRow (int r) {
+        this.row.current = this.sheet.createRow(r);
+        return this.row;
+    }
+
+    @Override
+    public void close () throws IOException {
+        try (FileOutputStream fileOut = new FileOutputStream(this.name)) {
+            this.workbook.write(fileOut);
+        } finally {
+            this.workbook.dispose();
+            this.workbook.close();
+        }
+    }
+
+    private static class Row implements RowWriter {
+
+        private SXSSFRow current;
+
+        @Override
+        public void setCellValue (int c, double value) {
+            this.current.createCell(c).setCellValue(value);
+        }
+
+        @Override
+        public void setCellValue (int c, String value) {
+            this.current.createCell(c).setCellValue(value);
+        }
+
+        @Override
+        public void setCellFormula (int c, CharSequence formula) {
+            this.current.createCell(c).setCellFormula(formula.toString());
+        }
+
+        @Override
+        public void setCellFormula (int c, CharSequence formula, double result) {
+            SXSSFCell cell = this.current.createCell(c);
+            cell.setCellFormula(formula.toString());
+            cell.setCellValue(result);
+        }
+
+        @Override
+        public void setCellFormula (int c, CharSequence formula, String result) {
+            SXSSFCell cell = this.current.createCell(c);
+            cell.setCellFormula(formula.toString());
+            if (result.startsWith("#")) {
+                cell.setCellErrorValue(FormulaError.forString(result).getCode());
+            } else {
+                cell.setCellValue(result);
+            }
+        }
+
+    }
+
+}
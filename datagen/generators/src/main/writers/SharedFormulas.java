@@ -0,0 +1,378 @@
+package writers;
+
+import java.util.Arrays;
+
+/**
+ * Groups the formulas of a block of consecutive rows into SpreadsheetML
+ * shared formulas. Within a column, the formulas of consecutive rows
+ * are structurally identical if each of their references either moves
+ * down one row per row (e.g. SUM(A1:A1), SUM(A2:A2), ...) or stays put
+ * (e.g. SUM(A1:B9), SUM(A1:B9), ...). The longest such run of each
+ * column becomes a group: its first cell (the master) holds the formula,
+ * with a '$' in front of the rows that stay put, and the rest of the
+ * cells only refer to the group.
+ *
+ * Blocks are the rows [k * `BLOCK_ROWS`, (k + 1) * `BLOCK_ROWS`), so
+ * every group is confined to one block and its id can be derived from
+ * the block and the column. If a chunk starts in the middle of a block,
+ * that block is written without groups, since its ids could collide
+ * with those of the part of the block that the previous chunk wrote.
+ * So are rows past Excel's last row, which Excel cannot open anyway.
+ */
+class SharedFormulas {
+
+    static final int BLOCK_ROWS = 256;
+
+    static final byte PLAIN     = 0;
+    static final byte MASTER    = 1;
+    static final byte FOLLOWER  = 2;
+
+    /**
+     * The number of blocks in Excel's 1048576 rows. Group ids are
+     * numbered column by column, which keeps them short for the first
+     * few columns that layouts put their formulas in.
+     */
+    private static final int MAX_BLOCKS = (1 << 20) / BLOCK_ROWS;
+
+    /** The row of a reference is not yet known to move or to stay put */
+    private static final byte UNKNOWN   = 0;
+    private static final byte MOVES     = 1;
+    private static final byte STAYS     = 2;
+
+    private final RowBuffer[]   rows;
+    private final int           from;
+    private int                 size;
+    private int[]               first;
+    private int[]               last;
+    private byte[]              modes;
+    private byte[][]            masterModes;
+    private final StringBuilder master;
+
+    /**
+     * @param from The first row written by the stream that owns this
+     * block.
+     */
+    SharedFormulas (int from) {
+        this.rows           = new RowBuffer[BLOCK_ROWS];
+        this.from           = from;
+        this.size           = 0;
+        this.first          = new int[16];
+        this.last           = new int[16];
+        this.modes          = new byte[16];
+        this.masterModes    = new byte[16][];
+        this.master         = new StringBuilder();
+    }
+
+    /**
+     * @return True if there are no rows in the block.
+     */
+    boolean isEmpty () {
+        return this.size == 0;
+    }
+
+    /**
+     * @param r
+     * @return True if row `r`, which follows the rows in the block, may
+     * be added to it.
+     */
+    boolean accepts (int r) {
+        if (this.size == 0) {
+            return true;
+        }
+        return r / BLOCK_ROWS == this.rows[0].row() / BLOCK_ROWS;
+    }
+
+    /**
+     * Copies `row` into the block.
+     *
+     * @param row
+     * @return True if the block is complete.
+     */
+    boolean add (RowBuffer row) {
+        if (this.rows[this.size] == null) {
+            this.rows[this.size] = new RowBuffer();
+        }
+        RowBuffer copy = this.rows[this.size++];
+        copy.reset(row.row());
+        row.writeTo(copy);
+        return row.row() % BLOCK_ROWS == BLOCK_ROWS - 1;
+    }
+
+    /**
+     * @return The number of rows in the block.
+     */
+    int size () {
+        return this.size;
+    }
+
+    /**
+     * @param i
+     * @return The `i`-th row of the block.
+     */
+    RowBuffer get (int i) {
+        return this.rows[i];
+    }
+
+    /**
+     * Finds the group of every column. Must be called once the block is
+     * complete and before `role`, `id`, `ref` or `masterFormula`.
+     */
+    void group () {
+        int width = 0;
+        for (int i = 0; i < this.size; i++) {
+            width = Math.max(width, this.rows[i].width());
+        }
+        if (width > this.first.length) {
+            this.first          = new int[width];
+            this.last           = new int[width];
+            this.masterModes    = Arrays.copyOf(this.masterModes, width);
+        }
+        int     block   = this.rows[0].row() / BLOCK_ROWS;
+        boolean aligned = this.from % BLOCK_ROWS == 0 || block != this.from / BLOCK_ROWS;
+        for (int c = 0; c < width; c++) {
+            this.first[c]   = -1;
+            this.last[c]    = -1;
+            if (aligned && block < MAX_BLOCKS) {
+                this.groupColumn(c);
+            }
+        }
+    }
+
+    /**
+     * @param i
+     * @param c
+     * @return Whether the formula in column `c` of the `i`-th row is
+     * written on its own (PLAIN), holds the formula of its group (MASTER)
+     * or refers to it (FOLLOWER).
+     */
+    byte role (int i, int c) {
+        if (c >= this.first.length || this.first[c] < 0 || i < this.first[c] || i > this.last[c]) {
+            return PLAIN;
+        }
+        return i == this.first[c] ? MASTER : FOLLOWER;
+    }
+
+    /**
+     * @param c
+     * @return The id of the group in column `c`.
+     */
+    int id (int c) {
+        return c * MAX_BLOCKS + this.rows[0].row() / BLOCK_ROWS;
+    }
+
+    /**
+     * @param c
+     * @return The number of the first and of the last row of the group in
+     * column `c`, starting at 1.
+     */
+    int[] ref (int c) {
+        return new int[] { this.rows[this.first[c]].row() + 1, this.rows[this.last[c]].row() + 1 };
+    }
+
+    /**
+     * @param c
+     * @return The formula of the master of column `c`, anchored so that
+     * it can be shifted down to every other cell of the group. The
+     * returned object is reused by the next call.
+     */
+    CharSequence masterFormula (int c) {
+        CharSequence formula = this.rows[this.first[c]].formula(c);
+        byte[] modes = this.masterModes[c];
+        this.master.setLength(0);
+        boolean quoted = false;
+        for (int i = 0, ref = 0, n = formula.length(); i < n; ) {
+            char ch = formula.charAt(i);
+            int end = quoted ? -1 : SharedFormulas.scanRef(formula, i);
+            if (end < 0) {
+                quoted ^= ch == '"';
+                this.master.append(ch);
+                i++;
+                continue;
+            }
+            int digits = SharedFormulas.rowStart(formula, i, end);
+            this.master.append(formula, i, digits);
+            if (modes[ref++] == STAYS && formula.charAt(digits - 1) != '$') {
+                this.master.append('$');
+            }
+            this.master.append(formula, digits, end);
+            i = end;
+        }
+        return this.master;
+    }
+
+    /**
+     * Empties the block.
+     */
+    void clear () {
+        this.size = 0;
+    }
+
+    private void groupColumn (int c) {
+        int bestFirst = -1, bestLast = -1;
+        for (int s = 0; s < this.size; ) {
+            if (c >= this.rows[s].width() || this.rows[s].type(c) != RowBuffer.FORMULA) {
+                s++;
+                continue;
+            }
+            CharSequence master = this.rows[s].formula(c);
+            this.resetModes(master);
+            int e = s;
+            while (e + 1 < this.size && this.follows(master, s, e + 1, c)) {
+                e++;
+            }
+            if (e - s > bestLast - bestFirst) {
+                bestFirst   = s;
+                bestLast    = e;
+                this.masterModes[c] = Arrays.copyOf(this.modes, this.modes.length);
+            }
+            s = e + 1;
+        }
+        if (bestLast > bestFirst) {
+            this.first[c]   = bestFirst;
+            this.last[c]    = bestLast;
+        }
+    }
+
+    private boolean follows (CharSequence master, int s, int i, int c) {
+        RowBuffer row = this.rows[i];
+        return row.row() == this.rows[i - 1].row() + 1
+            && c < row.width()
+            && row.type(c) == RowBuffer.FORMULA
+            && this.matches(master, row.formula(c), row.row() - this.rows[s].row());
+    }
+
+    private void resetModes (CharSequence master) {
+        int refs = 0;
+        boolean quoted = false;
+        for (int i = 0, n = master.length(); i < n; ) {
+            int end = quoted ? -1 : SharedFormulas.scanRef(master, i);
+            if (end < 0) {
+                quoted ^= master.charAt(i) == '"';
+                i++;
+            } else {
+                refs++;
+                i = end;
+            }
+        }
+        if (refs > this.modes.length) {
+            this.modes = new byte[refs];
+        }
+        Arrays.fill(this.modes, UNKNOWN);
+    }
+
+    /**
+     * @param master
+     * @param formula
+     * @param d
+     * @return True if `formula` is `master` moved down `d` rows, given
+     * what is known about which rows move and which stay put.
+     */
+    private boolean matches (CharSequence master, CharSequence formula, int d) {
+        int i = 0, j = 0, ref = 0, m = master.length(), n = formula.length();
+        boolean quoted = false;
+        while (i < m && j < n) {
+            int end = quoted ? -1 : SharedFormulas.scanRef(master, i);
+            if (end < 0) {
+                char ch = master.charAt(i++);
+                if (ch != formula.charAt(j++)) {
+                    return false;
+                }
+                quoted ^= ch == '"';
+                continue;
+            }
+            int other = SharedFormulas.scanRef(formula, j);
+            if (other < 0) {
+                return false;
+            }
+            int digits      = SharedFormulas.rowStart(master, i, end);
+            int otherDigits = SharedFormulas.rowStart(formula, j, other);
+            if (digits - i != otherDigits - j || !SharedFormulas.regionEquals(master, i, formula, j, digits - i)) {
+                return false;
+            }
+            long row        = SharedFormulas.parseRow(master, digits, end);
+            long otherRow   = SharedFormulas.parseRow(formula, otherDigits, other);
+            byte mode       = master.charAt(digits - 1) == '$' ? STAYS : this.modes[ref];
+            if (mode == UNKNOWN) {
+                mode = otherRow == row + d ? MOVES : otherRow == row ? STAYS : UNKNOWN;
+                this.modes[ref] = mode;
+            }
+            if (mode == UNKNOWN || otherRow != (mode == MOVES ? row + d : row)) {
+                return false;
+            }
+            ref++;
+            i = end;
+            j = other;
+        }
+        return i == m && j == n;
+    }
+
+    /**
+     * @param s
+     * @param i
+     * @return The end of the A1-style reference (e.g. A1, $B$2) that
+     * starts at `i`, or -1 if there is none.
+     */
+    private static int scanRef (CharSequence s, int i) {
+        int n = s.length();
+        if (i > 0) {
+            char prev = s.charAt(i - 1);
+            if (Character.isLetterOrDigit(prev) || prev == '_' || prev == '.' || prev == '$') {
+                return -1;
+            }
+        }
+        int k = i;
+        if (k < n && s.charAt(k) == '$') {
+            k++;
+        }
+        int letters = k;
+        while (k < n && s.charAt(k) >= 'A' && s.charAt(k) <= 'Z') {
+            k++;
+        }
+        if (k == letters || k - letters > 3) {
+            return -1;
+        }
+        if (k < n && s.charAt(k) == '$') {
+            k++;
+        }
+        int digits = k;
+        while (k < n && s.charAt(k) >= '0' && s.charAt(k) <= '9') {
+            k++;
+        }
+        if (k == digits || s.charAt(digits) == '0' || k - digits > 7) {
+            return -1;
+        }
+        if (k < n) {
+            char next = s.charAt(k);
+            if (Character.isLetterOrDigit(next) || next == '_' || next == '(' || next == '.' || next == '!') {
+                return -1;
+            }
+        }
+        return k;
+    }
+
+    private static int rowStart (CharSequence s, int from, int end) {
+        int k = end;
+        while (k > from && s.charAt(k - 1) >= '0' && s.charAt(k - 1) <= '9') {
+            k--;
+        }
+        return k;
+    }
+
+    private static long parseRow (CharSequence s, int from, int end) {
+        long row = 0;
+        for (int k = from; k < end; k++) {
+            row = row * 10 + (s.charAt(k) - '0');
+        }
+        return row;
+    }
+
+    private static boolean regionEquals (CharSequence a, int i, CharSequence b, int j, int length) {
+        for (int k = 0; k < length; k++) {
+            if (a.charAt(i + k) != b.charAt(j + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,18 @@
+package writers;
+
+import java.io.IOException;
+import java.io.Closeable;
+
+public interface SheetWriter extends Closeable {
+
+    /**
+     * Starts a new row. Rows must be created in ascending order and
+     * a row may no longer be modified once the next row is created.
+     *
+     * @param r
+     * @return The writer for row `r`.
+     * @throws IOException
+     */
+    public RowWriter createRow (int r) throws IOException;
+
+}
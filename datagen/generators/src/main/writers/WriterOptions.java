@@ -0,0 +1,172 @@
+package writers;
+
+import java.util.zip.Deflater;
+
+/**
+ * The settings of the writers that create a sheet, e.g. the compression
+ * level of their archives or whether they write shared formulas. Options
+ * are immutable and every `with` method returns a copy, so the writers of
+ * different runs (e.g. jobs of a Daemon) never see each other's settings.
+ */
+public final class WriterOptions {
+
+    /** The settings that a run without any of the optional fields uses */
+    public static final WriterOptions DEFAULT = new WriterOptions(Deflater.DEFAULT_COMPRESSION, 0, 16, false, null, false, true, false, new GroundTruthWriter.Encoding[0]);
+
+    private final int                           level;
+    private final int                           threads;
+    private final int                           writeQueue;
+    private final boolean                       sharedFormulas;
+    private final Boolean                       fullCalcOnLoad;
+    private final boolean                       calcChain;
+    private final boolean                       repeatCompression;
+    private final boolean                       cachedResults;
+    private final GroundTruthWriter.Encoding[]  groundTruth;
+
+    private WriterOptions (int level, int threads, int writeQueue, boolean sharedFormulas, Boolean fullCalcOnLoad, boolean calcChain, boolean repeatCompression, boolean cachedResults, GroundTruthWriter.Encoding[] groundTruth) {
+        this.level              = level;
+        this.threads            = threads;
+        this.writeQueue         = writeQueue;
+        this.sharedFormulas     = sharedFormulas;
+        this.fullCalcOnLoad     = fullCalcOnLoad;
+        this.calcChain          = calcChain;
+        this.repeatCompression  = repeatCompression;
+        this.cachedResults      = cachedResults;
+        this.groundTruth        = groundTruth;
+    }
+
+    /**
+     * @param val A Deflater compression level (0-9 or -1 for the default)
+     * or ZipWriter.STORED, which archives are written with.
+     * @return A copy of these options with the level `val`.
+     */
+    public WriterOptions withLevel (int val) {
+        if (val != ZipWriter.STORED && (val < Deflater.DEFAULT_COMPRESSION || val > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + val);
+        }
+        return new WriterOptions(val, this.threads, this.writeQueue, this.sharedFormulas, this.fullCalcOnLoad, this.calcChain, this.repeatCompression, this.cachedResults, this.groundTruth);
+    }
+
+    /**
+     * @param val The number of threads that compress each streamed entry
+     * of an archive, or 0 to compress it on the thread that writes it.
+     * @return A copy of these options with `val` threads.
+     */
+    public WriterOptions withThreads (int val) {
+        if (val < 0) {
+            throw new IllegalArgumentException("Invalid number of threads: " + val);
+        }
+        return new WriterOptions(this.level, val, this.writeQueue, this.sharedFormulas, this.fullCalcOnLoad, this.calcChain, this.repeatCompression, this.cachedResults, this.groundTruth);
+    }
+
+    /**
+     * @param val The number of 64 KiB blocks of each archive that may wait
+     * for the disk, or 0 to write them on the thread that produces them.
+     * @return A copy of these options with a queue of `val` blocks.
+     */
+    public WriterOptions withWriteQueue (int val) {
+        if (val < 0) {
+            throw new IllegalArgumentException("Invalid write queue size: " + val);
+        }
+        return new WriterOptions(this.level, this.threads, val, this.sharedFormulas, this.fullCalcOnLoad, this.calcChain, this.repeatCompression, this.cachedResults, this.groundTruth);
+    }
+
+    /**
+     * @param val If true, runs of structurally identical formulas in a
+     * column of an .xlsx file are written as shared formulas (see
+     * SharedFormulas).
+     * @return A copy of these options.
+     */
+    public WriterOptions withSharedFormulas (boolean val) {
+        return new WriterOptions(this.level, this.threads, this.writeQueue, val, this.fullCalcOnLoad, this.calcChain, this.repeatCompression, this.cachedResults, this.groundTruth);
+    }
+
+    /**
+     * @param val If true, .xlsx and .xlsb workbooks ask to be recalculated
+     * in full when they are opened. If false, the cached results of their
+     * formulas are used until one of their inputs changes. If null, the
+     * workbooks do not say, and applications fall back to their own default.
+     * @return A copy of these options.
+     */
+    public WriterOptions withFullCalcOnLoad (Boolean val) {
+        return new WriterOptions(this.level, this.threads, this.writeQueue, this.sharedFormulas, val, this.calcChain, this.repeatCompression, this.cachedResults, this.groundTruth);
+    }
+
+    /**
+     * @param val If true, the formula cells of streamed .xlsx files are
+     * listed in `xl/calcChain.xml`, so that Excel does not have to build
+     * the chain when it first opens the file.
+     * @return A copy of these options.
+     */
+    public WriterOptions withCalcChain (boolean val) {
+        return new WriterOptions(this.level, this.threads, this.writeQueue, this.sharedFormulas, this.fullCalcOnLoad, val, this.repeatCompression, this.cachedResults, this.groundTruth);
+    }
+
+    /**
+     * @param val If true, runs of identical rows of streamed .ods and
+     * .fods files are written as a single row with
+     * `table:number-rows-repeated`, and runs of identical cells within a
+     * row as a single cell with `table:number-columns-repeated`. Runs do
+     * not span the chunks that a sheet is generated in.
+     * @return A copy of these options.
+     */
+    public WriterOptions withRepeatCompression (boolean val) {
+        return new WriterOptions(this.level, this.threads, this.writeQueue, this.sharedFormulas, this.fullCalcOnLoad, this.calcChain, val, this.cachedResults, this.groundTruth);
+    }
+
+    /**
+     * @param val If true, the result of every formula is also written as
+     * the cached value of its cell in the formula-value sheets, so that
+     * applications can show them without recalculating.
+     * @return A copy of these options.
+     */
+    public WriterOptions withCachedResults (boolean val) {
+        return new WriterOptions(this.level, this.threads, this.writeQueue, this.sharedFormulas, this.fullCalcOnLoad, this.calcChain, this.repeatCompression, val, this.groundTruth);
+    }
+
+    /**
+     * @param val The encodings in which the evaluated results of every
+     * sheet are also written (see GroundTruthWriter).
+     * @return A copy of these options.
+     */
+    public WriterOptions withGroundTruth (GroundTruthWriter.Encoding... val) {
+        return new WriterOptions(this.level, this.threads, this.writeQueue, this.sharedFormulas, this.fullCalcOnLoad, this.calcChain, this.repeatCompression, this.cachedResults, val.clone());
+    }
+
+    public int getLevel () {
+        return this.level;
+    }
+
+    public int getThreads () {
+        return this.threads;
+    }
+
+    public int getWriteQueue () {
+        return this.writeQueue;
+    }
+
+    public boolean isSharedFormulas () {
+        return this.sharedFormulas;
+    }
+
+    public Boolean getFullCalcOnLoad () {
+        return this.fullCalcOnLoad;
+    }
+
+    public boolean isCalcChain () {
+        return this.calcChain;
+    }
+
+    public boolean isRepeatCompression () {
+        return this.repeatCompression;
+    }
+
+    public boolean isCachedResults () {
+        return this.cachedResults;
+    }
+
+    public GroundTruthWriter.Encoding[] getGroundTruth () {
+        return this.groundTruth.clone();
+    }
+
+}
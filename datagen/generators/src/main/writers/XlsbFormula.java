@@ -0,0 +1,358 @@
+package writers;
+
+/**
+ * Compiles formulas written using Excel's syntax into the parsed tokens
+ * (Rgce) that BIFF12 stores instead of their text. Tokens are in reverse
+ * Polish notation: the operands of a function or an operator come before
+ * it. A reference token also carries the class that its context expects:
+ * references passed to parameters that take ranges (e.g. the ranges of
+ * SUM and VLOOKUP) are references, all others are values.
+ *
+ * Only the syntax that layouts use is supported: A1-style references and
+ * ranges on the same sheet, numbers, strings, TRUE and FALSE, the four
+ * arithmetic operators, parentheses and the functions in `NAMES`.
+ */
+class XlsbFormula {
+
+    private static final int CLASS_REF  = 0x20;
+    private static final int CLASS_VAL  = 0x40;
+
+    private static final int PTG_ADD    = 0x03;
+    private static final int PTG_SUB    = 0x04;
+    private static final int PTG_MUL    = 0x05;
+    private static final int PTG_DIV    = 0x06;
+    private static final int PTG_UMINUS = 0x13;
+    private static final int PTG_PAREN  = 0x15;
+    private static final int PTG_STR    = 0x17;
+    private static final int PTG_ATTR   = 0x19;
+    private static final int PTG_BOOL   = 0x1D;
+    private static final int PTG_INT    = 0x1E;
+    private static final int PTG_NUM    = 0x1F;
+    private static final int PTG_FUNCV  = 0x02;
+    private static final int PTG_REF    = 0x04;
+    private static final int PTG_AREA   = 0x05;
+
+    /** Marks the single argument of SUM, which Excel stores as an attribute */
+    private static final int ATTR_SUM   = 0x10;
+
+    /**
+     * The supported functions, their indexes in Excel's function table,
+     * the number of arguments they take and the class of each parameter
+     * (R for references, V for values). The last class is repeated for
+     * any further arguments.
+     */
+    private static final String[]   NAMES   = { "SUM"   , "VLOOKUP" };
+    private static final int[]      INDEXES = { 4       , 102       };
+    private static final int[]      MINARGS = { 1       , 3         };
+    private static final int[]      MAXARGS = { 255     , 4         };
+    private static final String[]   PARAMS  = { "R"     , "VRRV"    };
+
+    private CharSequence    formula;
+    private XlsbRecord      out;
+    private int             pos;
+    private int             row;
+    private int             col;
+
+    /**
+     * Appends the tokens of `formula` to the payload of `out`.
+     *
+     * @param formula
+     * @param out
+     * @throws IllegalArgumentException If `formula` uses syntax that is
+     * not supported.
+     */
+    void encode (CharSequence formula, XlsbRecord out) {
+        this.formula    = formula;
+        this.out        = out;
+        this.pos        = 0;
+        this.expression(CLASS_VAL);
+        this.skipSpaces();
+        if (this.pos < formula.length()) {
+            throw this.error();
+        }
+    }
+
+    /**
+     * Parses a sum (or difference) of terms.
+     *
+     * @param cls The class expected of a lone reference.
+     */
+    private void expression (int cls) {
+        int     start   = this.out.size();
+        boolean ref     = this.term(cls);
+        for (char op = this.peek(); op == '+' || op == '-'; op = this.peek()) {
+            ref = this.toValue(start, ref);
+            this.pos++;
+            this.term(CLASS_VAL);
+            this.out.writeByte(op == '+' ? PTG_ADD : PTG_SUB);
+        }
+    }
+
+    /**
+     * Parses a product (or quotient) of factors.
+     *
+     * @param cls
+     * @return True if the term is a lone reference.
+     */
+    private boolean term (int cls) {
+        int     start   = this.out.size();
+        boolean ref     = this.factor(cls);
+        for (char op = this.peek(); op == '*' || op == '/'; op = this.peek()) {
+            ref = this.toValue(start, ref);
+            this.pos++;
+            this.factor(CLASS_VAL);
+            this.out.writeByte(op == '*' ? PTG_MUL : PTG_DIV);
+        }
+        return ref;
+    }
+
+    /**
+     * @param cls
+     * @return True if the factor is a lone reference.
+     */
+    private boolean factor (int cls) {
+        char ch = this.peek();
+        if (ch == '-') {
+            this.pos++;
+            this.factor(CLASS_VAL);
+            this.out.writeByte(PTG_UMINUS);
+            return false;
+        }
+        if (ch == '(') {
+            this.pos++;
+            this.expression(cls);
+            this.expect(')');
+            this.out.writeByte(PTG_PAREN);
+            return false;
+        }
+        if (ch == '"') {
+            this.string();
+            return false;
+        }
+        if ((ch >= '0' && ch <= '9') || ch == '.') {
+            this.number();
+            return false;
+        }
+        int start = this.pos;
+        while (this.pos < this.formula.length() && XlsbFormula.isNamePart(this.formula.charAt(this.pos))) {
+            this.pos++;
+        }
+        if (start == this.pos) {
+            throw this.error();
+        }
+        if (this.pos < this.formula.length() && this.formula.charAt(this.pos) == '(') {
+            this.function(this.formula.subSequence(start, this.pos).toString());
+            return false;
+        }
+        if (XlsbFormula.regionIs(this.formula, start, this.pos, "TRUE") || XlsbFormula.regionIs(this.formula, start, this.pos, "FALSE")) {
+            this.out.writeByte(PTG_BOOL).writeByte(this.formula.charAt(start) == 'T' ? 1 : 0);
+            return false;
+        }
+        this.pos = start;
+        this.reference(cls);
+        return true;
+    }
+
+    private void reference (int cls) {
+        int     flags   = this.cell();
+        int     row     = this.row;
+        int     col     = this.col;
+        if (this.pos < this.formula.length() && this.formula.charAt(this.pos) == ':') {
+            this.pos++;
+            int lastFlags = this.cell();
+            this.out.writeByte(PTG_AREA | cls).writeInt(row).writeInt(this.row).writeShort(col | flags).writeShort(this.col | lastFlags);
+        } else {
+            this.out.writeByte(PTG_REF | cls).writeInt(row).writeShort(col | flags);
+        }
+    }
+
+    /**
+     * Parses an A1-style reference to a single cell into `row` and `col`,
+     * both starting at 0.
+     *
+     * @return The relative flags of the reference, as stored next to its
+     * column: 0x4000 if the column is relative and 0x8000 if the row is.
+     */
+    private int cell () {
+        int flags = 0x4000 | 0x8000;
+        if (this.charAt(this.pos) == '$') {
+            flags &= ~0x4000;
+            this.pos++;
+        }
+        int col = 0, letters = 0;
+        for (char ch = this.charAt(this.pos); ch >= 'A' && ch <= 'Z'; ch = this.charAt(++this.pos)) {
+            col = col * 26 + (ch - 'A' + 1);
+            letters++;
+        }
+        if (this.charAt(this.pos) == '$') {
+            flags &= ~0x8000;
+            this.pos++;
+        }
+        long row = 0;
+        int digits = 0;
+        for (char ch = this.charAt(this.pos); ch >= '0' && ch <= '9'; ch = this.charAt(++this.pos)) {
+            row = row * 10 + (ch - '0');
+            digits++;
+        }
+        if (letters == 0 || letters > 3 || digits == 0 || digits > 7 || row == 0 || col > (1 << 14)) {
+            throw this.error();
+        }
+        this.row = (int) row - 1;
+        this.col = col - 1;
+        return flags;
+    }
+
+    private void function (String name) {
+        int f = 0;
+        while (f < NAMES.length && !NAMES[f].equals(name)) {
+            f++;
+        }
+        if (f == NAMES.length) {
+            throw new IllegalArgumentException("The function " + name + " is not supported in .xlsb formulas: " + this.formula);
+        }
+        this.expect('(');
+        int args = 0;
+        if (this.peek() == ')') {
+            this.pos++;
+        } else {
+            do {
+                String params = PARAMS[f];
+                this.expression(params.charAt(Math.min(args, params.length() - 1)) == 'R' ? CLASS_REF : CLASS_VAL);
+                args++;
+            } while (this.accept(','));
+            this.expect(')');
+        }
+        if (args < MINARGS[f] || args > MAXARGS[f]) {
+            throw new IllegalArgumentException(name + " does not take " + args + " arguments: " + this.formula);
+        }
+        if (INDEXES[f] == 4 && args == 1) {
+            this.out.writeByte(PTG_ATTR).writeByte(ATTR_SUM).writeShort(0);
+        } else {
+            this.out.writeByte(PTG_FUNCV | CLASS_VAL).writeByte(args).writeShort(INDEXES[f]);
+        }
+    }
+
+    private void number () {
+        int     start   = this.pos;
+        boolean integer = true;
+        while (this.charAt(this.pos) >= '0' && this.charAt(this.pos) <= '9') {
+            this.pos++;
+        }
+        if (this.charAt(this.pos) == '.') {
+            integer = false;
+            this.pos++;
+            while (this.charAt(this.pos) >= '0' && this.charAt(this.pos) <= '9') {
+                this.pos++;
+            }
+        }
+        if (this.charAt(this.pos) == 'E' || this.charAt(this.pos) == 'e') {
+            integer = false;
+            this.pos++;
+            if (this.charAt(this.pos) == '+' || this.charAt(this.pos) == '-') {
+                this.pos++;
+            }
+            while (this.charAt(this.pos) >= '0' && this.charAt(this.pos) <= '9') {
+                this.pos++;
+            }
+        }
+        double value;
+        try {
+            value = Double.parseDouble(this.formula.subSequence(start, this.pos).toString());
+        } catch (NumberFormatException e) {
+            throw this.error();
+        }
+        // Excel keeps small integers in 2 bytes rather than 8
+        if (integer && value <= 0xFFFF) {
+            this.out.writeByte(PTG_INT).writeShort((int) value);
+        } else {
+            this.out.writeByte(PTG_NUM).writeDouble(value);
+        }
+    }
+
+    private void string () {
+        StringBuilder sb = new StringBuilder();
+        this.pos++;
+        while (true) {
+            if (this.pos >= this.formula.length()) {
+                throw this.error();
+            }
+            char ch = this.formula.charAt(this.pos++);
+            if (ch == '"') {
+                if (this.charAt(this.pos) != '"') {
+                    break;
+                }
+                this.pos++;
+            }
+            sb.append(ch);
+        }
+        this.out.writeByte(PTG_STR).writeShort(sb.length());
+        for (int i = 0; i < sb.length(); i++) {
+            this.out.writeShort(sb.charAt(i));
+        }
+    }
+
+    /**
+     * Turns the lone reference at `start` into a value, since it turned
+     * out to be the operand of an operator.
+     *
+     * @param start
+     * @param ref
+     * @return False, as the operand is no longer a lone reference.
+     */
+    private boolean toValue (int start, boolean ref) {
+        if (ref) {
+            this.out.setByte(start, (this.out.getByte(start) & 0x1F) | CLASS_VAL);
+        }
+        return false;
+    }
+
+    private char peek () {
+        this.skipSpaces();
+        return this.charAt(this.pos);
+    }
+
+    private boolean accept (char ch) {
+        if (this.peek() == ch) {
+            this.pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect (char ch) {
+        if (!this.accept(ch)) {
+            throw this.error();
+        }
+    }
+
+    private void skipSpaces () {
+        while (this.pos < this.formula.length() && this.formula.charAt(this.pos) == ' ') {
+            this.pos++;
+        }
+    }
+
+    private char charAt (int i) {
+        return i < this.formula.length() ? this.formula.charAt(i) : '\0';
+    }
+
+    private IllegalArgumentException error () {
+        return new IllegalArgumentException("Unsupported syntax at position " + this.pos + " of the .xlsb formula: " + this.formula);
+    }
+
+    private static boolean isNamePart (char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_' || ch == '.' || ch == '$';
+    }
+
+    private static boolean regionIs (CharSequence s, int from, int to, String name) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (s.charAt(from + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
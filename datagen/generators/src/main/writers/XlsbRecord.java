@@ -0,0 +1,147 @@
+package writers;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A single record of a BIFF12 (.xlsb) part, built in a buffer that is
+ * reused from record to record. Every record is a variable-length
+ * header, holding its type and the size of its payload, followed by the
+ * payload, whose fields are little-endian.
+ */
+class XlsbRecord {
+
+    private byte[]  buf     = new byte[256];
+    private byte[]  header  = new byte[6];
+    private int     type    = -1;
+    private int     size    = 0;
+
+    /**
+     * Starts a record of type `type`, discarding the previous one.
+     *
+     * @param type
+     * @return This record.
+     */
+    XlsbRecord start (int type) {
+        this.type = type;
+        this.size = 0;
+        return this;
+    }
+
+    /**
+     * @return The number of bytes written to the payload so far.
+     */
+    int size () {
+        return this.size;
+    }
+
+    XlsbRecord writeByte (int v) {
+        this.ensureCapacity(1);
+        this.buf[this.size++] = (byte) v;
+        return this;
+    }
+
+    XlsbRecord writeShort (int v) {
+        this.ensureCapacity(2);
+        this.buf[this.size++] = (byte) v;
+        this.buf[this.size++] = (byte) (v >>> 8);
+        return this;
+    }
+
+    XlsbRecord writeInt (int v) {
+        this.ensureCapacity(4);
+        this.putInt(this.size, v);
+        this.size += 4;
+        return this;
+    }
+
+    XlsbRecord writeDouble (double v) {
+        long bits = Double.doubleToLongBits(v);
+        this.writeInt((int) bits);
+        return this.writeInt((int) (bits >>> 32));
+    }
+
+    /**
+     * Writes `s` as an XLWideString (its length, then its UTF-16 code
+     * units).
+     *
+     * @param s
+     * @return This record.
+     */
+    XlsbRecord writeString (CharSequence s) {
+        int n = s.length();
+        this.writeInt(n);
+        this.ensureCapacity(2 * n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            this.buf[this.size++] = (byte) c;
+            this.buf[this.size++] = (byte) (c >>> 8);
+        }
+        return this;
+    }
+
+    /**
+     * Overwrites the 4 bytes of the payload at `pos`, which must already
+     * have been written (e.g. a length that is only known afterwards).
+     *
+     * @param pos
+     * @param v
+     */
+    void setInt (int pos, int v) {
+        this.putInt(pos, v);
+    }
+
+    /**
+     * Sets the byte of the payload at `pos`.
+     *
+     * @param pos
+     * @param v
+     */
+    void setByte (int pos, int v) {
+        this.buf[pos] = (byte) v;
+    }
+
+    byte getByte (int pos) {
+        return this.buf[pos];
+    }
+
+    /**
+     * Writes the header and the payload of the record.
+     *
+     * @param out
+     * @throws IOException
+     */
+    void writeTo (XmlOutput out) throws IOException {
+        int n = 0;
+        // The type takes 7 bits per byte and the size 7 bits per byte,
+        // with the high bit of every byte but the last one set
+        for (int v = this.type; ; v >>>= 7) {
+            this.header[n++] = (byte) (v >= 0x80 ? (v & 0x7F) | 0x80 : v);
+            if (v < 0x80) {
+                break;
+            }
+        }
+        for (int v = this.size; ; v >>>= 7) {
+            this.header[n++] = (byte) (v >= 0x80 ? (v & 0x7F) | 0x80 : v);
+            if (v < 0x80) {
+                break;
+            }
+        }
+        out.writeBytes(this.header, 0, n);
+        out.writeBytes(this.buf, 0, this.size);
+    }
+
+    private void putInt (int pos, int v) {
+        this.buf[pos]       = (byte) v;
+        this.buf[pos + 1]   = (byte) (v >>> 8);
+        this.buf[pos + 2]   = (byte) (v >>> 16);
+        this.buf[pos + 3]   = (byte) (v >>> 24);
+    }
+
+    private void ensureCapacity (int n) {
+        if (this.size + n > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(this.size + n, this.buf.length * 2));
+        }
+    }
+
+}
@@ -0,0 +1,437 @@
+package writers;
+
+import java.nio.charset.StandardCharsets;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.io.File;
+
+/**
+ * Writes an .xlsb file, the binary (BIFF12) flavor of Excel's workbooks.
+ * The package is laid out like an .xlsx file, but its workbook, styles
+ * and sheet are sequences of records rather than XML, and formulas are
+ * stored as parsed tokens (see XlsbFormula) rather than as text. Like
+ * XlsxSheetWriter, `xl/worksheets/sheet1.bin` is streamed straight into
+ * the final archive as rows are created.
+ *
+ * Strings are stored in their cells rather than in a shared strings
+ * part, and the cached results of formulas that start with '#' are
+ * stored as errors (e.g. #N/A).
+ */
+public class XlsbSheetWriter implements ChunkableSheetWriter, RepeatableSheetWriter {
+
+    private static final String CONTENT_TYPES =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+        + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+        + "<Default ContentType=\"application/vnd.ms-excel.sheet.binary.macroEnabled.main\" Extension=\"bin\"/>"
+        + "<Default ContentType=\"application/vnd.openxmlformats-package.relationships+xml\" Extension=\"rels\"/>"
+        + "<Default ContentType=\"application/xml\" Extension=\"xml\"/>"
+        + "<Override ContentType=\"application/vnd.openxmlformats-officedocument.extended-properties+xml\" PartName=\"/docProps/app.xml\"/>"
+        + "<Override ContentType=\"application/vnd.openxmlformats-package.core-properties+xml\" PartName=\"/docProps/core.xml\"/>"
+        + "<Override ContentType=\"application/vnd.ms-excel.styles\" PartName=\"/xl/styles.bin\"/>"
+        + "<Override ContentType=\"application/vnd.ms-excel.worksheet\" PartName=\"/xl/worksheets/sheet1.bin\"/>"
+        + "</Types>";
+
+    private static final String ROOT_RELS =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+        + "<Relationship Id=\"rId1\" Target=\"xl/workbook.bin\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\"/>"
+        + "<Relationship Id=\"rId2\" Target=\"docProps/app.xml\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/extended-properties\"/>"
+        + "<Relationship Id=\"rId3\" Target=\"docProps/core.xml\" Type=\"http://schemas.openxmlformats.org/package/2006/relationships/metadata/core-properties\"/>"
+        + "</Relationships>";
+
+    private static final String WORKBOOK_RELS =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+        + "<Relationship Id=\"rId1\" Target=\"worksheets/sheet1.bin\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\"/>"
+        + "<Relationship Id=\"rId2\" Target=\"styles.bin\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\"/>"
+        + "</Relationships>";
+
+    // Record types, named as in [MS-XLSB]
+    private static final int BRT_ROW_HDR            = 0;
+    private static final int BRT_CELL_RK            = 2;
+    private static final int BRT_CELL_REAL          = 5;
+    private static final int BRT_CELL_ST            = 6;
+    private static final int BRT_FMLA_STRING        = 8;
+    private static final int BRT_FMLA_NUM           = 9;
+    private static final int BRT_FMLA_ERROR         = 11;
+    private static final int BRT_FONT               = 43;
+    private static final int BRT_FILL               = 45;
+    private static final int BRT_BORDER             = 46;
+    private static final int BRT_XF                 = 47;
+    private static final int BRT_STYLE              = 48;
+    private static final int BRT_FILE_VERSION       = 128;
+    private static final int BRT_BEGIN_SHEET        = 129;
+    private static final int BRT_END_SHEET          = 130;
+    private static final int BRT_BEGIN_BOOK         = 131;
+    private static final int BRT_END_BOOK           = 132;
+    private static final int BRT_BEGIN_WS_VIEWS     = 133;
+    private static final int BRT_END_WS_VIEWS       = 134;
+    private static final int BRT_BEGIN_BOOK_VIEWS   = 135;
+    private static final int BRT_END_BOOK_VIEWS     = 136;
+    private static final int BRT_BEGIN_WS_VIEW      = 137;
+    private static final int BRT_END_WS_VIEW        = 138;
+    private static final int BRT_BEGIN_BUNDLE_SHS   = 143;
+    private static final int BRT_END_BUNDLE_SHS     = 144;
+    private static final int BRT_BEGIN_SHEET_DATA   = 145;
+    private static final int BRT_END_SHEET_DATA     = 146;
+    private static final int BRT_WS_DIM             = 148;
+    private static final int BRT_WB_PROP            = 153;
+    private static final int BRT_BUNDLE_SH          = 156;
+    private static final int BRT_CALC_PROP          = 157;
+    private static final int BRT_BOOK_VIEW          = 158;
+    private static final int BRT_BEGIN_STYLE_SHEET  = 278;
+    private static final int BRT_END_STYLE_SHEET    = 279;
+    private static final int BRT_BEGIN_FILLS        = 603;
+    private static final int BRT_END_FILLS          = 604;
+    private static final int BRT_BEGIN_FONTS        = 611;
+    private static final int BRT_END_FONTS          = 612;
+    private static final int BRT_BEGIN_BORDERS      = 613;
+    private static final int BRT_END_BORDERS        = 614;
+    private static final int BRT_BEGIN_CELL_XFS     = 617;
+    private static final int BRT_END_CELL_XFS       = 618;
+    private static final int BRT_BEGIN_STYLES       = 619;
+    private static final int BRT_END_STYLES         = 620;
+    private static final int BRT_BEGIN_STYLE_XFS    = 626;
+    private static final int BRT_END_STYLE_XFS      = 627;
+
+    /** The height of a row in twips (15 points, as in XlsxSheetWriter) */
+    private static final int ROW_HEIGHT = 300;
+
+    /** The number of columns that each span of a row header covers */
+    private static final int SPAN_COLS = 1024;
+
+    /** See XlsxSheetWriter's CALC_ID */
+    private static final int CALC_ID = 191029;
+
+    private final ZipWriter     zip;
+    private final OutputStream  sheet;
+    private final XmlOutput     out;
+    private final RowStream     rows;
+    private final XlsbRecord    record;
+
+    /**
+     * @param name The name of the file to create.
+     * @param options Whether the workbook has calculation properties, and
+     * the settings of its archive.
+     * @throws IOException
+     */
+    public XlsbSheetWriter (String name, WriterOptions options) throws IOException {
+        this.zip    = new ZipWriter(name, XlsxSheetWriter.ENTRY_TIME, options);
+        this.record = new XlsbRecord();
+        try {
+            this.writeEntry("[Content_Types].xml"       , CONTENT_TYPES);
+            this.writeEntry("_rels/.rels"               , ROOT_RELS);
+            this.writeEntry("docProps/app.xml"          , XlsxSheetWriter.APP);
+            this.writeEntry("docProps/core.xml"         , String.format(XlsxSheetWriter.CORE, XlsxSheetWriter.DOCUMENT_TIME));
+            this.zip.writeEntry("xl/styles.bin"         , this.getStyles(), true);
+            this.zip.writeEntry("xl/workbook.bin"       , this.getWorkbook(options.getFullCalcOnLoad()), true);
+            this.writeEntry("xl/_rels/workbook.bin.rels", WORKBOOK_RELS);
+            this.sheet  = this.zip.openEntry("xl/worksheets/sheet1.bin");
+            this.out    = new XmlOutput(this.sheet);
+            this.rows   = new RowStream(new Rows(), this.out);
+            this.writeSheetHead(this.out);
+        } catch (IOException | RuntimeException e) {
+            this.zip.abort();
+            throw e;
+        }
+    }
+
+    @Override
+    public RowWriter createRow (int r) throws IOException {
+        return this.rows.createRow(r);
+    }
+
+    @Override
+    public RowWriter createProbe (int r) throws IOException {
+        return this.rows.createProbe(r);
+    }
+
+    @Override
+    public void repeatRow (int to) throws IOException {
+        this.rows.repeatRow(to);
+    }
+
+    @Override
+    public SheetWriter createChunk (int from, int to, File file) throws IOException {
+        return RowStream.chunk(new Rows(), from, to, file);
+    }
+
+    @Override
+    public void appendChunk (int from, int to, File file) throws IOException {
+        this.rows.append(from, to, file);
+    }
+
+    @Override
+    public void close () throws IOException {
+        try {
+            this.rows.flush();
+            this.record.start(BRT_END_SHEET_DATA).writeTo(this.out);
+            this.record.start(BRT_END_SHEET).writeTo(this.out);
+            this.out.close();
+            this.sheet.close();
+        } finally {
+            this.zip.close();
+        }
+    }
+
+    private void writeSheetHead (XmlOutput out) throws IOException {
+        XlsbRecord rec = this.record;
+        rec.start(BRT_BEGIN_SHEET).writeTo(out);
+        // Like the dimension of XlsxSheetWriter, A1 (the extent of the sheet
+        // is not known until it has been written)
+        rec.start(BRT_WS_DIM).writeInt(0).writeInt(0).writeInt(0).writeInt(0).writeTo(out);
+        rec.start(BRT_BEGIN_WS_VIEWS).writeTo(out);
+        // Shows the grid, the headers and zeros, and selects the sheet
+        rec.start(BRT_BEGIN_WS_VIEW).writeShort(0x035C).writeInt(0).writeInt(0).writeInt(0)
+            .writeByte(64).writeByte(0).writeShort(100).writeShort(0).writeShort(0).writeShort(0).writeInt(0).writeTo(out);
+        rec.start(BRT_END_WS_VIEW).writeTo(out);
+        rec.start(BRT_END_WS_VIEWS).writeTo(out);
+        rec.start(BRT_BEGIN_SHEET_DATA).writeTo(out);
+    }
+
+    /**
+     * @return The same styles as XlsxSheetWriter: one font, the two fills
+     * that Excel requires, one border and the Normal style, which every
+     * cell uses.
+     * @throws IOException
+     */
+    private byte[] getStyles () throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (XmlOutput out = new XmlOutput(bytes)) {
+            XlsbRecord rec = this.record;
+            rec.start(BRT_BEGIN_STYLE_SHEET).writeTo(out);
+            rec.start(BRT_BEGIN_FONTS).writeInt(1).writeTo(out);
+            // 11pt, regular weight, Swiss family, the minor font of the theme
+            rec.start(BRT_FONT).writeShort(220).writeShort(0).writeShort(400).writeShort(0)
+                .writeByte(0).writeByte(2).writeByte(0).writeByte(0);
+            XlsbSheetWriter.writeColor(rec, 8);
+            rec.writeByte(2).writeString("Calibri").writeTo(out);
+            rec.start(BRT_END_FONTS).writeTo(out);
+            rec.start(BRT_BEGIN_FILLS).writeInt(2).writeTo(out);
+            this.writeFill(out, 0x00);
+            this.writeFill(out, 0x11);
+            rec.start(BRT_END_FILLS).writeTo(out);
+            rec.start(BRT_BEGIN_BORDERS).writeInt(1).writeTo(out);
+            rec.start(BRT_BORDER).writeByte(0);
+            for (int side = 0; side < 5; side++) {
+                rec.writeByte(0).writeByte(0).writeInt(0).writeInt(0);
+            }
+            rec.writeTo(out);
+            rec.start(BRT_END_BORDERS).writeTo(out);
+            rec.start(BRT_BEGIN_STYLE_XFS).writeInt(1).writeTo(out);
+            this.writeXf(out, 0xFFFF);
+            rec.start(BRT_END_STYLE_XFS).writeTo(out);
+            rec.start(BRT_BEGIN_CELL_XFS).writeInt(1).writeTo(out);
+            this.writeXf(out, 0);
+            rec.start(BRT_END_CELL_XFS).writeTo(out);
+            rec.start(BRT_BEGIN_STYLES).writeInt(1).writeTo(out);
+            rec.start(BRT_STYLE).writeInt(0).writeShort(1).writeByte(0).writeByte(0xFF).writeString("Normal").writeTo(out);
+            rec.start(BRT_END_STYLES).writeTo(out);
+            rec.start(BRT_END_STYLE_SHEET).writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void writeFill (XmlOutput out, int pattern) throws IOException {
+        XlsbRecord rec = this.record.start(BRT_FILL).writeInt(pattern);
+        // The system foreground and background colors
+        XlsbSheetWriter.writeColor(rec, 64);
+        XlsbSheetWriter.writeColor(rec, 65);
+        // No gradient
+        rec.writeInt(0);
+        for (int i = 0; i < 5; i++) {
+            rec.writeDouble(0.0);
+        }
+        rec.writeInt(0).writeTo(out);
+    }
+
+    /**
+     * @param out
+     * @param parent The index of the cell style that the format inherits
+     * from, or 0xFFFF for a cell style.
+     * @throws IOException
+     */
+    private void writeXf (XmlOutput out, int parent) throws IOException {
+        // General number format, font 0, fill 0, border 0, bottom-aligned
+        // and locked
+        this.record.start(BRT_XF).writeShort(parent).writeShort(0).writeShort(0).writeShort(0).writeShort(0)
+            .writeByte(0).writeByte(0).writeInt(0x1010).writeTo(out);
+    }
+
+    private static void writeColor (XlsbRecord rec, int index) {
+        // An indexed color, without a tint, followed by unused RGBA bytes
+        rec.writeByte(0x02).writeByte(index).writeShort(0).writeByte(0).writeByte(0).writeByte(0).writeByte(0xFF);
+    }
+
+    /**
+     * @param full See WriterOptions.withFullCalcOnLoad.
+     * @return The workbook, with a single sheet named Sheet1. Its
+     * calculation properties are only written if `full` is not null, like
+     * the calcPr element of .xlsx files.
+     * @throws IOException
+     */
+    private byte[] getWorkbook (Boolean full) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (XmlOutput out = new XmlOutput(bytes)) {
+            XlsbRecord rec = this.record;
+            rec.start(BRT_BEGIN_BOOK).writeTo(out);
+            rec.start(BRT_FILE_VERSION);
+            for (int i = 0; i < 4; i++) {
+                rec.writeInt(0);
+            }
+            rec.writeString("xl").writeString("7").writeString("7").writeString("24816").writeTo(out);
+            rec.start(BRT_WB_PROP).writeInt(0).writeInt(0).writeString("").writeTo(out);
+            rec.start(BRT_BEGIN_BOOK_VIEWS).writeTo(out);
+            rec.start(BRT_BOOK_VIEW).writeInt(0).writeInt(0).writeInt(0).writeInt(0).writeInt(600)
+                .writeInt(0).writeInt(0).writeByte(0x38).writeTo(out);
+            rec.start(BRT_END_BOOK_VIEWS).writeTo(out);
+            rec.start(BRT_BEGIN_BUNDLE_SHS).writeTo(out);
+            rec.start(BRT_BUNDLE_SH).writeInt(0).writeInt(1).writeString("rId1").writeString("Sheet1").writeTo(out);
+            rec.start(BRT_END_BUNDLE_SHS).writeTo(out);
+            if (full != null) {
+                // Automatic, 100 iterations with a delta of 0.001 if they
+                // are turned on, A1-style references and recalculated
+                // before saving
+                rec.start(BRT_CALC_PROP).writeInt(CALC_ID).writeInt(1).writeInt(100).writeDouble(0.001).writeInt(0)
+                    .writeShort((full ? 0x01 : 0x00) | 0x02 | 0x20 | 0x40).writeInt(0).writeTo(out);
+            }
+            rec.start(BRT_END_BOOK).writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param error
+     * @return The code that BIFF stores for `error` (e.g. 0x2A for
+     * #N/A).
+     */
+    static int errorCode (String error) {
+        switch (error) {
+            case "#NULL!"   : return 0x00;
+            case "#DIV/0!"  : return 0x07;
+            case "#VALUE!"  : return 0x0F;
+            case "#REF!"    : return 0x17;
+            case "#NAME?"   : return 0x1D;
+            case "#NUM!"    : return 0x24;
+            case "#N/A"     : return 0x2A;
+            default         : throw new IllegalArgumentException("Unknown error value: " + error);
+        }
+    }
+
+    private void writeEntry (String name, String content) throws IOException {
+        this.zip.writeEntry(name, content.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    private static class Rows implements RowSerializer {
+
+        private final XlsbRecord    record  = new XlsbRecord();
+        private final XlsbFormula   formula = new XlsbFormula();
+
+        @Override
+        public void writeRow (XmlOutput out, RowBuffer row) throws IOException {
+            this.writeHeader(out, row);
+            for (int c = 0, width = row.width(); c < width; c++) {
+                switch (row.type(c)) {
+                    case RowBuffer.NUMBER:
+                        this.writeNumber(out, c, row.number(c));
+                        break;
+                    case RowBuffer.STRING:
+                        this.record.start(BRT_CELL_ST).writeInt(c).writeInt(0).writeString(row.text(c)).writeTo(out);
+                        break;
+                    case RowBuffer.FORMULA:
+                        this.writeFormula(out, row, c);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Rows without cells are simply left out, as in SpreadsheetML.
+         */
+        @Override
+        public void writeSkippedRows (XmlOutput out, int count) {
+        }
+
+        /**
+         * Writes the header of `row`, which lists the columns that hold
+         * cells in each block of `SPAN_COLS` columns.
+         */
+        private void writeHeader (XmlOutput out, RowBuffer row) throws IOException {
+            int width = row.width();
+            int spans = 0;
+            for (int b = 0; b < width; b += SPAN_COLS) {
+                if (Rows.firstCell(row, b) >= 0) {
+                    spans++;
+                }
+            }
+            XlsbRecord rec = this.record.start(BRT_ROW_HDR).writeInt(row.row()).writeInt(0).writeShort(ROW_HEIGHT)
+                .writeByte(0).writeByte(0).writeByte(0).writeInt(spans);
+            for (int b = 0; b < width; b += SPAN_COLS) {
+                int first = Rows.firstCell(row, b);
+                if (first >= 0) {
+                    int last = Math.min(b + SPAN_COLS, width) - 1;
+                    while (row.type(last) == RowBuffer.EMPTY) {
+                        last--;
+                    }
+                    rec.writeInt(first).writeInt(last);
+                }
+            }
+            rec.writeTo(out);
+        }
+
+        /**
+         * Writes `v` as an RK number (4 bytes) if it is an integer of up
+         * to 30 bits or a double whose lower 34 bits are zero, which
+         * covers the values of most layouts, and as a double otherwise.
+         */
+        private void writeNumber (XmlOutput out, int c, double v) throws IOException {
+            long bits = Double.doubleToRawLongBits(v);
+            if (v == (int) v && Math.abs(v) < (1 << 29) && bits != Long.MIN_VALUE) {
+                this.record.start(BRT_CELL_RK).writeInt(c).writeInt(0).writeInt(((int) v << 2) | 0x02).writeTo(out);
+            } else if ((bits & 0x3FFFFFFFFL) == 0) {
+                this.record.start(BRT_CELL_RK).writeInt(c).writeInt(0).writeInt((int) (bits >>> 32)).writeTo(out);
+            } else {
+                this.record.start(BRT_CELL_REAL).writeInt(c).writeInt(0).writeDouble(v).writeTo(out);
+            }
+        }
+
+        private void writeFormula (XmlOutput out, RowBuffer row, int c) throws IOException {
+            XlsbRecord rec = this.record;
+            // Without a cached result, the value is left at 0 like SXSSF does
+            if (row.result(c) != RowBuffer.STRING) {
+                double result = row.result(c) == RowBuffer.NUMBER ? row.number(c) : 0.0;
+                rec.start(BRT_FMLA_NUM).writeInt(c).writeInt(0).writeDouble(result);
+            } else if (row.text(c).startsWith("#")) {
+                rec.start(BRT_FMLA_ERROR).writeInt(c).writeInt(0).writeByte(XlsbSheetWriter.errorCode(row.text(c)));
+            } else {
+                rec.start(BRT_FMLA_STRING).writeInt(c).writeInt(0).writeString(row.text(c));
+            }
+            // No flags, then the size of the tokens, which is only known
+            // once they are written, the tokens and no extra data
+            rec.writeShort(0);
+            int size = rec.size();
+            rec.writeInt(0);
+            this.formula.encode(row.formula(c), rec);
+            rec.setInt(size, rec.size() - size - 4);
+            rec.writeInt(0).writeTo(out);
+        }
+
+        /**
+         * @param row
+         * @param from
+         * @return The first column from `from` on, in the same block of
+         * `SPAN_COLS` columns, that holds a cell, or -1 if there is none.
+         */
+        private static int firstCell (RowBuffer row, int from) {
+            for (int c = from, to = Math.min(from + SPAN_COLS, row.width()); c < to; c++) {
+                if (row.type(c) != RowBuffer.EMPTY) {
+                    return c;
+                }
+            }
+            return -1;
+        }
+
+    }
+
+}
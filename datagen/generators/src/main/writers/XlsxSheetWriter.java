@@ -0,0 +1,411 @@
+package writers;
+
+import org.apache.poi.ss.util.CellReference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.io.File;
+
+/**
+ * Writes an .xlsx file by streaming `xl/worksheets/sheet1.xml` straight
+ * into the final archive as rows are created. No temporary files are
+ * used and no cell objects are kept once a row has been serialized. The
+ * package layout and the markup mirror what SXSSF produces, so POI and
+ * Excel open both files the same way.
+ */
+public class XlsxSheetWriter implements ChunkableSheetWriter, RepeatableSheetWriter {
+
+    /** SXSSF writes every entry with a zeroed DOS timestamp */
+    static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 1, 1, 0, 0);
+
+    /**
+     * The creation time written into every streamed file, so that the same
+     * sheet always gets the same bytes. It is taken from SOURCE_DATE_EPOCH
+     * (seconds since 1970, as for reproducible builds) if it is set, and is
+     * ENTRY_TIME otherwise.
+     */
+    static final Instant DOCUMENT_TIME = XlsxSheetWriter.resolveDocumentTime(System.getenv("SOURCE_DATE_EPOCH"));
+
+    private static final String CONTENT_TYPES =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+        + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+        + "<Default ContentType=\"application/vnd.openxmlformats-package.relationships+xml\" Extension=\"rels\"/>"
+        + "<Default ContentType=\"application/xml\" Extension=\"xml\"/>"
+        + "<Override ContentType=\"application/vnd.openxmlformats-officedocument.extended-properties+xml\" PartName=\"/docProps/app.xml\"/>"
+        + "<Override ContentType=\"application/vnd.openxmlformats-package.core-properties+xml\" PartName=\"/docProps/core.xml\"/>"
+        + "<Override ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\" PartName=\"/xl/sharedStrings.xml\"/>"
+        + "<Override ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\" PartName=\"/xl/styles.xml\"/>"
+        + "<Override ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\" PartName=\"/xl/workbook.xml\"/>"
+        + "<Override ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\" PartName=\"/xl/worksheets/sheet1.xml\"/>"
+        + "%s</Types>";
+
+    private static final String ROOT_RELS =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+        + "<Relationship Id=\"rId1\" Target=\"xl/workbook.xml\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\"/>"
+        + "<Relationship Id=\"rId2\" Target=\"docProps/app.xml\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/extended-properties\"/>"
+        + "<Relationship Id=\"rId3\" Target=\"docProps/core.xml\" Type=\"http://schemas.openxmlformats.org/package/2006/relationships/metadata/core-properties\"/>"
+        + "</Relationships>";
+
+    static final String APP =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<Properties xmlns=\"http://schemas.openxmlformats.org/officeDocument/2006/extended-properties\"><Application>Apache POI</Application></Properties>";
+
+    static final String CORE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+        + "<cp:coreProperties xmlns:cp=\"http://schemas.openxmlformats.org/package/2006/metadata/core-properties\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:dcterms=\"http://purl.org/dc/terms/\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
+        + "<dcterms:created xsi:type=\"dcterms:W3CDTF\">%s</dcterms:created><dc:creator>Apache POI</dc:creator></cp:coreProperties>";
+
+    private static final String SHARED_STRINGS =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<sst count=\"0\" uniqueCount=\"0\" xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"/>";
+
+    private static final String STYLES =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><numFmts count=\"0\"/>"
+        + "<fonts count=\"1\"><font><sz val=\"11.0\"/><color indexed=\"8\"/><name val=\"Calibri\"/><family val=\"2\"/><scheme val=\"minor\"/></font></fonts>"
+        + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"darkGray\"/></fill></fills>"
+        + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+        + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+        + "<cellXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/></cellXfs></styleSheet>";
+
+    private static final String WORKBOOK =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+        + "<workbookPr date1904=\"false\"/><bookViews><workbookView activeTab=\"0\"/></bookViews>"
+        + "<sheets><sheet name=\"Sheet1\" r:id=\"rId3\" sheetId=\"1\"/></sheets>%s</workbook>";
+
+    /**
+     * The calcId of Excel 2019 and 365. Excel recalculates workbooks that
+     * were saved by an older calculation engine when it opens them, so
+     * their cached results are only trusted if the calcId is this recent.
+     */
+    private static final String CALC_ID = "191029";
+
+    private static final String WORKBOOK_RELS =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+        + "<Relationship Id=\"rId1\" Target=\"sharedStrings.xml\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings\"/>"
+        + "<Relationship Id=\"rId2\" Target=\"styles.xml\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\"/>"
+        + "<Relationship Id=\"rId3\" Target=\"worksheets/sheet1.xml\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\"/>"
+        + "%s</Relationships>";
+
+    private static final String CALC_CHAIN_TYPE =
+        "<Override ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.calcChain+xml\" PartName=\"/xl/calcChain.xml\"/>";
+
+    private static final String CALC_CHAIN_REL =
+        "<Relationship Id=\"rId4\" Target=\"calcChain.xml\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/calcChain\"/>";
+
+    private static final String SHEET_HEAD =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><dimension ref=\"A1\"/>"
+        + "<sheetViews><sheetView workbookViewId=\"0\" tabSelected=\"true\"/></sheetViews>"
+        + "<sheetFormatPr defaultRowHeight=\"15.0\"/><sheetData>\n";
+
+    private static final String SHEET_TAIL =
+        "</sheetData><pageMargins bottom=\"0.75\" footer=\"0.3\" header=\"0.3\" left=\"0.7\" right=\"0.7\" top=\"0.75\"/></worksheet>";
+
+    private final ZipWriter                     zip;
+    private final boolean                       shared;
+    private final OutputStream                  sheet;
+    private final XmlOutput                     out;
+    private final RowStream                     rows;
+    private final CalcChain                     chain;
+    private final Map<Integer, CalcChain>       chunks;
+
+    /**
+     * @param name The name of the file to create.
+     * @param options Whether the sheet has shared formulas, a calculation
+     * chain and calculation properties, and the settings of its archive.
+     * @throws IOException
+     */
+    public XlsxSheetWriter (String name, WriterOptions options) throws IOException {
+        this.zip    = new ZipWriter(name, ENTRY_TIME, options);
+        this.shared = options.isSharedFormulas();
+        this.chain  = options.isCalcChain() ? new CalcChain() : null;
+        this.chunks = new ConcurrentHashMap<>();
+        try {
+            // The parts that refer to the calculation chain are written once
+            // it is known whether the sheet has any formulas
+            if (this.chain == null) {
+                this.writeEntry("[Content_Types].xml"       , String.format(CONTENT_TYPES, ""));
+            }
+            this.writeEntry("_rels/.rels"                   , ROOT_RELS);
+            this.writeEntry("docProps/app.xml"              , APP);
+            this.writeEntry("docProps/core.xml"             , String.format(CORE, DOCUMENT_TIME));
+            this.writeEntry("xl/sharedStrings.xml"          , SHARED_STRINGS);
+            this.writeEntry("xl/styles.xml"                 , STYLES);
+            this.writeEntry("xl/workbook.xml"               , String.format(WORKBOOK, XlsxSheetWriter.getCalcPr(options.getFullCalcOnLoad())));
+            if (this.chain == null) {
+                this.writeEntry("xl/_rels/workbook.xml.rels", String.format(WORKBOOK_RELS, ""));
+            }
+            this.sheet  = this.zip.openEntry("xl/worksheets/sheet1.xml");
+            this.out    = new XmlOutput(this.sheet);
+            this.rows   = new RowStream(new Rows(0, this.chain, this.shared), this.out);
+            this.out.write(SHEET_HEAD);
+        } catch (IOException | RuntimeException e) {
+            this.zip.abort();
+            throw e;
+        }
+    }
+
+    @Override
+    public RowWriter createRow (int r) throws IOException {
+        return this.rows.createRow(r);
+    }
+
+    @Override
+    public RowWriter createProbe (int r) throws IOException {
+        return this.rows.createProbe(r);
+    }
+
+    @Override
+    public void repeatRow (int to) throws IOException {
+        this.rows.repeatRow(to);
+    }
+
+    @Override
+    public SheetWriter createChunk (int from, int to, File file) throws IOException {
+        CalcChain chain = null;
+        if (this.chain != null) {
+            chain = new CalcChain();
+            this.chunks.put(from, chain);
+        }
+        return RowStream.chunk(new Rows(from, chain, this.shared), from, to, file);
+    }
+
+    @Override
+    public void appendChunk (int from, int to, File file) throws IOException {
+        this.rows.append(from, to, file);
+        if (this.chain != null) {
+            // The rows held back by this stream come before the chunk
+            this.chain.append(this.chunks.remove(from));
+        }
+    }
+
+    @Override
+    public void close () throws IOException {
+        try {
+            this.rows.flush();
+            this.out.write(SHEET_TAIL);
+            this.out.close();
+            this.sheet.close();
+            if (this.chain != null) {
+                this.writeCalcChain();
+            }
+        } finally {
+            this.zip.close();
+        }
+    }
+
+    private static String getCalcPr (Boolean fullCalcOnLoad) {
+        if (fullCalcOnLoad == null) {
+            return "";
+        }
+        return fullCalcOnLoad
+            ? "<calcPr calcId=\"" + CALC_ID + "\" fullCalcOnLoad=\"1\"/>"
+            : "<calcPr calcId=\"" + CALC_ID + "\" fullCalcOnLoad=\"0\"/>";
+    }
+
+    private static Instant resolveDocumentTime (String epoch) {
+        if (epoch == null || epoch.trim().length() == 0) {
+            return ENTRY_TIME.toInstant(ZoneOffset.UTC);
+        }
+        return Instant.ofEpochSecond(Long.parseLong(epoch.trim()));
+    }
+
+    private void writeCalcChain () throws IOException {
+        boolean empty = this.chain.isEmpty();
+        if (!empty) {
+            try (OutputStream entry = this.zip.openEntry("xl/calcChain.xml"); XmlOutput out = new XmlOutput(entry)) {
+                this.chain.writeTo(out);
+            }
+        }
+        // An empty chain is not valid, so sheets without formulas have none
+        this.writeEntry("[Content_Types].xml"           , String.format(CONTENT_TYPES, empty ? "" : CALC_CHAIN_TYPE));
+        this.writeEntry("xl/_rels/workbook.xml.rels"    , String.format(WORKBOOK_RELS, empty ? "" : CALC_CHAIN_REL));
+    }
+
+    private void writeEntry (String name, String content) throws IOException {
+        this.zip.writeEntry(name, content.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    private static class Rows implements RowSerializer {
+
+        private final SharedFormulas    shared;
+        private final CalcChain         chain;
+        private String[]                colNames = new String[0];
+
+        /**
+         * @param from The first row that is written.
+         * @param chain The chain that formula cells are added to, or null.
+         * @param shared True to write shared formulas.
+         */
+        Rows (int from, CalcChain chain, boolean shared) {
+            this.shared = shared ? new SharedFormulas(from) : null;
+            this.chain  = chain;
+        }
+
+        @Override
+        public void writeRow (XmlOutput out, RowBuffer row) throws IOException {
+            if (this.shared == null) {
+                this.writeRow(out, row, -1);
+                return;
+            }
+            if (!this.shared.accepts(row.row())) {
+                this.flush(out);
+            }
+            if (this.shared.add(row)) {
+                this.flush(out);
+            }
+        }
+
+        /**
+         * Writes the rows that are held back for shared formulas.
+         */
+        @Override
+        public void flush (XmlOutput out) throws IOException {
+            if (this.shared == null || this.shared.isEmpty()) {
+                return;
+            }
+            this.shared.group();
+            for (int i = 0; i < this.shared.size(); i++) {
+                this.writeRow(out, this.shared.get(i), i);
+            }
+            this.shared.clear();
+        }
+
+        /**
+         * @param out
+         * @param row
+         * @param i The index of `row` in the block of shared formulas,
+         * or -1 if formulas are not shared.
+         * @throws IOException
+         */
+        private void writeRow (XmlOutput out, RowBuffer row, int i) throws IOException {
+            int r = row.row() + 1;
+            out.write("<row r=\"");
+            out.write(r);
+            out.write("\">\n");
+            for (int c = 0, width = row.width(); c < width; c++) {
+                byte type = row.type(c);
+                if (type == RowBuffer.EMPTY) {
+                    continue;
+                }
+                out.write("<c r=\"");
+                out.write(this.getColName(c));
+                out.write(r);
+                switch (type) {
+                    case RowBuffer.NUMBER:
+                        out.write("\" t=\"n\"><v>");
+                        out.write(row.number(c));
+                        out.write("</v></c>");
+                        break;
+                    case RowBuffer.FORMULA:
+                        this.writeFormula(out, row, i, c);
+                        if (this.chain != null) {
+                            this.chain.add(row.row(), c);
+                        }
+                        break;
+                    case RowBuffer.STRING:
+                        out.write("\" t=\"inlineStr\"><is><t>");
+                        out.writeEscaped(row.text(c));
+                        out.write("</t></is></c>");
+                        break;
+                }
+            }
+            out.write("</row>\n");
+        }
+
+        /**
+         * Shared formulas hold rows back and the calculation chain keeps
+         * track of every formula cell.
+         */
+        @Override
+        public boolean isStateless () {
+            return this.shared == null && this.chain == null;
+        }
+
+        /**
+         * Rows without cells are simply left out of SpreadsheetML.
+         */
+        @Override
+        public void writeSkippedRows (XmlOutput out, int count) {
+        }
+
+        private void writeFormula (XmlOutput out, RowBuffer row, int i, int c) throws IOException {
+            byte role   = i < 0 ? SharedFormulas.PLAIN : this.shared.role(i, c);
+            byte result = row.result(c);
+            if (result == RowBuffer.STRING) {
+                out.write(row.text(c).startsWith("#") ? "\" t=\"e\">" : "\" t=\"str\">");
+            } else if (role == SharedFormulas.FOLLOWER) {
+                // Numbers are the default type, which keeps the most
+                // common cells of a shared sheet as short as possible
+                out.write("\">");
+            } else {
+                out.write("\" t=\"n\">");
+            }
+            switch (role) {
+                case SharedFormulas.PLAIN:
+                    out.write("<f>");
+                    out.writeEscaped(row.formula(c));
+                    out.write("</f>");
+                    break;
+                case SharedFormulas.MASTER:
+                    int[] ref = this.shared.ref(c);
+                    out.write("<f t=\"shared\" ref=\"");
+                    out.write(this.getColName(c));
+                    out.write(ref[0]);
+                    out.write(':');
+                    out.write(this.getColName(c));
+                    out.write(ref[1]);
+                    out.write("\" si=\"");
+                    out.write(this.shared.id(c));
+                    out.write("\">");
+                    out.writeEscaped(this.shared.masterFormula(c));
+                    out.write("</f>");
+                    break;
+                case SharedFormulas.FOLLOWER:
+                    out.write("<f t=\"shared\" si=\"");
+                    out.write(this.shared.id(c));
+                    out.write("\"/>");
+                    break;
+            }
+            // Without a cached result, the value is left at 0 like SXSSF does
+            switch (result) {
+                case RowBuffer.NUMBER:
+                    out.write("<v>");
+                    out.write(row.number(c));
+                    out.write("</v></c>");
+                    break;
+                case RowBuffer.STRING:
+                    out.write("<v>");
+                    out.writeEscaped(row.text(c));
+                    out.write("</v></c>");
+                    break;
+                default:
+                    out.write("<v>0.0</v></c>");
+            }
+        }
+
+        private String getColName (int c) {
+            if (c >= this.colNames.length) {
+                int from = this.colNames.length;
+                this.colNames = Arrays.copyOf(this.colNames, Math.max(c + 1, from * 2));
+                for (int i = from; i < this.colNames.length; i++) {
+                    this.colNames[i] = CellReference.convertNumToColString(i);
+                }
+            }
+            return this.colNames[c];
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+package writers;
+
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.io.File;
+
+/**
+ * A minimal buffered UTF-8 writer for generating XML parts. Unlike an
+ * OutputStreamWriter, markup and numbers are written straight into a
+ * byte buffer without going through a CharsetEncoder. Closing this
+ * object flushes it but does NOT close the underlying stream (which is
+ * usually a zip entry that still has to be finished).
+ */
+public class XmlOutput implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream  out;
+    private final byte[]        buf;
+    private int                 pos;
+
+    public XmlOutput (OutputStream out) {
+        this.out = out;
+        this.buf = new byte[BUFFER_SIZE];
+        this.pos = 0;
+    }
+
+    /**
+     * Writes `s` as-is, without escaping anything.
+     *
+     * @param s
+     * @throws IOException
+     */
+    public void write (CharSequence s) throws IOException {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            this.writeChar(s.charAt(i));
+        }
+    }
+
+    public void write (char c) throws IOException {
+        this.writeChar(c);
+    }
+
+    /**
+     * Writes the decimal representation of `v`.
+     *
+     * @param v
+     * @throws IOException
+     */
+    public void write (int v) throws IOException {
+        if (v < 0) {
+            if (v == Integer.MIN_VALUE) { this.write(Integer.toString(v)); return; }
+            this.writeByte('-');
+            v = -v;
+        }
+        if (this.pos + 10 > this.buf.length) { this.flush(); }
+        int end = this.pos + stringSize(v);
+        int idx = end;
+        do {
+            this.buf[--idx] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        this.pos = end;
+    }
+
+    /**
+     * Writes `v` in the notation of Double.toString, which is what POI and
+     * fastods write, without going through a String (see DoubleFormat).
+     *
+     * @param v
+     * @throws IOException
+     */
+    public void write (double v) throws IOException {
+        if (this.pos + DoubleFormat.MAX_LENGTH > this.buf.length) { this.flush(); }
+        this.pos = DoubleFormat.write(v, this.buf, this.pos);
+    }
+
+    /**
+     * Writes `s` with the characters that are not allowed in XML text
+     * or attribute values replaced by their entities.
+     *
+     * @param s
+     * @throws IOException
+     */
+    public void writeEscaped (CharSequence s) throws IOException {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&'    : this.write("&amp;");  break;
+                case '<'    : this.write("&lt;");   break;
+                case '>'    : this.write("&gt;");   break;
+                case '"'    : this.write("&quot;"); break;
+                default     : this.writeChar(c);
+            }
+        }
+    }
+
+    /**
+     * Writes `len` bytes of `b`, starting at `off`, as-is. Used by the
+     * writers of binary parts, which share the buffering and chunking of
+     * the XML ones.
+     *
+     * @param b
+     * @param off
+     * @param len
+     * @throws IOException
+     */
+    public void writeBytes (byte[] b, int off, int len) throws IOException {
+        if (len > this.buf.length - this.pos) {
+            this.flush();
+            if (len > this.buf.length) {
+                this.out.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, this.buf, this.pos, len);
+        this.pos += len;
+    }
+
+    /**
+     * Writes the contents of `file` as-is. If the underlying stream is a
+     * file, the bytes are transferred between the two files by the
+     * operating system without being copied through the heap.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void copyFrom (File file) throws IOException {
+        this.flush();
+        if (this.out instanceof FileOutputStream) {
+            FileChannel target = ((FileOutputStream) this.out).getChannel();
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                for (long pos = 0, size = in.size(); pos < size; ) {
+                    pos += in.transferTo(pos, size - pos, target);
+                }
+            }
+        } else {
+            Files.copy(file.toPath(), this.out);
+        }
+    }
+
+    public void flush () throws IOException {
+        if (this.pos > 0) {
+            this.out.write(this.buf, 0, this.pos);
+            this.pos = 0;
+        }
+    }
+
+    @Override
+    public void close () throws IOException {
+        this.flush();
+    }
+
+    private void writeByte (int b) throws IOException {
+        if (this.pos == this.buf.length) { this.flush(); }
+        this.buf[this.pos++] = (byte) b;
+    }
+
+    private void writeChar (char c) throws IOException {
+        if (c < 0x80) {
+            this.writeByte(c);
+        } else if (c < 0x800) {
+            this.writeByte(0xC0 | (c >> 6));
+            this.writeByte(0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            // Characters outside of the BMP never appear in generated sheets
+            this.writeByte('?');
+        } else {
+            this.writeByte(0xE0 | (c >> 12));
+            this.writeByte(0x80 | ((c >> 6) & 0x3F));
+            this.writeByte(0x80 | (c & 0x3F));
+        }
+    }
+
+    private static int stringSize (int v) {
+        int size = 1;
+        while (v >= 10) { v /= 10; size++; }
+        return size;
+    }
+
+}
@@ -0,0 +1,520 @@
+package writers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.time.LocalDateTime;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Deflater;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.Arrays;
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a zip archive for the streaming sheet writers. Small parts are
+ * compressed in one go; the sheet itself is streamed into the archive
+ * through `openEntry` and compressed on the threads of its WriterOptions
+ * (see ParallelDeflaterOutputStream), or on the thread that writes the
+ * entry if there are none. The compressed bytes are written to disk by a
+ * thread of each archive's own through a queue of blocks (see
+ * QueuedFileOutputStream), so serializing, compressing and writing
+ * overlap. The compression level may be set to STORED, which skips
+ * compression entirely. Streamed entries have
+ * their local header patched once they are complete, so no data
+ * descriptors are written. Since their size is not known up front, their
+ * local header reserves room for a ZIP64 extra field, which is filled in
+ * if the entry turns out to need it (4 GiB or more) and left as padding
+ * that readers skip otherwise. If an archive is closed while an entry is
+ * still open (its writer failed), the entry is abandoned and the archive
+ * is left without a central directory.
+ *
+ * Small parts are mostly the same in every archive of a run (e.g. the
+ * styles of every .xlsx file, or the settings of both files of a pair),
+ * so their compressed bytes are kept and copied into the next archive
+ * that adds the same content at the same level instead of compressing
+ * it again.
+ */
+public class ZipWriter implements Closeable {
+
+    /** A compression level that stores entries without compressing them */
+    public static final int STORED = -2;
+
+    private static final long   ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int    HEADER_SIZE = 30;
+
+    /** The ZIP64 extra field of a local header (both sizes) */
+    private static final short  ZIP64_EXTRA = 0x0001;
+    private static final int    EXTRA_SIZE  = 20;
+
+    /** The extra field that Android's zipalign pads local headers with */
+    private static final short  PADDING     = (short) 0xD935;
+
+    /** The most parts that are kept compressed (parts with timestamps never repeat) */
+    private static final int    MAX_PARTS   = 256;
+
+    /** Larger parts (e.g. calculation chains) are specific to one archive */
+    private static final int    MAX_PART    = 1 << 16;
+
+    private static final Map<Part, Compressed> PARTS = new ConcurrentHashMap<>();
+
+    private final FileOutputStream  file;
+    private final OutputStream      out;
+    private final List<Entry>       entries;
+    private final int               level;
+    private final int               threads;
+    private final int               time;
+    private long                    position;
+    private EntryStream             entry;
+
+    /**
+     * @param name The name of the file to create.
+     * @param time The modification time of every entry.
+     * @param options The compression level, the compression threads and
+     * the write queue of the archive.
+     * @throws IOException
+     */
+    public ZipWriter (String name, LocalDateTime time, WriterOptions options) throws IOException {
+        this.file       = new FileOutputStream(name);
+        this.out        = options.getWriteQueue() > 0 ? new QueuedFileOutputStream(this.file, options.getWriteQueue()) : new BufferedOutputStream(this.file, 1 << 16);
+        this.entries    = new ArrayList<>();
+        this.level      = options.getLevel();
+        this.threads    = options.getThreads();
+        this.time       = ZipWriter.toDosTime(time);
+        this.position   = 0;
+        this.entry      = null;
+    }
+
+    /**
+     * Adds an entry whose content is already known.
+     *
+     * @param name
+     * @param content
+     * @param compress If false, the entry is stored regardless of the
+     * compression level (e.g. the mimetype of an .ods file).
+     * @throws IOException
+     */
+    public void writeEntry (String name, byte[] content, boolean compress) throws IOException {
+        this.checkNotOpen();
+        boolean     stored      = !compress || this.level == STORED;
+        Compressed  compressed  = ZipWriter.compress(content, stored ? STORED : this.level);
+        byte[]      data        = compressed.data;
+        Entry entry = new Entry(name, stored, false, this.position);
+        entry.crc   = compressed.crc;
+        entry.csize = data.length;
+        entry.size  = content.length;
+        this.writeLocalHeader(entry);
+        this.write(data, 0, data.length);
+        this.entries.add(entry);
+    }
+
+    /**
+     * Starts an entry whose content is streamed. The entry must be closed
+     * before any other entry is added.
+     *
+     * @param name
+     * @return The stream to write the content of the entry to.
+     * @throws IOException
+     */
+    public OutputStream openEntry (String name) throws IOException {
+        this.checkNotOpen();
+        Entry entry = new Entry(name, this.level == STORED, true, this.position);
+        this.writeLocalHeader(entry);
+        this.entry = new EntryStream(entry);
+        return this.entry;
+    }
+
+    /**
+     * Writes the central directory and closes the file. If an entry is
+     * still open, nothing more is written and no exception is thrown, so
+     * that the failure that left it open is the one that is reported.
+     */
+    @Override
+    public void close () throws IOException {
+        if (this.entry != null) {
+            this.abort();
+            return;
+        }
+        try {
+            this.writeCentralDirectory();
+            this.out.flush();
+        } finally {
+            try {
+                this.out.close();
+            } finally {
+                this.file.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the file without writing the central directory (e.g. after
+     * its writer failed), along with the entry that is still open, if any.
+     * Never throws, so that the failure that caused it is reported.
+     */
+    void abort () {
+        if (this.entry != null) {
+            this.entry.abort();
+            this.entry = null;
+        }
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            // The archive is incomplete anyway
+        }
+        try {
+            this.file.close();
+        } catch (IOException e) {
+            // Same as above
+        }
+    }
+
+    private void checkNotOpen () {
+        if (this.entry != null) {
+            throw new IllegalStateException("The previous entry has not been closed.");
+        }
+    }
+
+    private void write (byte[] b, int off, int len) throws IOException {
+        this.out.write(b, off, len);
+        this.position += len;
+    }
+
+    private void writeLocalHeader (Entry entry) throws IOException {
+        ByteBuffer header = this.localHeader(entry);
+        this.write(header.array(), 0, header.capacity());
+    }
+
+    /**
+     * Overwrites the local header of `entry`, whose CRC and sizes were not
+     * known when it was written, with one of the same length.
+     *
+     * @param entry
+     * @throws IOException
+     */
+    private void patchLocalHeader (Entry entry) throws IOException {
+        this.out.flush();
+        ByteBuffer header = this.localHeader(entry);
+        for (long at = entry.offset; header.hasRemaining(); ) {
+            at += this.file.getChannel().write(header, at);
+        }
+    }
+
+    /**
+     * @param entry
+     * @return The local header of `entry`. Streamed entries get an extra
+     * field, which holds their sizes if they do not fit in the header
+     * itself (and is padding otherwise).
+     */
+    private ByteBuffer localHeader (Entry entry) {
+        boolean     zip64   = entry.csize >= ZIP64_LIMIT || entry.size >= ZIP64_LIMIT;
+        ByteBuffer  header  = ZipWriter.buffer(HEADER_SIZE + entry.name.length + (entry.streamed ? EXTRA_SIZE : 0));
+        header.putInt(0x04034b50);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) 0);
+        header.putShort((short) (entry.stored ? 0 : 8));
+        header.putInt(this.time);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.csize));
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.size));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (entry.streamed ? EXTRA_SIZE : 0));
+        header.put(entry.name);
+        if (entry.streamed) {
+            header.putShort(zip64 ? ZIP64_EXTRA : PADDING);
+            header.putShort((short) (EXTRA_SIZE - 4));
+            header.putLong(zip64 ? entry.size : 0);
+            header.putLong(zip64 ? entry.csize : 0);
+        }
+        header.flip();
+        return header;
+    }
+
+    private void writeCentralDirectory () throws IOException {
+        long start = this.position;
+        for (Entry entry : this.entries) {
+            boolean     zip64   = entry.csize >= ZIP64_LIMIT || entry.size >= ZIP64_LIMIT || entry.offset >= ZIP64_LIMIT;
+            ByteBuffer  header  = ZipWriter.buffer(46 + entry.name.length + (zip64 ? 28 : 0));
+            header.putInt(0x02014b50);
+            header.putShort((short) (zip64 ? 45 : 20));
+            header.putShort((short) (zip64 ? 45 : 20));
+            header.putShort((short) 0);
+            header.putShort((short) (entry.stored ? 0 : 8));
+            header.putInt(this.time);
+            header.putInt((int) entry.crc);
+            header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.csize));
+            header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.size));
+            header.putShort((short) entry.name.length);
+            header.putShort((short) (zip64 ? 28 : 0));
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(0);
+            header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.offset));
+            header.put(entry.name);
+            if (zip64) {
+                header.putShort((short) 1);
+                header.putShort((short) 24);
+                header.putLong(entry.size);
+                header.putLong(entry.csize);
+                header.putLong(entry.offset);
+            }
+            this.write(header.array(), 0, header.capacity());
+        }
+        long    size    = this.position - start;
+        boolean zip64   = start >= ZIP64_LIMIT || this.entries.size() >= 0xFFFF;
+        if (zip64) {
+            long        record  = this.position;
+            ByteBuffer  end64   = ZipWriter.buffer(56 + 20);
+            end64.putInt(0x06064b50);
+            end64.putLong(44);
+            end64.putShort((short) 45);
+            end64.putShort((short) 45);
+            end64.putInt(0);
+            end64.putInt(0);
+            end64.putLong(this.entries.size());
+            end64.putLong(this.entries.size());
+            end64.putLong(size);
+            end64.putLong(start);
+            end64.putInt(0x07064b50);
+            end64.putInt(0);
+            end64.putLong(record);
+            end64.putInt(1);
+            this.write(end64.array(), 0, end64.capacity());
+        }
+        ByteBuffer end = ZipWriter.buffer(22);
+        end.putInt(0x06054b50);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) (zip64 ? 0xFFFF : this.entries.size()));
+        end.putShort((short) (zip64 ? 0xFFFF : this.entries.size()));
+        end.putInt((int) Math.min(size, ZIP64_LIMIT));
+        end.putInt((int) (zip64 ? ZIP64_LIMIT : start));
+        end.putShort((short) 0);
+        this.write(end.array(), 0, end.capacity());
+    }
+
+    private static ByteBuffer buffer (int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @param content
+     * @param level
+     * @return The compressed bytes of `content`, which may have been
+     * compressed for an earlier entry.
+     */
+    private static Compressed compress (byte[] content, int level) {
+        Part        part        = content.length <= MAX_PART ? new Part(content, level) : null;
+        Compressed  compressed  = part == null ? null : PARTS.get(part);
+        if (compressed == null) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            compressed = new Compressed(level == STORED ? content : ZipWriter.deflate(content, level), crc.getValue());
+            if (part != null) {
+                if (PARTS.size() >= MAX_PARTS) {
+                    PARTS.clear();
+                }
+                PARTS.put(part, compressed);
+            }
+        }
+        return compressed;
+    }
+
+    private static byte[] deflate (byte[] content, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[]  buf     = new byte[content.length + 64];
+            int     length  = 0;
+            while (!deflater.finished()) {
+                if (length == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                length += deflater.deflate(buf, length, buf.length - length);
+            }
+            return Arrays.copyOf(buf, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int toDosTime (LocalDateTime time) {
+        if (time.getYear() < 1980) {
+            time = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        return (time.getYear() - 1980) << 25
+            | time.getMonthValue() << 21
+            | time.getDayOfMonth() << 16
+            | time.getHour() << 11
+            | time.getMinute() << 5
+            | time.getSecond() >> 1;
+    }
+
+    private static class Entry {
+
+        private final byte[]    name;
+        private final boolean   stored;
+        private final boolean   streamed;
+        private final long      offset;
+        private long            crc;
+        private long            csize;
+        private long            size;
+
+        Entry (String name, boolean stored, boolean streamed, long offset) {
+            this.name       = name.getBytes(StandardCharsets.UTF_8);
+            this.stored     = stored;
+            this.streamed   = streamed;
+            this.offset     = offset;
+        }
+
+    }
+
+    /**
+     * The content of a small part and the level it is compressed at.
+     */
+    private static class Part {
+
+        private final byte[]    content;
+        private final int       level;
+        private final int       hash;
+
+        Part (byte[] content, int level) {
+            this.content    = content;
+            this.level      = level;
+            this.hash       = 31 * Arrays.hashCode(content) + level;
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (!(o instanceof Part)) {
+                return false;
+            }
+            Part other = (Part) o;
+            return this.level == other.level && Arrays.equals(this.content, other.content);
+        }
+
+        @Override
+        public int hashCode () {
+            return this.hash;
+        }
+
+    }
+
+    private static class Compressed {
+
+        private final byte[]    data;
+        private final long      crc;
+
+        Compressed (byte[] data, long crc) {
+            this.data   = data;
+            this.crc    = crc;
+        }
+
+    }
+
+    /**
+     * Computes the CRC and the size of the content while handing it to
+     * the compressor (or straight to the archive if it is stored).
+     */
+    private class EntryStream extends OutputStream {
+
+        private final Entry         entry;
+        private final CRC32         crc;
+        private final OutputStream  sink;
+        private final Deflater      deflater;
+        private final long          start;
+        private boolean             closed;
+
+        EntryStream (Entry entry) {
+            this.entry  = entry;
+            this.crc    = new CRC32();
+            this.start  = ZipWriter.this.position;
+            this.closed = false;
+            OutputStream raw = new OutputStream() {
+                @Override
+                public void write (int b) throws IOException {
+                    this.write(new byte[] { (byte) b }, 0, 1);
+                }
+                @Override
+                public void write (byte[] b, int off, int len) throws IOException {
+                    ZipWriter.this.write(b, off, len);
+                }
+            };
+            if (entry.stored) {
+                this.deflater   = null;
+                this.sink       = raw;
+            } else if (ZipWriter.this.threads == 0) {
+                this.deflater   = new Deflater(ZipWriter.this.level, true);
+                this.sink       = new DeflaterOutputStream(raw, this.deflater, 1 << 16);
+            } else {
+                this.deflater   = null;
+                this.sink       = new ParallelDeflaterOutputStream(raw, ZipWriter.this.level, ZipWriter.this.threads);
+            }
+        }
+
+        @Override
+        public void write (int b) throws IOException {
+            this.crc.update(b);
+            this.entry.size++;
+            this.sink.write(b);
+        }
+
+        @Override
+        public void write (byte[] b, int off, int len) throws IOException {
+            this.crc.update(b, off, len);
+            this.entry.size += len;
+            this.sink.write(b, off, len);
+        }
+
+        /**
+         * Finishes the entry. Does not close the archive.
+         */
+        @Override
+        public void close () throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                if (this.sink instanceof DeflaterOutputStream) {
+                    ((DeflaterOutputStream) this.sink).finish();
+                } else if (this.sink instanceof ParallelDeflaterOutputStream) {
+                    ((ParallelDeflaterOutputStream) this.sink).finish();
+                }
+            } finally {
+                if (this.deflater != null) {
+                    this.deflater.end();
+                }
+            }
+            this.entry.crc      = this.crc.getValue();
+            this.entry.csize    = ZipWriter.this.position - this.start;
+            ZipWriter.this.patchLocalHeader(this.entry);
+            ZipWriter.this.entries.add(this.entry);
+            ZipWriter.this.entry = null;
+        }
+
+        /**
+         * Stops compressing the entry, which is abandoned.
+         */
+        void abort () {
+            this.closed = true;
+            if (this.sink instanceof ParallelDeflaterOutputStream) {
+                ((ParallelDeflaterOutputStream) this.sink).abort();
+            }
+            if (this.deflater != null) {
+                this.deflater.end();
+            }
+        }
+
+    }
+
+}
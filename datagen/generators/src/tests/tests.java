@@ -5,14 +5,59 @@ import static org.junit.Assert.*;
 import testutils.ExcelTestingUtils;
 import testutils.CalcTestingUtils;
 import testutils.TestingUtils;
+import testutils.DaemonClient;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.ZipInputStream;
+import java.io.UncheckedIOException;
+import java.io.FileOutputStream;
+import java.nio.file.LinkOption;
+import java.io.FileInputStream;
+import java.time.LocalDateTime;
 import java.util.OptionalLong;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.AbstractMap;
+import java.util.Collections;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.nio.file.Files;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.List;
+import java.util.Map;
 import java.io.File;
 
+import creator.UniformRowCreator;
+import writers.GroundTruthWriter;
+import writers.DualSheetWriter;
+import writers.WriterOptions;
+import writers.SheetWriter;
+import writers.XmlOutput;
+import writers.RowWriter;
+import writers.ZipWriter;
+import writers.Format;
+import creator.RowCreator;
+import utils.SheetScheduler;
+import utils.Sharding;
+import utils.CounterRandom;
 import creator.Creatable;
+import creator.Manifest;
+import creator.Creator;
+import utils.WindowSum;
+import utils.JsonLines;
 import vlookups.*;
 import sums.*;
 
@@ -80,12 +125,25 @@ public class tests {
         this.runAllIntegrationTests(creatable, rows, expectedRows, cols, expectedCols, seed, getExpectedFormula, getExpectedFormula);
     }
 
-    @Test
-    public void testCreateCalcFiles () {
-
-        sums.specialsums.BaseSpecialSum.setMaxRows(EXCLUSIVE_UPPER_BOUND * 2);
+    /**
+     * Adds `prefix` to the names of `files` so that they are not
+     * overwritten or skipped when the same sheets are created again.
+     * 
+     * @param files
+     * @param prefix
+     * @return The renamed files.
+     */
+    private File[] renameFiles (File[] files, String prefix) {
+        File[] renamed = new File[files.length];
+        for (int i = 0; i < files.length; i++) {
+            renamed[i] = new File(files[i].getParentFile(), prefix + files[i].getName());
+            assertTrue(files[i].renameTo(renamed[i]));
+        }
+        return renamed;
+    }
 
-        Creatable[] creatables = new Creatable[] {
+    private Creatable[] getAllCreatables () {
+        return new Creatable[] {
             new CompleteBipartiteSum                    (UPPR),
             new CompleteBipartiteSumWithConstant        (UPPR),
             new MixedRangeSum                           (UPPR),
@@ -101,6 +159,51 @@ public class tests {
             new sums.specialsums.NoEdgeSum              (UPPR),
             new sums.specialsums.OverlappingSum         (UPPR)
         };
+    }
+
+    /**
+     * A check of the files that `forEachSheet` created for a sheet.
+     */
+    private interface SheetCheck {
+
+        void check (Creatable creatable, int rows, OptionalLong seed, int threads) throws Exception;
+
+    }
+
+    /**
+     * Creates the streamed sheet of every layout in `creatables`, with
+     * enough rows to be split into chunks, for every seed in `seeds` and
+     * every number of threads in `threads`. Runs `check` on the files of
+     * each sheet before they are deleted.
+     *
+     * @param creatables
+     * @param formats
+     * @param seeds
+     * @param threads
+     * @param options
+     * @param check
+     * @throws Exception
+     */
+    private void forEachSheet (Creatable[] creatables, Format[] formats, OptionalLong[] seeds, int[] threads, WriterOptions options, SheetCheck check) throws Exception {
+        int rows = 1000 + this.rows;
+        sums.specialsums.BaseSpecialSum.setMaxRows(rows + EXCLUSIVE_UPPER_BOUND);
+        for (Creatable c : creatables) {
+            for (OptionalLong seed : seeds) {
+                for (int t : threads) {
+                    Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed, formats, true, t, options, null);
+                    check.check(c, rows, seed, t);
+                    TestingUtils.deleteFiles();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCreateCalcFiles () {
+
+        sums.specialsums.BaseSpecialSum.setMaxRows(EXCLUSIVE_UPPER_BOUND * 2);
+
+        Creatable[] creatables = this.getAllCreatables();
 
         /** Check if RNG path works */
         for (Creatable c : creatables) {
@@ -117,6 +220,903 @@ public class tests {
         }
     }
 
+    @Test
+    public void testStreamingExcelWriter () {
+
+        sums.specialsums.BaseSpecialSum.setMaxRows(EXCLUSIVE_UPPER_BOUND * 2);
+
+        for (Creatable c : this.getAllCreatables()) {
+            for (OptionalLong seed : new OptionalLong[] { OptionalLong.of(42L), OptionalLong.empty() }) {
+                File[] renamed = this.renameFiles(ExcelTestingUtils.createExcelFiles(c, rows, cols, seed, false), "sxssf-");
+                File[] actual  = ExcelTestingUtils.createExcelFiles(c, rows, cols, seed, true);
+                assertTrue(TestingUtils.allFilesExist(actual));
+                ExcelTestingUtils.assertWorkbooksEqual(renamed[0], actual[0]);
+                ExcelTestingUtils.assertWorkbooksEqual(renamed[1], actual[1]);
+                TestingUtils.deleteFiles();
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingCalcWriter () throws IOException {
+
+        sums.specialsums.BaseSpecialSum.setMaxRows(EXCLUSIVE_UPPER_BOUND * 2);
+
+        for (Creatable c : this.getAllCreatables()) {
+            for (OptionalLong seed : new OptionalLong[] { OptionalLong.of(42L), OptionalLong.empty() }) {
+                File[] renamed = this.renameFiles(CalcTestingUtils.createCalcFiles(c, rows, cols, seed, false), "fastods-");
+                File[] actual  = CalcTestingUtils.createCalcFiles(c, rows, cols, seed, true);
+                assertTrue(TestingUtils.allFilesExist(actual));
+                CalcTestingUtils.assertTablesEqual(renamed[0], actual[0]);
+                CalcTestingUtils.assertTablesEqual(renamed[1], actual[1]);
+                TestingUtils.deleteFiles();
+            }
+        }
+    }
+
+    @Test
+    public void testMultipleFormats () throws IOException {
+
+        sums.specialsums.BaseSpecialSum.setMaxRows(EXCLUSIVE_UPPER_BOUND * 2);
+
+        for (Creatable c : this.getAllCreatables()) {
+            OptionalLong seed = OptionalLong.of(42L);
+            File[] excel = this.renameFiles(ExcelTestingUtils.createExcelFiles(c, rows, cols, seed, true), "single-");
+            File[] calc  = this.renameFiles(CalcTestingUtils.createCalcFiles(c, rows, cols, seed, true), "single-");
+            Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed, Format.values(), true);
+            for (int i = 0; i < 2; i++) {
+                File folder = i == 0 ? TestingUtils.V_FOLDER : TestingUtils.F_FOLDER;
+                String name = (i == 0 ? "vo-" : "fv-") + rows;
+                ExcelTestingUtils.assertWorkbooksEqual(excel[i], new File(folder, name + ".xlsx"));
+                CalcTestingUtils.assertTablesEqual(calc[i], new File(folder, name + ".ods"));
+                ExcelTestingUtils.assertCsvMatchesWorkbook(excel[i], new File(folder, name + ".csv"));
+            }
+            TestingUtils.deleteFiles();
+        }
+    }
+
+    @Test
+    public void testCounterRandom () {
+        final long seed = 42;
+
+        // Values only depend on the seed and the cell
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int val = CounterRandom.nextInt(seed, r, c, UPPR);
+                assertTrue(val >= 0 && val < UPPR);
+                assertEquals(val, CounterRandom.nextInt(seed, r, c, UPPR));
+            }
+        }
+
+        // Every number in [0, size) is hit exactly once
+        for (int size = 1; size < 1000; size += RANDOM.nextInt(50) + 1) {
+            boolean[] seen = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                int val = (int) CounterRandom.permute(seed, i, size);
+                assertFalse(seen[val]);
+                seen[val] = true;
+            }
+        }
+    }
+
+    @Test
+    public void testUniformRows () throws IOException {
+
+        // Enough rows for row numbers of up to four digits and several chunks
+        int rows = 1000 + this.rows;
+        sums.specialsums.BaseSpecialSum.setMaxRows(rows + EXCLUSIVE_UPPER_BOUND);
+        Format[] formats = { Format.XLSX, Format.ODS, Format.CSV, Format.XLSB };
+        File[] files = new File[formats.length * 2];
+        for (int i = 0; i < formats.length; i++) {
+            files[i * 2]     = new File(TestingUtils.F_FOLDER, "fv-" + rows + "." + formats[i].extension);
+            files[i * 2 + 1] = new File(TestingUtils.V_FOLDER, "vo-" + rows + "." + formats[i].extension);
+        }
+
+        for (Creatable c : this.getAllCreatables()) {
+            if (!(c.prepareSheet(rows, cols) instanceof UniformRowCreator)) {
+                continue;
+            }
+
+            // The same layout, created row by row
+            Creatable plain = new Creatable() {
+                public int getRowCount (int rows) { return c.getRowCount(rows); }
+                public int getColCount (int cols) { return c.getColCount(cols); }
+                public RowCreator prepareSheet (int rows, int cols) {
+                    RowCreator creator = c.prepareSheet(rows, cols);
+                    return (r, row) -> creator.createRow(r, row);
+                }
+                public RowCreator prepareRandomSheet (int rows, int cols, long seed) {
+                    return c.prepareRandomSheet(rows, cols, seed);
+                }
+            };
+
+            // Shared formulas and repeated ODS rows keep rows, so their rows are serialized one by one
+            for (boolean stateless : new boolean[] { true, false }) {
+                WriterOptions options = WriterOptions.DEFAULT.withSharedFormulas(!stateless).withRepeatCompression(!stateless);
+                for (int threads : new int[] { 1, 3 }) {
+                    Creator.createSheets(plain, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.empty(), formats, true, threads, options, null);
+                    File[] expected = this.renameFiles(files, "plain-");
+                    Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.empty(), formats, true, threads, options, null);
+                    for (int i = 0; i < 2; i++) {
+                        ExcelTestingUtils.assertWorkbooksEqual(expected[i], files[i]);
+                        CalcTestingUtils.assertTablesEqual(expected[2 + i], files[2 + i]);
+                        assertArrayEquals(Files.readAllBytes(expected[4 + i].toPath()), Files.readAllBytes(files[4 + i].toPath()));
+                        try (ZipFile e = new ZipFile(expected[6 + i]); ZipFile a = new ZipFile(files[6 + i])) {
+                            String sheet = "xl/worksheets/sheet1.bin";
+                            assertArrayEquals(e.getInputStream(e.getEntry(sheet)).readAllBytes(), a.getInputStream(a.getEntry(sheet)).readAllBytes());
+                        }
+                    }
+                    TestingUtils.deleteFiles();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWriteDouble () throws IOException {
+        double[] values = {
+            0.0, -0.0, 1.0, -42.0, 0.1, 0.001, 9.99E-4, 123.456, 9999999.0, 1.0E7, 1.2345678E7,
+            1.0E22, 1.0E-7, Double.MAX_VALUE, Double.MIN_NORMAL, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+        };
+        for (int i = 0; i < 100000; i++) {
+            double v = i < values.length ? values[i] : i % 2 == 0 ? RANDOM.nextInt() : Double.longBitsToDouble(RANDOM.nextLong());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (XmlOutput out = new XmlOutput(bytes)) {
+                out.write(v);
+            }
+            String text = bytes.toString(StandardCharsets.US_ASCII);
+
+            // Integers are written exactly like Double.toString, everything else reads back as the same double
+            if (v == Math.rint(v) && Math.abs(v) < 1.0E7 || i < values.length) {
+                assertEquals(Double.toString(v), text);
+            } else {
+                assertEquals(Double.doubleToLongBits(v), Double.doubleToLongBits(Double.parseDouble(text)));
+                assertTrue(text.length() <= Double.toString(v).length());
+            }
+        }
+    }
+
+    @Test
+    public void testWindowSum () {
+        final int window = 5;
+        int[][] values = new int[rows * 3][cols];
+        for (int[] row : values) {
+            for (int c = 0; c < cols; c++) { row[c] = RANDOM.nextInt(UPPR); }
+        }
+        WindowSum totals = new WindowSum((r, c) -> values[r][c], cols, window, values.length);
+
+        // Consecutive rows slide the windows, other rows start over
+        for (int from : new int[] { 0, rows, 1, values.length - 1 }) {
+            for (int r = from; r < values.length; r++) {
+                for (int c = 0; c < cols; c++) {
+                    double expected = 0.0;
+                    for (int i = r; i < Math.min(r + window, values.length); i++) { expected += values[i][c]; }
+                    assertEquals(expected, totals.get(r, c), 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFormulaAllocations () throws IOException {
+
+        int rows = 2000, cols = 3;
+        sums.specialsums.BaseSpecialSum.setMaxRows(rows);
+
+        // Consumes cells without keeping (or allocating) anything
+        long[] checksum = { 0 };
+        RowWriter sink = new RowWriter() {
+            @Override public void setCellValue      (int c, double value        ) { checksum[0] += (long) value;        }
+            @Override public void setCellValue      (int c, String value        ) { checksum[0] += value.length();      }
+            @Override public void setCellFormula    (int c, CharSequence formula) { checksum[0] += formula.charAt(0);   }
+        };
+        SheetWriter sheet = new SheetWriter() {
+            @Override public RowWriter createRow    (int r) { return sink; }
+            @Override public void close             ()      { }
+        };
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (Creatable c : this.getAllCreatables()) {
+            for (Format format : Format.values()) {
+                RowCreator creator = c.prepareRandomSheet(rows, cols, 42L);
+                try (DualSheetWriter writer = new DualSheetWriter(format, sheet, sheet)) {
+                    // Warm up (e.g. load the column tables)
+                    for (int r = 0; r < rows; r++) {
+                        creator.createRow(r, writer.createRow(r));
+                    }
+                    long before = bean.getThreadAllocatedBytes(thread);
+                    for (int r = 0; r < rows; r++) {
+                        creator.createRow(r, writer.createRow(r));
+                    }
+                    long perCell = (bean.getThreadAllocatedBytes(thread) - before) / (rows * cols);
+                    assertTrue(c.getClass().getName() + " allocates " + perCell + " bytes per formula in " + format, perCell < 16);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompressionLevels () throws IOException {
+
+        // Large enough for the sheet part to span several compressed blocks
+        int         rows    = 3000 + this.rows;
+        Creatable   c       = new OverlappingSum(UPPR);
+        Format[]    formats = { Format.XLSX, Format.ODS };
+        int[][]     configs = { { ZipWriter.STORED, 1, 16 }, { ZipWriter.STORED, 3, 0 }, { 1, 0, 1 }, { 1, 1, 16 }, { 1, 3, 1 }, { 9, 3, 16 } };
+
+        Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.of(42L), formats, true);
+        File[] files = {
+            new File(TestingUtils.F_FOLDER, "fv-" + rows + ".xlsx"), new File(TestingUtils.V_FOLDER, "vo-" + rows + ".xlsx"),
+            new File(TestingUtils.F_FOLDER, "fv-" + rows + ".ods"),  new File(TestingUtils.V_FOLDER, "vo-" + rows + ".ods")
+        };
+        File[] expected = this.renameFiles(files, "default-");
+
+        try {
+            for (int[] config : configs) {
+                WriterOptions options = WriterOptions.DEFAULT.withLevel(config[0]).withThreads(config[1]).withWriteQueue(config[2]);
+                Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.of(42L), formats, true, 1, options, null);
+                for (int i = 0; i < files.length; i++) {
+                    // The local headers must agree with the central directory
+                    try (ZipInputStream in = new ZipInputStream(new FileInputStream(files[i]))) {
+                        for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                            if (config[0] == ZipWriter.STORED || entry.getName().equals("mimetype")) {
+                                assertEquals(ZipEntry.STORED, entry.getMethod());
+                            } else {
+                                assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+                            }
+                            in.readAllBytes();
+                        }
+                    }
+                    if (i < 2) {
+                        ExcelTestingUtils.assertWorkbooksEqual(expected[i], files[i]);
+                    } else {
+                        CalcTestingUtils.assertTablesEqual(expected[i], files[i]);
+                    }
+                    assertTrue(files[i].delete());
+                }
+            }
+        } finally {
+            TestingUtils.deleteFiles();
+        }
+    }
+
+    @Test
+    public void testZipPartReuse () throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) { sb.append(i).append(','); }
+        byte[] content = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        File[] files = { new File(TestingUtils.TEMP_DIR, "a.zip"), new File(TestingUtils.TEMP_DIR, "b.zip") };
+
+        // Parts that were already compressed are copied, but only into archives of the same level
+        try {
+            for (int level : new int[] { 1, ZipWriter.STORED, 1, Deflater.BEST_COMPRESSION }) {
+                for (File file : files) {
+                    try (ZipWriter zip = new ZipWriter(file.getPath(), LocalDateTime.of(2020, 1, 1, 0, 0), WriterOptions.DEFAULT.withLevel(level))) {
+                        zip.writeEntry("part", content, true);
+                        zip.writeEntry("mimetype", content, false);
+                    }
+                    try (ZipFile zip = new ZipFile(file)) {
+                        ZipEntry part = zip.getEntry("part");
+                        assertEquals(level == ZipWriter.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED, part.getMethod());
+                        assertEquals(ZipEntry.STORED, zip.getEntry("mimetype").getMethod());
+                        assertArrayEquals(content, zip.getInputStream(part).readAllBytes());
+                        assertArrayEquals(content, zip.getInputStream(zip.getEntry("mimetype")).readAllBytes());
+                    }
+                }
+            }
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testZip64LocalHeader () throws IOException {
+        File    file    = new File(TestingUtils.TEMP_DIR, "large.zip");
+        byte[]  zeros   = new byte[1 << 20];
+        long    size    = (1L << 32) + zeros.length;
+
+        // A streamed entry of 4 GiB or more has its sizes in a ZIP64 extra field of its local header
+        try {
+            try (ZipWriter zip = new ZipWriter(file.getPath(), LocalDateTime.of(2020, 1, 1, 0, 0), WriterOptions.DEFAULT.withLevel(Deflater.BEST_SPEED))) {
+                try (OutputStream entry = zip.openEntry("large")) {
+                    for (long n = 0; n < size; n += zeros.length) {
+                        entry.write(zeros);
+                    }
+                }
+                try (OutputStream entry = zip.openEntry("small")) {
+                    entry.write(zeros);
+                }
+            }
+            ByteBuffer header = ByteBuffer.allocate(30 + 5 + 20).order(ByteOrder.LITTLE_ENDIAN);
+            try (FileInputStream in = new FileInputStream(file)) {
+                in.readNBytes(header.array(), 0, header.capacity());
+            }
+            assertEquals(0x04034b50, header.getInt(0));
+            assertEquals(45, header.getShort(4));
+            assertEquals(-1, header.getInt(18));
+            assertEquals(-1, header.getInt(22));
+            assertEquals(20, header.getShort(28));
+            assertEquals(1, header.getShort(35));
+            assertEquals(16, header.getShort(37));
+            assertEquals(size, header.getLong(39));
+            long csize = header.getLong(47);
+            assertTrue(csize > 0 && csize < size);
+
+            // Streaming readers find both entries from their local headers alone
+            try (ZipInputStream in = new ZipInputStream(new FileInputStream(file))) {
+                ZipEntry entry = in.getNextEntry();
+                assertEquals("large", entry.getName());
+                assertEquals(size, entry.getSize());
+                assertEquals(csize, entry.getCompressedSize());
+                in.skip(size);
+                entry = in.getNextEntry();
+                assertEquals("small", entry.getName());
+                assertEquals(zeros.length, entry.getSize());
+                assertArrayEquals(zeros, in.readAllBytes());
+                assertNull(in.getNextEntry());
+            }
+            try (ZipFile zip = new ZipFile(file)) {
+                assertEquals(size, zip.getEntry("large").getSize());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testAbandonedZipEntry () throws IOException, InterruptedException {
+        File        file    = new File(TestingUtils.TEMP_DIR, "abandoned.zip");
+        IOException failure = new IOException("Failed to write rows");
+
+        // Closing an archive whose entry is still open does not hide the failure that left it open
+        try {
+            int threads = Thread.activeCount();
+            try (ZipWriter zip = new ZipWriter(file.getPath(), LocalDateTime.of(2020, 1, 1, 0, 0), WriterOptions.DEFAULT.withThreads(3))) {
+                OutputStream entry = zip.openEntry("sheet");
+                entry.write(new byte[1 << 20]);
+                throw failure;
+            } catch (IOException e) {
+                assertSame(failure, e);
+                assertEquals(0, e.getSuppressed().length);
+            }
+
+            // Nor does it leave the compressing threads behind
+            for (int i = 0; i < 100 && Thread.activeCount() > threads; i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(Thread.activeCount() <= threads);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSheetScheduler () throws InterruptedException {
+
+        // One thread runs the largest tasks first and ties in order
+        List<Integer>   order   = Collections.synchronizedList(new ArrayList<>());
+        SheetScheduler  sch     = new SheetScheduler(1, Long.MAX_VALUE);
+        long[]          sizes   = { 2, 5, 1, 5, 4 };
+        for (int i = 0; i < sizes.length; i++) {
+            int task = i;
+            sch.submit(sizes[i], 0, () -> order.add(task));
+        }
+        assertEquals(5, sch.run().getTasks());
+        assertEquals(List.of(1, 3, 4, 0, 2), order);
+
+        // Tasks that do not fit the budget together never run at once, even with threads to spare
+        AtomicInteger   running = new AtomicInteger();
+        AtomicInteger   peak    = new AtomicInteger();
+        sch = new SheetScheduler(4, 10);
+        for (long footprint : new long[] { 6, 6, 20, 4, 4 }) {
+            sch.submit(footprint, footprint, () -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try { Thread.sleep(20); } catch (InterruptedException e) { throw new RuntimeException(e); }
+                running.decrementAndGet();
+            });
+        }
+        sch.submit(1, 0, () -> { throw new IllegalStateException("Expected failure"); });
+        SheetScheduler.Statistics stats = sch.run();
+        assertEquals(6, stats.getTasks());
+        assertEquals(1, stats.getFailed());
+        assertEquals(6, stats.getMaxQueued());
+        assertEquals(1, stats.getOversized());
+        assertTrue(stats.getPeakReserved() <= 20);
+        assertTrue(stats.getHeldBack() > 0);
+        assertTrue(peak.get() >= 2 && peak.get() <= stats.getPeakRunning() && stats.getPeakRunning() <= 3);
+
+        // Errors count as failures too, and the worker goes on with the next task
+        AtomicInteger ran = new AtomicInteger();
+        sch = new SheetScheduler(1, Long.MAX_VALUE);
+        sch.submit(2, 0, () -> { throw new OutOfMemoryError("Java heap space"); });
+        sch.submit(1, 0, ran::incrementAndGet);
+        stats = sch.run();
+        assertEquals(1, stats.getFailed());
+        assertEquals(1, ran.get());
+    }
+
+    @Test
+    public void testFailedSheet () throws IOException, InterruptedException {
+        File disk = new File("/dev/full");
+        Assume.assumeTrue(disk.exists());
+        int         rows    = 200 + this.rows;
+        Creatable   c       = new OverlappingSum(UPPR);
+        Format[]    formats = { Format.XLSX, Format.CSV };
+        File        file    = new File(TestingUtils.F_FOLDER, "fv-" + rows + ".xlsx");
+        File        temp    = new File(TestingUtils.F_FOLDER, file.getName() + "." + ProcessHandle.current().pid() + ".tmp");
+
+        // A sheet whose file cannot be written fails, and none of its files are kept
+        try {
+            Files.createSymbolicLink(temp.toPath(), disk.toPath());
+            SheetScheduler sch = new SheetScheduler(2, Long.MAX_VALUE);
+            sch.submit(2, 0, () -> Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.of(42L), formats, true));
+            sch.submit(1, 0, () -> Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows + 1, cols, OptionalLong.of(42L), formats, true));
+            SheetScheduler.Statistics stats = sch.run();
+            assertEquals(2, stats.getTasks());
+            assertEquals(1, stats.getFailed());
+            assertFalse(file.exists());
+            assertFalse(Files.exists(temp.toPath(), LinkOption.NOFOLLOW_LINKS));
+            assertFalse(new File(TestingUtils.V_FOLDER, "vo-" + rows + ".csv").exists());
+            assertTrue(new File(TestingUtils.F_FOLDER, "fv-" + (rows + 1) + ".xlsx").exists());
+
+            // The failure is the one that the disk reported
+            Files.createSymbolicLink(temp.toPath(), disk.toPath());
+            try {
+                Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.of(42L), formats, true);
+                fail();
+            } catch (UncheckedIOException e) {
+                Throwable cause = e.getCause();
+                while (cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                assertTrue(cause.getMessage(), cause.getMessage().contains("No space left on device"));
+            }
+
+            // A value file that cannot be opened does not leave the formula file open
+            File valueTemp = new File(TestingUtils.V_FOLDER, "vo-" + rows + ".xlsx." + ProcessHandle.current().pid() + ".tmp");
+            int  threads   = Thread.activeCount();
+            assertTrue(valueTemp.mkdir());
+            try {
+                Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.of(42L), formats, true);
+                fail();
+            } catch (UncheckedIOException e) {
+                assertFalse(temp.exists());
+                for (int i = 0; i < 100 && Thread.activeCount() > threads; i++) {
+                    Thread.sleep(50);
+                }
+                assertTrue(Thread.activeCount() <= threads);
+            } finally {
+                valueTemp.delete();
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+            TestingUtils.deleteFiles();
+        }
+    }
+
+    @Test
+    public void testShards () throws IOException, InterruptedException {
+
+        // Every task lands in the same shard every time, and no shard is more than one task over the mean
+        long[]  costs   = { 5, 1, 9, 3, 3, 7, 2, 8 };
+        int[]   shards  = Sharding.assign(costs, 3);
+        long[]  loads   = new long[3];
+        assertArrayEquals(shards, Sharding.assign(costs, 3));
+        for (int i = 0; i < costs.length; i++) {
+            loads[shards[i]] += costs[i];
+        }
+        for (long load : loads) {
+            assertTrue(load <= 38 / 3 + 9);
+        }
+
+        // Shards created by separate processes add up to the whole series
+        File[]      dirs    = { new File(TestingUtils.TEMP_DIR, "shard0"), new File(TestingUtils.TEMP_DIR, "shard1"), new File(TestingUtils.TEMP_DIR, "shard2") };
+        File        blocked = new File(TestingUtils.F_FOLDER, "fv-110.xlsx");
+        Properties  config  = new Properties();
+        config.setProperty("INST", "CompleteBipartiteSum");
+        config.setProperty("PATH", TestingUtils.TEMP_DIR.getAbsolutePath());
+        config.setProperty("SEED", "42");
+        config.setProperty("XLSX", "true");
+        config.setProperty("STEP", "100");
+        config.setProperty("ROWS", "10");
+        config.setProperty("COLS", "2");
+        config.setProperty("ITRS", "7");
+        config.setProperty("POOL", "1");
+        config.setProperty("UPPR", "10");
+        config.setProperty("STRM", "true");
+        config.setProperty("FRMT", "xlsx,csv");
+        config.setProperty("SCNT", "3");
+        try {
+            List<Process> processes = new ArrayList<>();
+            for (int s = 0; s < dirs.length; s++) {
+                config.setProperty("SIDX", String.valueOf(s));
+                processes.add(TestingUtils.startMain(dirs[s], config));
+            }
+            for (Process process : processes) {
+                assertEquals(0, process.waitFor());
+            }
+            config.setProperty("SIDX", "0");
+            config.setProperty("MRGE", "true");
+            assertEquals(0, TestingUtils.startMain(dirs[0], config).waitFor());
+            for (int r = 10; r <= 610; r += 100) {
+                assertTrue(new File(TestingUtils.F_FOLDER, "fv-" + r + ".xlsx").exists());
+                assertTrue(new File(TestingUtils.V_FOLDER, "vo-" + r + ".csv").exists());
+            }
+
+            // The merge fails without every file and every shard, until the shards are run again
+            assertTrue(new File(TestingUtils.V_FOLDER, "vo-310.xlsx").delete());
+            assertEquals(1, TestingUtils.startMain(dirs[0], config).waitFor());
+            config.setProperty("MRGE", "false");
+            for (int s = 0; s < dirs.length; s++) {
+                config.setProperty("SIDX", String.valueOf(s));
+                assertEquals(0, TestingUtils.startMain(dirs[s], config).waitFor());
+            }
+            config.setProperty("MRGE", "true");
+            assertEquals(0, TestingUtils.startMain(dirs[0], config).waitFor());
+            assertTrue(new File(TestingUtils.TEMP_DIR, "shard-2-of-3").delete());
+            assertEquals(1, TestingUtils.startMain(dirs[0], config).waitFor());
+
+            // A file that was cut short fails the merge, even though it exists
+            config.setProperty("MRGE", "false");
+            for (int s = 0; s < dirs.length; s++) {
+                config.setProperty("SIDX", String.valueOf(s));
+                assertEquals(0, TestingUtils.startMain(dirs[s], config).waitFor());
+            }
+            Path    csv     = new File(TestingUtils.V_FOLDER, "vo-310.csv").toPath();
+            byte[]  bytes   = Files.readAllBytes(csv);
+            Files.write(csv, Arrays.copyOf(bytes, bytes.length / 2));
+            config.setProperty("SIDX", "0");
+            config.setProperty("MRGE", "true");
+            assertEquals(1, TestingUtils.startMain(dirs[0], config).waitFor());
+
+            // A shard with a sheet that fails exits with status 1 and is not marked as complete
+            assertTrue(blocked.delete());
+            assertTrue(new File(blocked, "file").mkdirs());
+            config.setProperty("MRGE", "false");
+            int failed = 0;
+            for (int s = 0; s < dirs.length; s++) {
+                config.setProperty("SIDX", String.valueOf(s));
+                if (TestingUtils.startMain(dirs[s], config).waitFor() != 0) {
+                    assertFalse(new File(TestingUtils.TEMP_DIR, "shard-" + s + "-of-3").exists());
+                    failed++;
+                }
+            }
+            assertEquals(1, failed);
+            config.setProperty("SIDX", "0");
+            config.setProperty("MRGE", "true");
+            assertEquals(1, TestingUtils.startMain(dirs[0], config).waitFor());
+        } finally {
+            TestingUtils.deleteDirectory(new File(blocked, "file"));
+            blocked.delete();
+            for (int s = 0; s < dirs.length; s++) {
+                new File(TestingUtils.TEMP_DIR, "shard-" + s + "-of-3").delete();
+                new File(dirs[s], "config").delete();
+                dirs[s].delete();
+            }
+            TestingUtils.deleteDirectory(new File(TestingUtils.TEMP_DIR, "manifest"));
+            TestingUtils.deleteFiles();
+        }
+    }
+
+    @Test
+    public void testManifest () throws IOException {
+        int         rows    = 300 + this.rows;
+        Creatable   c       = new OverlappingSum(UPPR);
+        Format[]    formats = { Format.XLSX, Format.XLSB, Format.ODS, Format.FODS, Format.CSV };
+        File        dir     = new File(TestingUtils.TEMP_DIR, "manifest");
+        Manifest    a       = new Manifest(TestingUtils.TEMP_DIR, "options=a");
+        Manifest    b       = new Manifest(TestingUtils.TEMP_DIR, "options=b");
+        List<File>  files   = Creator.listFiles(TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, formats, WriterOptions.DEFAULT);
+        Consumer<Manifest> create = manifest -> Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.of(42L), formats, true, 1, WriterOptions.DEFAULT, manifest);
+        try {
+            create.accept(a);
+            List<byte[]> expected = new ArrayList<>();
+            for (File file : files) {
+                expected.add(Files.readAllBytes(file.toPath()));
+                assertTrue(file.setLastModified(0));
+            }
+            assertEquals(formats.length, dir.list().length);
+            for (File folder : new File[] { TestingUtils.F_FOLDER, TestingUtils.V_FOLDER }) {
+                assertEquals(0, folder.list((d, name) -> name.endsWith(".tmp")).length);
+            }
+
+            // Valid files are kept
+            create.accept(a);
+            for (File file : files) {
+                assertEquals(0, file.lastModified());
+            }
+
+            // Missing and truncated files are created again, with the same bytes
+            assertTrue(files.get(0).delete());
+            try (FileOutputStream out = new FileOutputStream(files.get(3))) {
+                out.write(expected.get(3), 0, expected.get(3).length / 2);
+            }
+            assertTrue(files.get(3).setLastModified(0));
+            create.accept(a);
+            for (int i = 0; i < files.size(); i++) {
+                assertArrayEquals(files.get(i).toString(), expected.get(i), Files.readAllBytes(files.get(i).toPath()));
+                // Both files of a format are created together
+                assertEquals(i < 4, files.get(i).lastModified() != 0);
+            }
+
+            // Files created from other inputs are created again
+            for (File file : files) {
+                assertTrue(file.setLastModified(0));
+            }
+            create.accept(b);
+            for (int i = 0; i < files.size(); i++) {
+                assertNotEquals(0, files.get(i).lastModified());
+                assertArrayEquals(expected.get(i), Files.readAllBytes(files.get(i).toPath()));
+            }
+            assertEquals(formats.length * 2, dir.list().length);
+        } finally {
+            TestingUtils.deleteDirectory(dir);
+            TestingUtils.deleteFiles();
+        }
+    }
+
+    @Test
+    public void testDaemon () throws IOException {
+        String  path    = TestingUtils.TEMP_DIR.getAbsolutePath();
+        File    blocked = new File(TestingUtils.F_FOLDER, "fv-30.xlsx");
+
+        // Whole numbers in any form are read as integers
+        Map<String, Object> numbers = JsonLines.parse("{\"a\": 100.0, \"b\": 1e3, \"c\": 2.50E+1, \"d\": -0.0, \"e\": 1.5, \"f\": 1e-1, \"g\": 1e30}");
+        assertEquals(List.of("100", "1000", "25", "0", "1.5", "1e-1", "1e30"), new ArrayList<>(numbers.values()));
+        for (String number : new String[] { "01", "1.", "+1", "1e", "1-2", "1e9999999999" }) {
+            try {
+                JsonLines.parse("{\"a\": " + number + "}");
+                fail(number);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid number"));
+            }
+        }
+        try {
+            for (boolean socket : new boolean[] { false, true }) {
+                try (DaemonClient client = DaemonClient.start(TestingUtils.TEMP_DIR, socket)) {
+
+                    // Every sheet of a job is reported with its files, then the job
+                    List<Map<String, Object>> events = client.run("id", "a", "INST", "CompleteBipartiteSum", "PATH", path, "SEED", 42, "XLSX", true, "STEP", 100, "ROWS", 10, "COLS", 2, "ITRS", 2, "POOL", 1, "UPPR", null, "STRM", true, "FRMT", List.of("xlsx", "csv"));
+                    assertEquals(4, events.size());
+                    assertEquals("started", events.get(0).get("event"));
+                    for (int i = 1; i <= 2; i++) {
+                        assertEquals("sheet", events.get(i).get("event"));
+                        assertEquals(Boolean.TRUE, events.get(i).get("complete"));
+                        List<?> files = (List<?>) events.get(i).get("files");
+                        assertEquals(4, files.size());
+                        for (Object file : files) {
+                            assertTrue(new File((String) file).exists());
+                        }
+                    }
+                    assertEquals("done", events.get(3).get("event"));
+                    assertEquals("0", events.get(3).get("status"));
+                    assertEquals("0", events.get(3).get("failed"));
+
+                    // A failed job does not stop the daemon
+                    events = client.run("id", "b", "INST", "NoSuchSum", "PATH", path, "SEED", null, "STEP", 100, "ROWS", 10, "COLS", 2, "ITRS", 2, "POOL", 1, "UPPR", null);
+                    assertEquals("failed", events.get(events.size() - 1).get("event"));
+                    assertTrue(((String) events.get(events.size() - 1).get("error")).contains("NoSuchSum"));
+                    events = client.run("id", 3, "INST", "RunningSum", "PATH", path, "SEED", 42, "XLSX", true, "STEP", 100.0, "ROWS", 20.0, "COLS", 2, "ITRS", 1, "POOL", 2, "UPPR", null, "STRM", true, "FRMT", "xlsx");
+                    assertEquals("done", events.get(events.size() - 1).get("event"));
+                    assertEquals(3, events.size());
+                    assertTrue(new File(TestingUtils.F_FOLDER, "fv-20.xlsx").exists());
+
+                    // A sheet that fails is reported with its error, and so is the job
+                    assertTrue(new File(blocked, "file").mkdirs());
+                    for (int pool : new int[] { 1, 2 }) {
+                        events = client.run("id", "d" + pool, "INST", "RunningSum", "PATH", path, "SEED", 42, "XLSX", true, "STEP", 100, "ROWS", 30, "COLS", 2, "ITRS", 2, "POOL", pool, "UPPR", null, "STRM", true, "FRMT", "xlsx");
+                        assertEquals(4, events.size());
+                        for (Map<String, Object> event : events.subList(1, 3)) {
+                            boolean failed = event.get("rows").equals("30");
+                            assertEquals(!failed, event.get("complete"));
+                            assertEquals(failed, event.get("error") != null);
+                        }
+                        assertEquals("done", events.get(3).get("event"));
+                        assertEquals("1", events.get(3).get("status"));
+                        assertEquals("1", events.get(3).get("failed"));
+                    }
+                    TestingUtils.deleteDirectory(new File(blocked, "file"));
+                    assertTrue(blocked.delete());
+
+                    // A client whose connection is reset does not stop the daemon
+                    if (socket) {
+                        client.reconnect();
+                        events = client.run("id", "f", "INST", "RunningSum", "PATH", path, "SEED", 42, "XLSX", true, "STEP", 100, "ROWS", 50, "COLS", 2, "ITRS", 1, "POOL", 1, "UPPR", null, "STRM", true, "FRMT", "xlsx");
+                        assertEquals("done", events.get(events.size() - 1).get("event"));
+                    }
+                }
+                TestingUtils.deleteFiles();
+            }
+        } finally {
+            TestingUtils.deleteDirectory(new File(blocked, "file"));
+            blocked.delete();
+            TestingUtils.deleteDirectory(new File(TestingUtils.TEMP_DIR, "manifest"));
+            TestingUtils.deleteFiles();
+        }
+    }
+
+    @Test
+    public void testChunkedSheets () throws IOException {
+
+        // Enough rows for several chunks
+        int rows = 1000 + this.rows;
+        sums.specialsums.BaseSpecialSum.setMaxRows(rows + EXCLUSIVE_UPPER_BOUND);
+
+        for (Creatable c : this.getAllCreatables()) {
+            for (OptionalLong seed : new OptionalLong[] { OptionalLong.empty(), OptionalLong.of(42L) }) {
+                Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed, Format.values(), true);
+                File[] files = new File[Format.values().length * 2];
+                for (Format format : Format.values()) {
+                    files[format.ordinal() * 2]     = new File(TestingUtils.F_FOLDER, "fv-" + rows + "." + format.extension);
+                    files[format.ordinal() * 2 + 1] = new File(TestingUtils.V_FOLDER, "vo-" + rows + "." + format.extension);
+                }
+                File[] single = this.renameFiles(files, "single-");
+                Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed, Format.values(), true, 3);
+                for (int i = 0; i < 2; i++) {
+                    ExcelTestingUtils.assertWorkbooksEqual(single[Format.XLSX.ordinal() * 2 + i], files[Format.XLSX.ordinal() * 2 + i]);
+                    CalcTestingUtils.assertTablesEqual(single[Format.ODS.ordinal() * 2 + i], files[Format.ODS.ordinal() * 2 + i]);
+                    assertArrayEquals(
+                        Files.readAllBytes(single[Format.CSV.ordinal() * 2 + i].toPath())
+                        , Files.readAllBytes(files[Format.CSV.ordinal() * 2 + i].toPath())
+                    );
+                }
+                TestingUtils.deleteFiles();
+            }
+        }
+    }
+
+    @Test
+    public void testSharedFormulas () throws IOException {
+
+        // Enough rows for several blocks of shared formulas
+        int rows = 1000 + this.rows;
+        sums.specialsums.BaseSpecialSum.setMaxRows(rows + EXCLUSIVE_UPPER_BOUND);
+        Format[] formats = { Format.XLSX };
+        File[] files = {
+            new File(TestingUtils.F_FOLDER, "fv-" + rows + ".xlsx"),
+            new File(TestingUtils.V_FOLDER, "vo-" + rows + ".xlsx")
+        };
+        WriterOptions options = WriterOptions.DEFAULT.withSharedFormulas(true);
+
+        for (Creatable c : this.getAllCreatables()) {
+            Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.of(42L), formats, true);
+            File[] plain = this.renameFiles(files, "plain-");
+            Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.of(42L), formats, true, 1, options, null);
+            File[] shared = this.renameFiles(files, "shared-");
+            Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, OptionalLong.of(42L), formats, true, 3, options, null);
+            for (int i = 0; i < files.length; i++) {
+                ExcelTestingUtils.assertWorkbooksEqual(plain[i], shared[i], true);
+                ExcelTestingUtils.assertWorkbooksEqual(shared[i], files[i]);
+            }
+            // Short formulas take about as much space as a reference to a group
+            if (c instanceof CompleteBipartiteVlookup) {
+                try (ZipFile p = new ZipFile(plain[0]); ZipFile s = new ZipFile(shared[0])) {
+                    String sheet = "xl/worksheets/sheet1.xml";
+                    assertTrue(s.getEntry(sheet).getSize() < p.getEntry(sheet).getSize());
+                }
+            }
+            TestingUtils.deleteFiles();
+        }
+    }
+
+    @Test
+    public void testCachedResults () throws IOException {
+
+        sums.specialsums.BaseSpecialSum.setMaxRows(EXCLUSIVE_UPPER_BOUND * 2);
+        Format[]        formats = { Format.XLSX, Format.ODS };
+        WriterOptions   options = WriterOptions.DEFAULT.withCachedResults(true).withFullCalcOnLoad(false);
+
+        for (Creatable c : this.getAllCreatables()) {
+            for (OptionalLong seed : new OptionalLong[] { OptionalLong.of(42L), OptionalLong.empty() }) {
+                Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed, formats, false, 1, options, null);
+                File[] sxssf   = this.renameFiles(new File[] { new File(TestingUtils.V_FOLDER, "vo-" + rows + ".xlsx"), new File(TestingUtils.F_FOLDER, "fv-" + rows + ".xlsx") }, "sxssf-");
+                File[] fastods = this.renameFiles(new File[] { new File(TestingUtils.V_FOLDER, "vo-" + rows + ".ods"), new File(TestingUtils.F_FOLDER, "fv-" + rows + ".ods") }, "fastods-");
+                ExcelTestingUtils.assertCachedResults(sxssf[1], sxssf[0]);
+                Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed, formats, true, 1, options, null);
+                File xlsx = new File(TestingUtils.F_FOLDER, "fv-" + rows + ".xlsx");
+                File ods  = new File(TestingUtils.F_FOLDER, "fv-" + rows + ".ods");
+                ExcelTestingUtils.assertCachedResults(xlsx, new File(TestingUtils.V_FOLDER, "vo-" + rows + ".xlsx"));
+                ExcelTestingUtils.assertWorkbooksEqual(sxssf[1], xlsx);
+                CalcTestingUtils.assertCachedResults(ods);
+                CalcTestingUtils.assertTablesEqual(fastods[1], ods);
+                try (ZipFile zip = new ZipFile(xlsx)) {
+                    String workbook = new String(zip.getInputStream(zip.getEntry("xl/workbook.xml")).readAllBytes());
+                    assertTrue(workbook.contains("fullCalcOnLoad=\"0\""));
+                }
+                TestingUtils.deleteFiles();
+            }
+        }
+    }
+
+    @Test
+    public void testCalcChain () throws Exception {
+        Creatable[] creatables = { new OverlappingSum(UPPR), new sums.specialsums.MixedRangeSum(UPPR) };
+        for (boolean shared : new boolean[] { false, true }) {
+            WriterOptions options = WriterOptions.DEFAULT.withCalcChain(true).withSharedFormulas(shared);
+            this.forEachSheet(creatables, new Format[] { Format.XLSX }, new OptionalLong[] { OptionalLong.of(42L) }, new int[] { 3 }, options, (c, rows, seed, threads) -> {
+                File fv = new File(TestingUtils.F_FOLDER, "fv-" + rows + ".xlsx");
+                File vo = new File(TestingUtils.V_FOLDER, "vo-" + rows + ".xlsx");
+                ExcelTestingUtils.assertCalcChainMatches(fv);
+                ExcelTestingUtils.assertCalcChainMatches(vo);
+                try (ZipFile zip = new ZipFile(vo)) {
+                    assertNull(zip.getEntry("xl/calcChain.xml"));
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testRepeatCompression () throws Exception {
+        Creatable[]     creatables  = { new CompleteBipartiteSum(UPPR), new sums.specialsums.NoEdgeSum(UPPR) };
+        Format[]        formats     = { Format.ODS };
+        OptionalLong[]  seeds       = { OptionalLong.of(42L), OptionalLong.empty() };
+        this.forEachSheet(creatables, formats, seeds, new int[] { 1, 3 }, WriterOptions.DEFAULT, (c, rows, seed, threads) -> {
+            File[] files = {
+                new File(TestingUtils.F_FOLDER, "fv-" + rows + ".ods"),
+                new File(TestingUtils.V_FOLDER, "vo-" + rows + ".ods")
+            };
+            File[] repeated = this.renameFiles(files, "repeated-");
+            Creator.createSheets(c, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed, formats, true, 1, WriterOptions.DEFAULT.withRepeatCompression(false), null);
+            for (int i = 0; i < files.length; i++) {
+                CalcTestingUtils.assertTablesEqual(files[i], repeated[i]);
+            }
+            // Every row of this unseeded sheet is the same, others vary in their formulas or results
+            if (!seed.isPresent() && c instanceof CompleteBipartiteSum) {
+                for (int i = 0; i < files.length; i++) {
+                    try (ZipFile p = new ZipFile(files[i]); ZipFile r = new ZipFile(repeated[i])) {
+                        assertTrue(r.getEntry("content.xml").getSize() * 10 < p.getEntry("content.xml").getSize());
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testFlatOds () throws Exception {
+        Creatable[] creatables = { new OverlappingSum(UPPR), new CompleteBipartiteVlookup(UPPR) };
+        this.forEachSheet(creatables, new Format[] { Format.ODS, Format.FODS }, new OptionalLong[] { OptionalLong.of(42L) }, new int[] { 1, 3 }, WriterOptions.DEFAULT, (c, rows, seed, threads) -> {
+            for (File folder : new File[] { TestingUtils.F_FOLDER, TestingUtils.V_FOLDER }) {
+                String  name = (folder == TestingUtils.F_FOLDER ? "fv-" : "vo-") + rows;
+                File    flat = new File(folder, name + ".fods");
+                CalcTestingUtils.assertTablesEqual(new File(folder, name + ".ods"), flat);
+                // The whole document must be well-formed XML
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                assertEquals("document", factory.newDocumentBuilder().parse(flat).getDocumentElement().getLocalName());
+            }
+        });
+    }
+
+    @Test
+    public void testXlsb () throws Exception {
+        // Errors (#N/A) and special sums (constants) besides plain formulas
+        Creatable[]     creatables  = { new SameCellVlookup(UPPR), new sums.specialsums.OverlappingSum(UPPR) };
+        WriterOptions   options     = WriterOptions.DEFAULT.withCachedResults(true).withFullCalcOnLoad(false);
+        this.forEachSheet(creatables, new Format[] { Format.XLSX, Format.XLSB }, new OptionalLong[] { OptionalLong.of(42L) }, new int[] { 1, 3 }, options, (c, rows, seed, threads) -> {
+            for (File folder : new File[] { TestingUtils.F_FOLDER, TestingUtils.V_FOLDER }) {
+                String name = (folder == TestingUtils.F_FOLDER ? "fv-" : "vo-") + rows;
+                ExcelTestingUtils.assertXlsbMatchesWorkbook(new File(folder, name + ".xlsx"), new File(folder, name + ".xlsb"));
+            }
+        });
+    }
+
+    @Test
+    public void testGroundTruth () throws Exception {
+        // Errors (#N/A) besides numbers, and empty cells in unseeded sheets
+        Creatable[]     creatables  = { new SameCellVlookup(UPPR), new RunningSum(UPPR) };
+        OptionalLong[]  seeds       = { OptionalLong.of(42L), OptionalLong.empty() };
+        WriterOptions   options     = WriterOptions.DEFAULT.withGroundTruth(GroundTruthWriter.Encoding.values());
+        this.forEachSheet(creatables, new Format[] { Format.XLSX }, seeds, new int[] { 1, 3 }, options, (c, rows, seed, threads) -> {
+            for (GroundTruthWriter.Encoding encoding : GroundTruthWriter.Encoding.values()) {
+                File truth = new File(TestingUtils.V_FOLDER, "gt-" + rows + "." + encoding.extension);
+                ExcelTestingUtils.assertGroundTruthMatches(new File(TestingUtils.V_FOLDER, "vo-" + rows + ".xlsx"), truth, encoding, c.getRowCount(rows), c.getColCount(cols));
+            }
+        });
+    }
+
     @Test
     public void testCompleteBipartiteSum() {
         final long seed = 42;
@@ -9,12 +9,24 @@ import com.github.jferard.fastods.TableRowImpl;
 import com.github.jferard.fastods.TableCell;
 import com.github.jferard.fastods.Table;
 
+import java.nio.charset.StandardCharsets;
 import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
 import java.util.OptionalLong;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.io.InputStream;
 import java.io.File;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import writers.FastodsSheetWriter;
+import writers.DualSheetWriter;
+import writers.Format;
 import creator.Creatable;
 import creator.Creator;
 
@@ -30,6 +42,12 @@ import creator.Creator;
  * */
 public class CalcTestingUtils extends TestingUtils {
 
+    /** A row with a repeat count: the start tag before the count, the count, and the rest of the row */
+    private static final Pattern ROW_REPEAT     = Pattern.compile("(<table:table-row[^>]*?) table:number-rows-repeated=\"(\\d+)\"([^>]*>.*?</table:table-row>)");
+
+    /** A (self-closing) cell with a repeat count */
+    private static final Pattern CELL_REPEAT    = Pattern.compile("(<table:table-cell[^>]*?) table:number-columns-repeated=\"(\\d+)\"([^>]*/>)");
+
     /**
      * Creates a formula-value spreadsheet and its corresponding value-only spreadsheet
      * using `creatable`. The spreadsheet is saved as a .ods file.
@@ -42,7 +60,23 @@ public class CalcTestingUtils extends TestingUtils {
      * the formula-value file.
      */
     public static File[] createCalcFiles (Creatable creatable, int rows, int cols, OptionalLong seed) {
-        Creator.createCalcSheet(creatable, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed);
+        return CalcTestingUtils.createCalcFiles(creatable, rows, cols, seed, false);
+    }
+
+    /**
+     * Same as `createCalcFiles` but lets the caller choose between fastods
+     * and the streaming writer.
+     * 
+     * @param creatable
+     * @param rows
+     * @param cols
+     * @param seed
+     * @param stream
+     * @return An array, ARR, of two files. ARR[0] is the value-only file and ARR[1] is
+     * the formula-value file.
+     */
+    public static File[] createCalcFiles (Creatable creatable, int rows, int cols, OptionalLong seed, boolean stream) {
+        Creator.createCalcSheet(creatable, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed, stream);
         return new File[] {
             Path.of(TestingUtils.V_FOLDER.toString(), "vo-" + rows + ".ods").toFile(),
             Path.of(TestingUtils.F_FOLDER.toString(), "fv-" + rows + ".ods").toFile()
@@ -87,11 +121,7 @@ public class CalcTestingUtils extends TestingUtils {
             }
             
             // Call the real method
-            if (seed.isPresent()) {
-                createMock.createRandomCalcSheet(fSheetMock, vSheetMock, rows, cols, seed.getAsLong());
-            } else {
-                createMock.createCalcSheet(fSheetMock, vSheetMock, rows, cols);
-            }
+            Creator.createSheet(createMock, new DualSheetWriter(Format.ODS, new FastodsSheetWriter(fSheetMock), new FastodsSheetWriter(vSheetMock)), rows, cols, seed);
 
             // Check function calls and parameters
             for (int r = 0; r < expectedRows; r++) {
@@ -109,5 +139,69 @@ public class CalcTestingUtils extends TestingUtils {
 
         } catch (IOException e) { e.printStackTrace(); }
     }
-    
+
+    /**
+     * Checks that the `<table:table>` elements in the `content.xml` parts
+     * of two .ods files are identical once repeated rows and cells are
+     * expanded. This ignores the metadata and the view settings, which
+     * are allowed to differ.
+     * 
+     * @param expectedFile
+     * @param actualFile
+     * @throws IOException
+     */
+    public static void assertTablesEqual (File expectedFile, File actualFile) throws IOException {
+        assertEquals(CalcTestingUtils.readTable(expectedFile), CalcTestingUtils.readTable(actualFile));
+    }
+
+    /**
+     * Checks that every formula in the table of an .ods file has a cached
+     * result (i.e. a value type).
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public static void assertCachedResults (File file) throws IOException {
+        String table = CalcTestingUtils.readTable(file);
+        for (int i = table.indexOf("<table:table-cell "); i >= 0; i = table.indexOf("<table:table-cell ", i + 1)) {
+            String cell = table.substring(i, table.indexOf('>', i));
+            if (cell.contains("table:formula=")) {
+                assertTrue(cell, cell.contains("office:value-type="));
+            }
+        }
+    }
+
+    private static String readTable (File file) throws IOException {
+        String content = CalcTestingUtils.readContent(file);
+        String table   = content.substring(content.indexOf("<table:table "), content.indexOf("</table:table>"));
+        return CalcTestingUtils.expand(CalcTestingUtils.expand(table, ROW_REPEAT), CELL_REPEAT);
+    }
+
+    private static String readContent (File file) throws IOException {
+        // Flat documents are not archives, and hold the content themselves
+        if (file.getName().endsWith(".fods")) {
+            return Files.readString(file.toPath());
+        }
+        try (ZipFile zip = new ZipFile(file); InputStream in = zip.getInputStream(zip.getEntry("content.xml"))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @param s
+     * @param pattern
+     * @return `s` with every match of `pattern` written out as many times
+     * as it is repeated, without the repeat count.
+     */
+    private static String expand (String s, Pattern pattern) {
+        Matcher         m   = pattern.matcher(s);
+        StringBuilder   sb  = new StringBuilder();
+        while (m.find()) {
+            m.appendReplacement(sb, "");
+            sb.append(m.group(1).concat(m.group(3)).repeat(Integer.parseInt(m.group(2))));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
 }
@@ -0,0 +1,145 @@
+package testutils;
+
+import java.nio.charset.StandardCharsets;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.net.InetAddress;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.nio.file.Path;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.io.File;
+
+import utils.JsonLines;
+
+/**
+ * Stands in for the client of a generator daemon (see Daemon), like the
+ * one in pymem/utils/pipeline.py, by starting `Main --daemon` in a JVM of
+ * its own and talking to it over its stdin and stdout or over a socket.
+ */
+public class DaemonClient implements AutoCloseable {
+
+    private final Process           process;
+    private final int               port;
+    private Socket                  socket;
+    private BufferedReader          events;
+    private PrintStream             jobs;
+
+    private DaemonClient (Process process, int port, Socket socket, BufferedReader events, OutputStream jobs) {
+        this.process    = process;
+        this.port       = port;
+        this.socket     = socket;
+        this.events     = events;
+        this.jobs       = new PrintStream(jobs, true, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Starts a daemon in `dir` and waits until it is ready.
+     *
+     * @param dir
+     * @param socket True to talk over a socket, false to use stdin and stdout.
+     * @return A client of the daemon.
+     * @throws IOException
+     */
+    public static DaemonClient start (File dir, boolean socket) throws IOException {
+        dir.mkdirs();
+        List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-cp", System.getProperty("java.class.path"), "Main", "--daemon"));
+        if (socket) {
+            command.add("0");
+        }
+        Process         process = new ProcessBuilder(command).directory(dir).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        BufferedReader  stdout  = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        Map<String, Object> ready = DaemonClient.read(stdout);
+        if (!"ready".equals(ready.get("event"))) {
+            process.destroy();
+            throw new IOException("Unexpected event " + ready);
+        }
+        if (!socket) {
+            return new DaemonClient(process, -1, null, stdout, process.getOutputStream());
+        }
+
+        // Everything else on stdout is progress, which must not fill the pipe
+        Thread drain = new Thread(() -> { try { while (stdout.readLine() != null); } catch (IOException e) {} });
+        drain.setDaemon(true);
+        drain.start();
+        int     port        = Integer.parseInt((String) ready.get("port"));
+        Socket  connection  = new Socket(InetAddress.getLoopbackAddress(), port);
+        return new DaemonClient(process, port, connection, new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)), connection.getOutputStream());
+    }
+
+    /**
+     * Resets the connection of a client started with a socket, like a
+     * client that crashed, and connects again.
+     *
+     * @throws IOException
+     */
+    public void reconnect () throws IOException {
+        this.socket.setSoLinger(true, 0);
+        this.socket.close();
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), this.port);
+        this.events = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), StandardCharsets.UTF_8));
+        this.jobs   = new PrintStream(this.socket.getOutputStream(), true, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends a job and waits until it is done.
+     *
+     * @param members Alternating keys and values of the job (see JsonLines.format),
+     * which must include an "id".
+     * @return Every event of the job, the last of which is "done" or "failed".
+     * @throws IOException
+     */
+    public List<Map<String, Object>> run (Object... members) throws IOException {
+        Object id = null;
+        for (int i = 0; i + 1 < members.length; i += 2) {
+            if ("id".equals(members[i])) {
+                id = String.valueOf(members[i + 1]);
+            }
+        }
+        this.jobs.println(JsonLines.format(members));
+        List<Map<String, Object>> received = new ArrayList<>();
+        while (true) {
+            Map<String, Object> event = DaemonClient.read(this.events);
+            if (id == null || !id.equals(event.get("id"))) {
+                continue;
+            }
+            received.add(event);
+            if ("done".equals(event.get("event")) || "failed".equals(event.get("event"))) {
+                return received;
+            }
+        }
+    }
+
+    /**
+     * Shuts the daemon down and waits for it to exit.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close () throws IOException {
+        try {
+            this.jobs.println(JsonLines.format("op", "shutdown"));
+            this.process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.process.destroy();
+        } finally {
+            if (this.socket != null) {
+                this.socket.close();
+            }
+        }
+    }
+
+    private static Map<String, Object> read (BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new IOException("The daemon stopped");
+        }
+        return JsonLines.parse(line);
+    }
+
+}
@@ -2,23 +2,64 @@ package testutils;
 
 import static org.junit.Assert.*;
 
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCalcCell;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.util.LittleEndianByteArrayOutputStream;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.binary.XSSFBSharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFBReader;
+import org.apache.poi.xssf.binary.XSSFBSheetHandler;
 import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.formula.FormulaRenderer;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.apache.poi.ss.formula.ptg.AreaPtgBase;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.xssf.binary.XSSFBParser;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.ss.formula.FormulaType;
 import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.util.LittleEndian;
 import org.apache.poi.ss.usermodel.Row;
+import org.xml.sax.SAXException;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.io.ByteArrayOutputStream;
 import java.util.function.BiFunction;
+import java.nio.channels.FileChannel;
+import java.io.ByteArrayInputStream;
 import java.util.OptionalLong;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Iterator;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.io.File;
 
 import creator.Creatable;
 import creator.Creator;
 
+import writers.GroundTruthWriter;
+
 public class ExcelTestingUtils extends TestingUtils {
     
     /**
@@ -33,7 +74,22 @@ public class ExcelTestingUtils extends TestingUtils {
      * the formula-value file.
      */
     public static File[] createExcelFiles (Creatable creatable, int rows, int cols, OptionalLong seed) {
-        Creator.createExcelSheet(creatable, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed);
+        return createExcelFiles(creatable, rows, cols, seed, false);
+    }
+
+    /**
+     * Same as above, but `stream` selects the writer that is used.
+     * 
+     * @param creatable
+     * @param rows
+     * @param cols
+     * @param seed
+     * @param stream
+     * @return An array, ARR, of two files. ARR[0] is the value-only file and ARR[1] is 
+     * the formula-value file.
+     */
+    public static File[] createExcelFiles (Creatable creatable, int rows, int cols, OptionalLong seed, boolean stream) {
+        Creator.createExcelSheet(creatable, TestingUtils.F_FOLDER.toString(), TestingUtils.V_FOLDER.toString(), rows, cols, seed, stream);
         return new File[] {
             Path.of(TestingUtils.V_FOLDER.toString(), "vo-" + rows + ".xlsx").toFile(),
             Path.of(TestingUtils.F_FOLDER.toString(), "fv-" + rows + ".xlsx").toFile()
@@ -65,6 +121,389 @@ public class ExcelTestingUtils extends TestingUtils {
         TestingUtils.deleteFiles();
     }
 
+    /**
+     * Checks that both workbooks have the same sheets, rows, and cells, where two
+     * cells are the same if they have the same type and the same value or formula.
+     * 
+     * @param expectedFile
+     * @param actualFile
+     */
+    public static void assertWorkbooksEqual (File expectedFile, File actualFile) {
+        ExcelTestingUtils.assertWorkbooksEqual(expectedFile, actualFile, false);
+    }
+
+    /**
+     * @param expectedFile
+     * @param actualFile
+     * @param ignoreAnchors If true, formulas are compared in the form that
+     * POI renders them in and without '$' signs. Shared formulas anchor
+     * the rows that stay put and POI renders the cells that share a
+     * formula from its parsed tokens.
+     */
+    public static void assertWorkbooksEqual (File expectedFile, File actualFile, boolean ignoreAnchors) {
+        try (XSSFWorkbook expected = new XSSFWorkbook(expectedFile); XSSFWorkbook actual = new XSSFWorkbook(actualFile)) {
+            assertEquals(expected.getNumberOfSheets(), actual.getNumberOfSheets());
+            Iterator<Row> actualRows = actual.getSheetAt(0).iterator();
+            for (Row eRow : expected.getSheetAt(0)) {
+                assertTrue("Missing row " + eRow.getRowNum() + " in " + actualFile, actualRows.hasNext());
+                Row aRow = actualRows.next();
+                assertEquals(eRow.getRowNum(), aRow.getRowNum());
+                assertEquals(eRow.getPhysicalNumberOfCells(), aRow.getPhysicalNumberOfCells());
+                for (Cell eCell : eRow) {
+                    Cell aCell = aRow.getCell(eCell.getColumnIndex());
+                    assertNotNull("Missing cell " + eCell.getAddress() + " in " + actualFile, aCell);
+                    assertEquals(eCell.getCellType(), aCell.getCellType());
+                    switch (eCell.getCellType()) {
+                        case NUMERIC : assertEquals(eCell.getNumericCellValue(), aCell.getNumericCellValue(), 0.0); break;
+                        case STRING  : assertEquals(eCell.getStringCellValue() , aCell.getStringCellValue());       break;
+                        case FORMULA : assertEquals(normalize(expected, eCell, ignoreAnchors), normalize(actual, aCell, ignoreAnchors)); break;
+                        default      : fail("Unexpected cell type at " + eCell.getAddress());
+                    }
+                }
+            }
+            assertFalse("Extra rows found in " + actualFile, actualRows.hasNext());
+        } catch (InvalidFormatException | IOException e) {
+            e.printStackTrace();
+            fail("Could not open file.");
+        }
+    }
+
+    private static String normalize (XSSFWorkbook workbook, Cell cell, boolean ignoreAnchors) {
+        if (!ignoreAnchors) {
+            return cell.getCellFormula();
+        }
+        XSSFEvaluationWorkbook book = XSSFEvaluationWorkbook.create(workbook);
+        Ptg[] tokens = FormulaParser.parse(cell.getCellFormula(), book, FormulaType.CELL, 0);
+        return FormulaRenderer.toFormulaString(book, tokens).replace("$", "");
+    }
+
+    /**
+     * Checks that the calculation chain of a .xlsx file lists exactly the
+     * formula cells of its sheet, row by row.
+     * 
+     * @param file
+     */
+    public static void assertCalcChainMatches (File file) {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(file)) {
+            List<String> expected = new ArrayList<>();
+            for (Row row : workbook.getSheetAt(0)) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() == CellType.FORMULA) {
+                        expected.add(cell.getAddress().formatAsString());
+                    }
+                }
+            }
+            List<String> actual = new ArrayList<>();
+            if (workbook.getCalculationChain() != null) {
+                for (CTCalcCell cell : workbook.getCalculationChain().getCTCalcChain().getCArray()) {
+                    actual.add(cell.getR());
+                }
+            }
+            assertEquals(expected, actual);
+        } catch (InvalidFormatException | IOException e) {
+            e.printStackTrace();
+            fail("Could not open file.");
+        }
+    }
+
+    /**
+     * Checks that every formula in a formula-value .xlsx file has a cached
+     * result, and that it is the value in the same cell of the matching
+     * value-only file.
+     * 
+     * @param formulaFile
+     * @param valueFile
+     */
+    public static void assertCachedResults (File formulaFile, File valueFile) {
+        try (XSSFWorkbook formulas = new XSSFWorkbook(formulaFile); XSSFWorkbook values = new XSSFWorkbook(valueFile)) {
+            for (Row row : formulas.getSheetAt(0)) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() != CellType.FORMULA) {
+                        continue;
+                    }
+                    Cell value = values.getSheetAt(0).getRow(row.getRowNum()).getCell(cell.getColumnIndex());
+                    switch (cell.getCachedFormulaResultType()) {
+                        case NUMERIC : assertEquals(value.getNumericCellValue(), cell.getNumericCellValue(), 0.0);               break;
+                        case ERROR   : assertEquals(value.getStringCellValue(), ((XSSFCell) cell).getErrorCellString());          break;
+                        case STRING  : assertEquals(value.getStringCellValue(), cell.getStringCellValue());                      break;
+                        default      : fail("Unexpected cached result at " + cell.getAddress());
+                    }
+                }
+            }
+        } catch (InvalidFormatException | IOException e) {
+            e.printStackTrace();
+            fail("Could not open file.");
+        }
+    }
+
+    /**
+     * Checks that a .xlsb file holds the same cells as the first sheet of
+     * a .xlsx file, as read back by POI's XSSFB reader. Values and the
+     * cached results of formulas are compared as DataFormatter formats
+     * them. Formulas are also compared by their parsed tokens, which must
+     * be the ones that POI parses the formulas of the .xlsx file into
+     * (with 4-byte rows, as BIFF12 stores them).
+     * 
+     * @param workbookFile A .xlsx file written with cached results.
+     * @param xlsbFile
+     */
+    public static void assertXlsbMatchesWorkbook (File workbookFile, File xlsbFile) {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(workbookFile); OPCPackage pkg = OPCPackage.open(xlsbFile, PackageAccess.READ)) {
+            XSSFBReader             reader  = new XSSFBReader(pkg);
+            Iterator<InputStream>   sheets  = reader.getSheetsData();
+            byte[]                  sheet;
+            assertTrue(sheets.hasNext());
+            try (InputStream in = sheets.next()) {
+                sheet = in.readAllBytes();
+            }
+            assertFalse(sheets.hasNext());
+
+            Map<String, String> values = new HashMap<>();
+            SheetContentsHandler handler = new SheetContentsHandler() {
+                @Override public void startRow (int r) {}
+                @Override public void endRow (int r) {}
+                @Override public void cell (String ref, String value, XSSFComment comment) {
+                    assertNull("Duplicate cell " + ref + " in " + xlsbFile, values.put(ref, value));
+                }
+            };
+            DataFormatter formatter = new DataFormatter();
+            new XSSFBSheetHandler(new ByteArrayInputStream(sheet), reader.getXSSFBStylesTable(), null, new XSSFBSharedStringsTable(pkg), handler, formatter, false).parse();
+            Map<String, Byte>   errors = new HashMap<>();
+            Map<String, byte[]> tokens = ExcelTestingUtils.readXlsbTokens(sheet, errors);
+
+            XSSFEvaluationWorkbook book = XSSFEvaluationWorkbook.create(workbook);
+            int cells = 0;
+            for (Row row : workbook.getSheetAt(0)) {
+                for (Cell cell : row) {
+                    String ref = cell.getAddress().formatAsString();
+                    assertTrue("Missing cell " + ref + " in " + xlsbFile, values.containsKey(ref));
+                    String expected;
+                    switch (cell.getCellType()) {
+                        case NUMERIC : expected = formatter.formatCellValue(cell);  break;
+                        case STRING  : expected = cell.getStringCellValue();        break;
+                        case FORMULA :
+                            switch (cell.getCachedFormulaResultType()) {
+                                case NUMERIC : expected = formatter.formatRawCellContents(cell.getNumericCellValue(), 0, "General");   break;
+                                case ERROR   :
+                                    // The reader does not say which error a cell holds
+                                    assertEquals("Error of " + ref, cell.getErrorCellValue(), (byte) errors.get(ref));
+                                    expected = "ERROR";
+                                    break;
+                                default      : expected = cell.getStringCellValue();                                                    break;
+                            }
+                            Ptg[] ptgs = FormulaParser.parse(cell.getCellFormula(), book, FormulaType.CELL, 0);
+                            assertArrayEquals("Tokens of " + ref, ExcelTestingUtils.toXlsbTokens(ptgs), tokens.remove(ref));
+                            break;
+                        default      : fail("Unexpected cell type at " + ref); return;
+                    }
+                    assertEquals("Value of " + ref, expected, values.get(ref));
+                    cells++;
+                }
+            }
+            assertEquals(cells, values.size());
+            assertTrue("Extra formulas in " + xlsbFile + ": " + tokens.keySet(), tokens.isEmpty());
+        } catch (OpenXML4JException | SAXException | IOException e) {
+            e.printStackTrace();
+            fail("Could not open file.");
+        }
+    }
+
+    /**
+     * @param sheet
+     * @param errors The code of every error cached by a formula is put
+     * here, by the address of its cell.
+     * @return The parsed tokens of every formula in the BIFF12 `sheet`,
+     * by the address of its cell.
+     * @throws IOException
+     */
+    private static Map<String, byte[]> readXlsbTokens (byte[] sheet, Map<String, Byte> errors) throws IOException {
+        Map<String, byte[]> tokens = new HashMap<>();
+        new XSSFBParser(new ByteArrayInputStream(sheet)) {
+            private int row = -1;
+            @Override
+            public void handleRecord (int type, byte[] data) {
+                // Formula cells (BrtFmlaString, BrtFmlaNum and BrtFmlaError)
+                // start with the column, the style and the cached result
+                int offset;
+                switch (type) {
+                    case 0  : this.row = LittleEndian.getInt(data, 0);             return;
+                    case 8  : offset = 8 + 4 + 2 * LittleEndian.getInt(data, 8);   break;
+                    case 9  : offset = 8 + 8;                                       break;
+                    case 11 : offset = 8 + 1;                                       break;
+                    default : return;
+                }
+                // Then come the flags and the size of the tokens
+                int size = LittleEndian.getInt(data, offset + 2);
+                String ref = new CellReference(this.row, LittleEndian.getInt(data, 0)).formatAsString();
+                if (type == 11) {
+                    errors.put(ref, data[8]);
+                }
+                tokens.put(ref, Arrays.copyOfRange(data, offset + 6, offset + 6 + size));
+            }
+        }.parse();
+        return tokens;
+    }
+
+    /**
+     * @param ptgs
+     * @return The tokens as BIFF12 stores them. Only references differ
+     * from BIFF8, as their rows take 4 bytes instead of 2.
+     */
+    private static byte[] toXlsbTokens (Ptg[] ptgs) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Ptg ptg : ptgs) {
+            byte[] biff8 = new byte[ptg.getSize()];
+            ptg.write(new LittleEndianByteArrayOutputStream(biff8, 0));
+            if (ptg instanceof RefPtgBase) {
+                RefPtgBase ref = (RefPtgBase) ptg;
+                bytes.write(biff8[0]);
+                ExcelTestingUtils.writeInt(bytes, ref.getRow());
+                ExcelTestingUtils.writeShort(bytes, LittleEndian.getUShort(biff8, 3));
+            } else if (ptg instanceof AreaPtgBase) {
+                AreaPtgBase area = (AreaPtgBase) ptg;
+                bytes.write(biff8[0]);
+                ExcelTestingUtils.writeInt(bytes, area.getFirstRow());
+                ExcelTestingUtils.writeInt(bytes, area.getLastRow());
+                ExcelTestingUtils.writeShort(bytes, LittleEndian.getUShort(biff8, 5));
+                ExcelTestingUtils.writeShort(bytes, LittleEndian.getUShort(biff8, 7));
+            } else {
+                bytes.write(biff8, 0, biff8.length);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeInt (ByteArrayOutputStream bytes, int v) {
+        ExcelTestingUtils.writeShort(bytes, v);
+        ExcelTestingUtils.writeShort(bytes, v >>> 16);
+    }
+
+    private static void writeShort (ByteArrayOutputStream bytes, int v) {
+        bytes.write(v);
+        bytes.write(v >>> 8);
+    }
+
+    /**
+     * Checks that a ground truth file holds the values of the first sheet
+     * of a value-only .xlsx file, with one entry for every cell of a
+     * `rows` x `cols` matrix. Binary files are read through a memory map,
+     * as verifiers are meant to.
+     * 
+     * @param valueFile
+     * @param truthFile
+     * @param encoding
+     * @param rows
+     * @param cols
+     */
+    public static void assertGroundTruthMatches (File valueFile, File truthFile, GroundTruthWriter.Encoding encoding, int rows, int cols) {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(valueFile); FileChannel channel = FileChannel.open(truthFile.toPath(), StandardOpenOption.READ)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            if (encoding == GroundTruthWriter.Encoding.BIN) {
+                ByteBuffer truth = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+                assertEquals(GroundTruthWriter.HEADER_SIZE + 8L * rows * cols, channel.size());
+                assertEquals("SMGT", new String(new byte[] { truth.get(0), truth.get(1), truth.get(2), truth.get(3) }, StandardCharsets.US_ASCII));
+                assertEquals(GroundTruthWriter.VERSION, truth.getInt(4));
+                assertEquals(rows, truth.getLong(8));
+                assertEquals(cols, truth.getLong(16));
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        long actual = truth.getLong(GroundTruthWriter.HEADER_SIZE + 8 * (r * cols + c));
+                        assertEquals("Cell (" + r + ", " + c + ")", ExcelTestingUtils.truthBits(sheet, r, c), actual);
+                    }
+                }
+            } else {
+                String          separator   = encoding == GroundTruthWriter.Encoding.CSV ? "," : "\t";
+                List<String>    lines       = Files.readAllLines(truthFile.toPath());
+                assertEquals(rows, lines.size());
+                for (int r = 0; r < rows; r++) {
+                    String[] fields = lines.get(r).split(separator, -1);
+                    assertEquals(cols, fields.length);
+                    for (int c = 0; c < cols; c++) {
+                        Row     row     = sheet.getRow(r);
+                        Cell    cell    = row == null ? null : row.getCell(c);
+                        String  field   = "";
+                        if (cell != null) {
+                            field = cell.getCellType() == CellType.NUMERIC ? Double.toString(cell.getNumericCellValue()) : cell.getStringCellValue();
+                        }
+                        assertEquals("Cell (" + r + ", " + c + ")", field, fields[c]);
+                    }
+                }
+            }
+        } catch (InvalidFormatException | IOException e) {
+            e.printStackTrace();
+            fail("Could not open file.");
+        }
+    }
+
+    private static long truthBits (Sheet sheet, int r, int c) {
+        Row  row  = sheet.getRow(r);
+        Cell cell = row == null ? null : row.getCell(c);
+        if (cell == null) {
+            return GroundTruthWriter.EMPTY;
+        }
+        if (cell.getCellType() == CellType.NUMERIC) {
+            return Double.doubleToRawLongBits(cell.getNumericCellValue());
+        }
+        return GroundTruthWriter.errorBits(FormulaError.forString(cell.getStringCellValue()).getCode());
+    }
+
+    /**
+     * Checks that a .csv file holds the same cells as the first sheet of
+     * a .xlsx file. Formulas are compared with their text as written
+     * (i.e. before POI normalizes them).
+     * 
+     * @param workbookFile
+     * @param csvFile
+     */
+    public static void assertCsvMatchesWorkbook (File workbookFile, File csvFile) {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(workbookFile)) {
+            List<String> lines = Files.readAllLines(csvFile.toPath());
+            int r = 0;
+            for (Row row : workbook.getSheetAt(0)) {
+                for (; r < row.getRowNum(); r++) {
+                    assertEquals("", lines.get(r));
+                }
+                List<String> fields = ExcelTestingUtils.splitCsvLine(lines.get(r++));
+                assertEquals(row.getLastCellNum(), fields.size());
+                for (Cell cell : row) {
+                    String field = fields.get(cell.getColumnIndex());
+                    switch (cell.getCellType()) {
+                        case NUMERIC : assertEquals(cell.getNumericCellValue(), Double.parseDouble(field), 0.0);                       break;
+                        case STRING  : assertEquals(cell.getStringCellValue(), field);                                                   break;
+                        case FORMULA : assertEquals("=" + ((XSSFCell) cell).getCTCell().getF().getStringValue(), field);            break;
+                        default      : fail("Unexpected cell type at " + cell.getAddress());
+                    }
+                }
+            }
+            assertEquals(r, lines.size());
+        } catch (InvalidFormatException | IOException e) {
+            e.printStackTrace();
+            fail("Could not open file.");
+        }
+    }
+
+    private static List<String> splitCsvLine (String line) {
+        List<String>    fields  = new ArrayList<>();
+        StringBuilder   field   = new StringBuilder();
+        boolean         quoted  = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (quoted && ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                field.append('"');
+                i++;
+            } else if (ch == '"') {
+                quoted = !quoted;
+            } else if (!quoted && ch == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(ch);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
     private static void checkExcelFVWorkbook (File formulaValueFile, int rows, int expectedRows, int cols, int expectedCols, OptionalLong seed, int uppr, BiFunction<Integer, Integer, String> getExpectedFormula) {
         try (XSSFWorkbook fWorkbook = new XSSFWorkbook(formulaValueFile)) {
             assertEquals(1, fWorkbook.getNumberOfSheets());
@@ -3,16 +3,15 @@ package testutils;
 import org.apache.poi.ss.util.CellReference;
 
 import java.util.function.BiFunction;
+import java.io.FileOutputStream;
 import java.util.AbstractMap;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Random;
-import java.util.Deque;
-import java.util.List;
+import java.util.Properties;
+import java.io.IOException;
 
 import java.nio.file.Path;
 import java.io.File;
 
+import utils.CounterRandom;
 import creator.Creatable;
 import vlookups.*;
 import sums.*;
@@ -52,6 +51,18 @@ public class TestingUtils {
         TestingUtils.deleteAllFilesInDirectory(TestingUtils.F_FOLDER);
     }
 
+    /**
+     * Deletes `dir` along with the files in it.
+     *
+     * @param dir
+     */
+    public static void deleteDirectory (File dir) {
+        if (dir.exists()) {
+            TestingUtils.deleteAllFilesInDirectory(dir);
+            dir.delete();
+        }
+    }
+
     /**
      * Tests if all files in `files` exist.
      * 
@@ -65,6 +76,28 @@ public class TestingUtils {
         return true;
     }
 
+    /**
+     * Runs Main in a JVM of its own, in `dir` (which is created if needed)
+     * with `config` as its config file. Its output is discarded but its
+     * errors are shown.
+     *
+     * @param dir
+     * @param config
+     * @return The started process.
+     * @throws IOException
+     */
+    public static Process startMain (File dir, Properties config) throws IOException {
+        dir.mkdirs();
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "config"))) {
+            config.store(out, null);
+        }
+        return new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-cp", System.getProperty("java.class.path"), "Main")
+            .directory(dir)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    }
+
     /**
      * Creates `dir` and all necessary parent folders.
      * If the folder exists all files in it are deleted.
@@ -149,7 +182,7 @@ public class TestingUtils {
     }
 
     public static AbstractMap.SimpleEntry<Creatable, BiFunction<Integer, Integer, String>> getNoEdgeSum(int rows, int cols, int uppr, long seed) {
-        Random[] randRef = { null };
+        boolean[] isRandom = { false };
         int[] numRows = { 0 };
         return new AbstractMap.SimpleEntry<>(new NoEdgeSum(uppr), (currRowIdx, currColIdx) -> {
             
@@ -157,15 +190,15 @@ public class TestingUtils {
             // Integration tests alternate between non-random and random
             // sheets, so we need to reset these values after each test.
             if (numRows[0] == rows * cols) {
-                randRef[0] = (randRef[0] == null ? new Random(seed) : null);
+                isRandom[0] = !isRandom[0];
                 numRows[0] = 0;
             }
 
             // Return the correct formula for the corresponding integration
             // test.
             numRows[0]++;
-            if (randRef[0] != null) {
-                return String.format("SUM(%f)", (double) randRef[0].nextInt(uppr));
+            if (isRandom[0]) {
+                return String.format("SUM(%f)", (double) CounterRandom.nextInt(seed, currRowIdx, currColIdx, uppr));
             } else {
                 return String.format("SUM(%f)", BaseSum.FILL_VALUE);
             }
@@ -174,22 +207,15 @@ public class TestingUtils {
     }
 
     public static AbstractMap.SimpleEntry<Creatable, BiFunction<Integer, Integer, String>> getSpecialOverlappingSum(int rows, int cols, int uppr, int windowSize, long seed) {
-        Random[] randRef = { null };
+        boolean[] isRandom = { false };
         int[] numRows = { 0 };
-        List<Double> values = new ArrayList<>();
         return new AbstractMap.SimpleEntry<>(new sums.specialsums.OverlappingSum(uppr), (currRowIdx, currColIdx) -> {
         
             // This will be true once we perform one integration test.
             // Integration tests alternate between non-random and random
             // sheets, so we need to reset these values after each test.
             if (numRows[0] == sums.specialsums.OverlappingSum.MAX_V_ROWS * cols) {
-                randRef[0] = (randRef[0] == null ? new Random(seed) : null);
-                values.clear();
-                if (randRef[0] != null) {
-                    for (int i = 0; i < sums.specialsums.OverlappingSum.MAX_V_ROWS * cols; i++) {
-                        values.add((double) randRef[0].nextInt(uppr));
-                    }
-                }
+                isRandom[0] = !isRandom[0];
                 numRows[0] = 0;
             }
 
@@ -204,12 +230,10 @@ public class TestingUtils {
                     , currRowIdx + windowSize
                 );
             } else {
-                if (randRef[0] != null) {
+                if (isRandom[0]) {
                     double total = 0.0;
-                    for (int i = 0; i < windowSize; i++) {
-                        if (cols * (currRowIdx + i) + currColIdx < values.size()) {
-                            total += values.get(cols * (currRowIdx + i) + currColIdx);
-                        } else break;
+                    for (int i = currRowIdx; i < Math.min(currRowIdx + windowSize, sums.specialsums.OverlappingSum.MAX_V_ROWS); i++) {
+                        total += CounterRandom.nextInt(seed, i, currColIdx, uppr);
                     }
                     return total + "";
                 } else {
@@ -221,7 +245,7 @@ public class TestingUtils {
     }
 
     public static AbstractMap.SimpleEntry<Creatable, BiFunction<Integer, Integer, String>> getSpecialNoEdgeSum(int rows, int cols, int uppr, long seed) {
-        Random[] randRef = { null };
+        boolean[] isRandom = { false };
         int[] numRows = { 0 };
         return new AbstractMap.SimpleEntry<>(new sums.specialsums.NoEdgeSum(uppr), (currRowIdx, currColIdx) -> {
             
@@ -229,7 +253,7 @@ public class TestingUtils {
             // Integration tests alternate between non-random and random
             // sheets, so we need to reset these values after each test.
             if (numRows[0] == sums.specialsums.NoEdgeSum.MAX_V_ROWS * cols) {
-                randRef[0] = (randRef[0] == null ? new Random(seed) : null);
+                isRandom[0] = !isRandom[0];
                 numRows[0] = 0;
             }
 
@@ -237,14 +261,14 @@ public class TestingUtils {
             // test.
             numRows[0]++;
             if (currRowIdx < rows) {
-                if (randRef[0] != null) {
-                    return String.format("SUM(%f)", (double) randRef[0].nextInt(uppr));
+                if (isRandom[0]) {
+                    return String.format("SUM(%f)", (double) CounterRandom.nextInt(seed, currRowIdx, currColIdx, uppr));
                 } else {
                     return String.format("SUM(%f)", BaseSum.FILL_VALUE);
                 }
             } else {
-                if (randRef[0] != null) {
-                    return ((double) randRef[0].nextInt(uppr)) + "";
+                if (isRandom[0]) {
+                    return ((double) CounterRandom.nextInt(seed, currRowIdx, currColIdx, uppr)) + "";
                 } else {
                     return BaseSum.FILL_VALUE + "";
                 }
@@ -254,25 +278,18 @@ public class TestingUtils {
     }
 
     public static AbstractMap.SimpleEntry<Creatable, BiFunction<Integer, Integer, String>> getSpecialMixedRangeSum(int rows, int cols, int uppr, long seed) {
-        Random[] randRef = { null };
+        boolean[] isRandom = { false };
         int[] numRows = { 0 };
         double[] total = { 0 };
-        Deque<Double> values = new ArrayDeque<>();
         return new AbstractMap.SimpleEntry<>(new sums.specialsums.MixedRangeSum(uppr), (currRowIdx, currColIdx) -> {
         
             // This will be true once we perform one integration test.
             // Integration tests alternate between non-random and random
             // sheets, so we need to reset these values after each test.
             if (numRows[0] == sums.specialsums.MixedRangeSum.MAX_V_ROWS * cols) {
-                randRef[0] = (randRef[0] == null ? new Random(seed) : null);
-                if (randRef[0] != null) {
-                    values.clear();
-                    total[0] = 0;
-                    for (int i = 0; i < sums.specialsums.MixedRangeSum.MAX_V_ROWS * cols; i++) {
-                        double val = (double) randRef[0].nextInt(uppr);
-                        values.add(val);
-                        total[0] += val;
-                    }
+                isRandom[0] = !isRandom[0];
+                if (isRandom[0]) {
+                    total[0] = TestingUtils.getRandomTotal(sums.specialsums.MixedRangeSum.MAX_V_ROWS, cols, uppr, seed);
                 } else {
                     total[0] = BaseSum.FILL_VALUE * sums.specialsums.MixedRangeSum.MAX_V_ROWS * cols;
                 }
@@ -283,12 +300,6 @@ public class TestingUtils {
             // test.
             numRows[0]++;
             if (currRowIdx < rows) {
-
-                // We pop a value here so that the random numbers generated 
-                // by the spreadsheet creator align with the ones we generate
-                // in this function.
-                if (randRef[0] != null) values.pop();
-                
                 return String.format("SUM(%s%d:%s%d) + SUM(A1:%s%d)"
                     , CellReference.convertNumToColString(currColIdx)
                     , currRowIdx + 1
@@ -298,8 +309,8 @@ public class TestingUtils {
                     , sums.specialsums.MixedRangeSum.MAX_V_ROWS
                 );
             } else {
-                if (randRef[0] != null) {
-                    return (total[0] + values.pop()) + "";
+                if (isRandom[0]) {
+                    return (total[0] + CounterRandom.nextInt(seed, currRowIdx, currColIdx, uppr)) + "";
                 } else {
                     return (total[0] + BaseSum.FILL_VALUE) + "";
                 }
@@ -309,7 +320,7 @@ public class TestingUtils {
     }
 
     public static AbstractMap.SimpleEntry<Creatable, BiFunction<Integer, Integer, String>> getSpecialCompleteBipartiteSum(int rows, int cols, int uppr, long seed) {
-        Random[] randRef = { null };
+        boolean[] isRandom = { false };
         int[] numRows = { 0 };
         double[] total = { 0 };
         return new AbstractMap.SimpleEntry<>(new sums.specialsums.CompleteBipartiteSum(uppr), (currRowIdx, currColIdx) -> {
@@ -318,12 +329,9 @@ public class TestingUtils {
             // Integration tests alternate between non-random and random
             // sheets, so we need to reset these values after each test.
             if (numRows[0] == sums.specialsums.CompleteBipartiteSum.MAX_V_ROWS * cols) {
-                randRef[0] = (randRef[0] == null ? new Random(seed) : null);
-                if (randRef[0] != null) {
-                    total[0] = 0;
-                    for (int i = 0; i < sums.specialsums.CompleteBipartiteSum.MAX_V_ROWS * cols; i++) {
-                        total[0] += (double) randRef[0].nextInt(uppr);
-                    }
+                isRandom[0] = !isRandom[0];
+                if (isRandom[0]) {
+                    total[0] = TestingUtils.getRandomTotal(sums.specialsums.CompleteBipartiteSum.MAX_V_ROWS, cols, uppr, seed);
                 } else {
                     total[0] = BaseSum.FILL_VALUE * sums.specialsums.CompleteBipartiteSum.MAX_V_ROWS * cols;
                 }
@@ -344,4 +352,14 @@ public class TestingUtils {
 
         });
     }
+
+    private static double getRandomTotal(int rows, int cols, int uppr, long seed) {
+        double total = 0.0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                total += CounterRandom.nextInt(seed, r, c, uppr);
+            }
+        }
+        return total;
+    }
 }
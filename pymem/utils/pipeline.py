@@ -5,10 +5,15 @@ import pymem.libremem.mem as libre_mem
 import multiprocessing
 import subprocess
 import pathlib
+import atexit
+import json
 import os
 
 from . import definitions
 
+# The dataset generator that create_datasets runs on, once it is started
+_daemon = None
+
 class ConfigArgs:
     def __init__(self, path, inst, seed, xlsx, step, rows, cols, itrs, pool, uppr):
         self.path = path
@@ -70,8 +75,11 @@ def __create_process(child_conn, xlsx, inputs_path, output_path, experiment_arg,
 
 def create_datasets(config_args):
     """
-    Creates a file named 'config' in this project's root directory
-    using the members of `config_args`.
+    Creates the benchmarking datasets that `config_args` describes on
+    the dataset generator that this module keeps running (see
+    GeneratorDaemon), so that creating several datasets from the same
+    Python process only starts the JVM once. The generator runs in this
+    project's root directory, so relative paths are resolved from there.
 
     Parameter(s):
     -------------
@@ -79,23 +87,106 @@ def create_datasets(config_args):
             Specifies how to create the benchmarking dataset. See the
             datagen project's README for an explanation of each field.
     """
-    cwd = pathlib.Path().cwd()
-    os.chdir(definitions.ROOT_DIR)
-    with open(os.path.join(definitions.ROOT_DIR, 'config'), 'w') as f:
-        config_args_path = pathlib.Path(config_args.path).as_posix()
-        f.write(f"INST={config_args.inst}\n")
-        f.write(f"PATH={config_args_path}\n")
-        f.write(f"SEED={config_args.seed}\n")
-        f.write(f"XLSX={config_args.xlsx}\n")
-        f.write(f"STEP={config_args.step}\n")
-        f.write(f"ROWS={config_args.rows}\n")
-        f.write(f"COLS={config_args.cols}\n")
-        f.write(f"ITRS={config_args.itrs}\n")
-        f.write(f"POOL={config_args.pool}\n")
-        f.write(f"UPPR={config_args.uppr}\n")
-    subprocess.check_call(["java", "-jar", definitions.JAR_NAME])
-    os.remove(os.path.join(definitions.ROOT_DIR, 'config'))
-    os.chdir(cwd)
+    global _daemon
+    if _daemon is None or _daemon.process.poll() is not None:
+        _daemon = GeneratorDaemon()
+        atexit.register(_daemon.close)
+    _daemon.create_datasets(config_args)
+
+class GeneratorDaemon:
+    """
+    Keeps the dataset generator running (see the daemon in datagen's
+    README), so that creating several datasets only starts the JVM once.
+
+    Example:
+    --------
+        with GeneratorDaemon() as daemon:
+            for config_args in configs:
+                daemon.create_datasets(config_args)
+    """
+
+    def __init__(self):
+        self.process = subprocess.Popen(["java", "-jar", definitions.JAR_NAME, "--daemon"]
+            , cwd=definitions.ROOT_DIR
+            , stdin=subprocess.PIPE
+            , stdout=subprocess.PIPE
+            , text=True
+        )
+        self.jobs = 0
+        self.__read()
+
+    def __enter__(self):
+        return self
+
+    def __exit__(self, *args):
+        self.close()
+
+    def __read(self):
+        line = self.process.stdout.readline()
+        if not line:
+            raise RuntimeError("The dataset generator stopped")
+        return json.loads(line)
+
+    def create_datasets(self, config_args, **options):
+        """
+        Creates the datasets that `config_args` describes and waits until
+        they are done.
+
+        Parameter(s):
+        -------------
+            config_args : ConfigArgs
+                Specifies how to create the benchmarking dataset. See
+                the datagen project's README for an explanation of each
+                field.
+
+            options : dict
+                Optional fields (e.g. FRMT=["xlsx", "csv"]). See the
+                datagen project's README.
+
+        Returns:
+        --------
+            A list of the events of every sheet, each with its "rows",
+            "seconds" and "files".
+        """
+        self.jobs += 1
+        job = {
+            "id"        : self.jobs
+            , "INST"    : config_args.inst
+            , "PATH"    : pathlib.Path(config_args.path).as_posix()
+            , "SEED"    : config_args.seed
+            , "XLSX"    : config_args.xlsx
+            , "STEP"    : config_args.step
+            , "ROWS"    : config_args.rows
+            , "COLS"    : config_args.cols
+            , "ITRS"    : config_args.itrs
+            , "POOL"    : config_args.pool
+            , "UPPR"    : config_args.uppr
+        }
+        job.update(options)
+        self.process.stdin.write(json.dumps(job) + "\n")
+        self.process.stdin.flush()
+        sheets = []
+        while True:
+            event = self.__read()
+            if str(event.get("id")) != str(self.jobs):
+                continue
+            if event["event"] == "sheet":
+                sheets.append(event)
+            elif event["event"] == "failed":
+                raise RuntimeError(event["error"])
+            elif event["event"] == "done":
+                if event["status"] != 0:
+                    raise RuntimeError(f"The dataset generator exited with status {event['status']}")
+                return sheets
+
+    def close(self):
+        """
+        Stops the generator.
+        """
+        if self.process.poll() is None:
+            self.process.stdin.write(json.dumps({"op": "shutdown"}) + "\n")
+            self.process.stdin.flush()
+            self.process.wait()
 
 def run(config_args, output_path, experiment_arg, sofficepath):
     """